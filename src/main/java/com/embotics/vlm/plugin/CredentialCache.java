@@ -0,0 +1,112 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.embotics.vlm.rest.v30.client.VCommanderClientRegistry;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+
+/**
+ * The credentials found by the lookups of the global configuration, by ID and Commander address
+ *
+ * Looking up a credential goes through all the credential stores, for every build step and form validation.
+ * The credentials found are kept until the Jenkins credentials or the global configuration are saved.
+ * Credentials of external providers do not notify their changes, so the credentials are also looked up again after a while.
+ * Credentials not found are not kept; they are looked up again on the next call.
+ *
+ * @author btarczali
+ */
+final class CredentialCache {
+	private static final long MAX_AGE_IN_MILLIS = Long.getLong(CredentialCache.class.getName() + ".maxAge", 5 * 60) * 1000;
+
+	private static final CredentialCache INSTANCE = new CredentialCache();
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+
+	private CredentialCache() {
+	}
+
+	/**
+	 * @return the cache shared by the whole controller
+	 */
+	static CredentialCache get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param type		the type of the credential looked up
+	 * @param id		the credential ID
+	 * @param address	the Commander address the credential is looked up for; null if any
+	 * @param lookup	looks up the credential in the credential stores
+	 *
+	 * @return the credential, or null if not found
+	 */
+	<C extends StandardCredentials> C get(Class<C> type, String id, String address, Supplier<C> lookup) {
+		String key = type.getName() + '\n' + id + '\n' + address;
+		long now = System.currentTimeMillis();
+		Entry entry = entries.get(key);
+		if (entry != null && now - entry.createdInMillis < MAX_AGE_IN_MILLIS) {
+			return type.cast(entry.credential);
+		}
+
+		C credential = lookup.get();
+		if (credential != null) {
+			entries.put(key, new Entry(credential, now));
+		} else if (entry != null) {
+			entries.remove(key, entry);
+		}
+		return credential;
+	}
+
+	/**
+	 * Forget all the credentials; the next calls look them up again
+	 */
+	void invalidate() {
+		entries.clear();
+	}
+
+	private static final class Entry {
+		private final StandardCredentials credential;
+		private final long createdInMillis;
+
+		Entry(StandardCredentials credential, long createdInMillis) {
+			this.credential = credential;
+			this.createdInMillis = createdInMillis;
+		}
+	}
+
+	/**
+	 * Forgets the credentials when the global credentials are saved, like when a credential is added, changed or removed
+	 */
+	@Extension
+	public static class CredentialsSaveListener extends SaveableListener {
+
+		@Override
+		public void onChange(Saveable o, XmlFile file) {
+			if (o instanceof SystemCredentialsProvider) {
+				CredentialCache.get().invalidate();
+				// the shared clients were logged in with the previous passwords
+				VCommanderClientRegistry.get().invalidate();
+			}
+		}
+	}
+}
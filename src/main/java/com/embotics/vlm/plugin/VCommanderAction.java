@@ -13,6 +13,7 @@ package com.embotics.vlm.plugin;
 
 import java.io.IOException;
 
+import hudson.Launcher;
 import hudson.model.Describable;
 import hudson.model.Run;
 import hudson.model.TaskListener;
@@ -35,4 +36,18 @@ public interface VCommanderAction extends Describable<VCommanderAction> {
 	 */
 	void perform(Run<?, ?> run, TaskListener listener) throws InterruptedException, IOException;
 
+	/**
+	 * Perform the configured build step action, on the node of the build when the action supports it
+	 * 
+	 * @param run		run context
+	 * @param launcher	launcher of the node running the build
+	 * @param listener	listener context, used for logging
+	 * 
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	default void perform(Run<?, ?> run, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
+		perform(run, listener);
+	}
+
 }
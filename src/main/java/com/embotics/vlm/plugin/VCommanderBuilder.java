@@ -62,7 +62,7 @@ public class VCommanderBuilder extends Builder implements SimpleBuildStep {
 		listener.getLogger().println();
 		listener.getLogger().println("========== Starting Commander build step: " + action.getDescriptor().getDisplayName() + " ==========");
 		try {
-			action.perform(run, listener);
+			action.perform(run, launcher, listener);
 		} catch(Exception e) {
 			if(e.getCause() !=null && e.getCause() instanceof ConnectException) {
 				throw new VCommanderException(Messages.VCommanderConfig_connection_failedConnection());
@@ -0,0 +1,227 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import com.embotics.vlm.rest.v30.client.PollingScheduler;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.UnprotectedRootAction;
+import hudson.security.csrf.CrumbExclusion;
+import jenkins.model.Jenkins;
+
+/**
+ * The endpoint called by Commander once a service request is done
+ *
+ * The waiting build passes the callback URL to Commander, in the payload of the service request (see {@link #ENV_VARIABLE_CALLBACK_URL}).
+ * A Commander workflow, run when the request is completed or failed, POSTs to the URL with the request ID and its state.
+ * The request is then polled right away; the state sent is only logged, as the poll verifies it.
+ * When the payload passes the URL, the request is polled only slowly until the callback comes, in case the callback is lost.
+ *
+ * Each URL has a random secret, known from its creation until the end of its wait.
+ * A callback coming before the request ID is known, like while the request is submitted, is accepted; the first poll reads the state.
+ *
+ * @author btarczali
+ */
+@Extension
+public class VCommanderCallbackAction implements UnprotectedRootAction {
+	private static final Logger LOGGER = Logger.getLogger(VCommanderCallbackAction.class.getName());
+
+	public static final String ENV_VARIABLE_CALLBACK_URL = "VCOMMANDER_CALLBACK_URL";
+
+	static final String URL_NAME = "vcommander-callback";
+	private static final String NOTIFY = "notify";
+	private static final int SECRET_LENGTH = 32;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+	// the references to the variable in a payload, like $VCOMMANDER_CALLBACK_URL or ${VCOMMANDER_CALLBACK_URL}
+	private static final Pattern ENV_VARIABLE_REFERENCE = Pattern.compile("\\$(\\{" + ENV_VARIABLE_CALLBACK_URL + "\\}|" + ENV_VARIABLE_CALLBACK_URL + "(?![A-Za-z0-9_]))");
+
+	// the callbacks not closed yet, by their secret
+	private static final ConcurrentMap<String, Callback> CALLBACKS_BY_SECRET = new ConcurrentHashMap<>();
+
+
+	@Override
+	public String getIconFileName() {
+		return null;
+	}
+
+	@Override
+	public String getDisplayName() {
+		return null;
+	}
+
+	@Override
+	public String getUrlName() {
+		return URL_NAME;
+	}
+
+	/**
+	 * Called by Commander once the service request is done
+	 *
+	 * @param secret	the secret of the callback URL
+	 * @param id		the service request ID
+	 * @param state		the state of the service request
+	 */
+	@RequirePOST
+	public HttpResponse doNotify(@QueryParameter String secret, @QueryParameter String id, @QueryParameter String state) {
+		Callback callback = StringUtils.isBlank(secret) ? null : CALLBACKS_BY_SECRET.get(secret);
+		if (callback == null) {
+			// unknown, or the wait is over
+			return HttpResponses.status(HttpServletResponse.SC_FORBIDDEN);
+		}
+
+		LOGGER.log(Level.FINE, "Commander called back with ID: {0} and state: {1}", new Object[] {id, state});
+		callback.calledBack();
+		return HttpResponses.status(HttpServletResponse.SC_ACCEPTED);
+	}
+
+	/**
+	 * Start a wait expecting a callback
+	 *
+	 * @param payload	the payload of the service request, before its variables are resolved
+	 *
+	 * @return the callback, or null if the callbacks are disabled, the Jenkins URL is not configured
+	 * 			or the payload does not pass the callback URL
+	 */
+	public static Callback createCallback(String payload) {
+		VCommanderConfig config = VCommanderConfig.get();
+		Jenkins jenkins = Jenkins.getInstance();
+		String rootUrl = jenkins != null ? jenkins.getRootUrl() : null;
+		if (config == null || !config.getCallbacks() || rootUrl == null || !isCallbackUrlPassed(payload)) {
+			return null;
+		}
+		return new Callback(rootUrl);
+	}
+
+	/**
+	 * @return true if the payload references the callback URL variable; Commander cannot call back otherwise
+	 */
+	static boolean isCallbackUrlPassed(String payload) {
+		return payload != null && ENV_VARIABLE_REFERENCE.matcher(payload).find();
+	}
+
+	/**
+	 * A callback URL, expected to be called once the service request is done
+	 * It is accepted from its creation, and must be closed once the wait is over.
+	 */
+	public static final class Callback {
+		private final String secret;
+		private final String url;
+		// the key of the service request, once submitted
+		private String key;
+		private boolean calledBack;
+		private boolean closed;
+
+		Callback(String rootUrl) {
+			byte[] bytes = new byte[SECRET_LENGTH];
+			RANDOM.nextBytes(bytes);
+			this.secret = Util.toHexString(bytes);
+			this.url = StringUtils.removeEnd(rootUrl, "/") + "/" + URL_NAME + "/" + NOTIFY + "?secret=" + secret;
+			CALLBACKS_BY_SECRET.put(secret, this);
+		}
+
+		/**
+		 * @return the URL Commander calls, adding the id and state parameters
+		 */
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * The service request is submitted; its callback is expected from now on
+		 *
+		 * @param requestId	the service request ID
+		 */
+		public synchronized void expect(Long requestId) {
+			if (closed || key != null) {
+				return;
+			}
+			key = PollingScheduler.serviceRequestKey(requestId);
+			// else already called back; the first poll of the wait reads the final state
+			if (!calledBack) {
+				PollingScheduler.get().expectCallback(key);
+			}
+		}
+
+		/**
+		 * Commander called back; the service request is polled right away
+		 */
+		synchronized void calledBack() {
+			if (key != null && !calledBack) {
+				// polled as usual from now on
+				PollingScheduler.get().cancelCallback(key);
+			}
+			calledBack = true;
+			if (key != null) {
+				PollingScheduler.get().pollNow(key);
+			}
+		}
+
+		/**
+		 * @return true if Commander called back
+		 */
+		synchronized boolean isCalledBack() {
+			return calledBack;
+		}
+
+		/**
+		 * The wait is over; the URL is no longer accepted
+		 */
+		public synchronized void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			CALLBACKS_BY_SECRET.remove(secret, this);
+			if (key != null && !calledBack) {
+				PollingScheduler.get().cancelCallback(key);
+			}
+		}
+	}
+
+	/**
+	 * Commander does not send the crumb of the Jenkins forms; the callbacks are authenticated by their secret instead
+	 */
+	@Extension
+	public static class CallbackCrumbExclusion extends CrumbExclusion {
+
+		@Override
+		public boolean process(HttpServletRequest req, HttpServletResponse resp, FilterChain chain) throws IOException, ServletException {
+			String pathInfo = req.getPathInfo();
+			if (pathInfo != null && pathInfo.startsWith("/" + URL_NAME + "/")) {
+				chain.doFilter(req, resp);
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -15,7 +15,9 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import javax.ws.rs.POST;
 
 import javax.servlet.ServletException;
@@ -32,12 +34,18 @@ import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
+import com.embotics.vlm.rest.v30.client.CallLimiter;
+import com.embotics.vlm.rest.v30.client.CatalogCacheStatistics;
+import com.embotics.vlm.rest.v30.client.CircuitBreaker;
+import com.embotics.vlm.rest.v30.client.GzipFilter;
 import com.embotics.vlm.rest.v30.client.VCommanderClient;
+import com.embotics.vlm.rest.v30.client.VCommanderClientRegistry;
 import com.embotics.vlm.rest.v30.client.model.VCommanderException;
 
 import hudson.Extension;
 import hudson.model.Descriptor;
 import hudson.model.Item;
+import hudson.model.Run;
 import hudson.security.ACL;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
@@ -58,6 +66,14 @@ public final class VCommanderConfig extends GlobalConfiguration {
 	private String address;
 	private String credentialsId;
 	private String orgName;
+	private int connectTimeout = VCommanderClient.DEFAULT_CONNECT_TIMEOUT;
+	private int readTimeout = VCommanderClient.DEFAULT_READ_TIMEOUT;
+	private int maxConcurrentCalls = CallLimiter.DEFAULT_MAX_CONCURRENT_CALLS;
+	private int submitRate;
+	private int statusRate;
+	private int commentsRate;
+	private int catalogRate;
+	private boolean callbacks;
 
 	private VCommanderClient vCommanderClient; //used for Unit testing
 	
@@ -67,6 +83,7 @@ public final class VCommanderConfig extends GlobalConfiguration {
 	 */
 	public VCommanderConfig() {
 		load();
+		applyCallLimits();
 	}
 
 	/**
@@ -74,7 +91,7 @@ public final class VCommanderConfig extends GlobalConfiguration {
 	 * 
 	 * @return the VCommanderConfig global configuration, or {@code null} if Jenkins has been shut down
 	 */
-	private static VCommanderConfig get() {
+	static VCommanderConfig get() {
 		Jenkins jenkins = Jenkins.getInstance();
 		if (jenkins != null) {
 			VCommanderConfig config = jenkins.getDescriptorByType(VCommanderConfig.class);
@@ -86,7 +103,8 @@ public final class VCommanderConfig extends GlobalConfiguration {
 	}
 	
 	/**
-	 * Creates a vComamnder rest client based on the global configuration
+	 * Returns the shared vComamnder rest client for the global configuration
+	 * The client must be closed when not used anymore, so it can be released
 	 * 
 	 * @return VCommanderClient
 	 * @throws VCommanderException 
@@ -97,14 +115,39 @@ public final class VCommanderConfig extends GlobalConfiguration {
 			return config.vCommanderClient;
 		}
 
-		StandardUsernamePasswordCredentials cred = getCredential(config.getCredentialsId(), config.getAddress());
+		final StandardUsernamePasswordCredentials cred = getCredential(config.getCredentialsId(), config.getAddress());
 		if(cred==null) {
 			throw new VCommanderException(Messages.VCommanderConfig_connection_failedNoCredential());
 		}
 		
-		return new VCommanderClient(config.getAddress(), cred.getUsername(), Secret.toString(cred.getPassword()), config.getOrgName());
+		final String address = config.getAddress();
+		final String orgName = config.getOrgName();
+		final int connectTimeout = config.getConnectTimeout();
+		final int readTimeout = config.getReadTimeout();
+		return VCommanderClientRegistry.get().acquire(address, config.getCredentialsId(), orgName, 
+				() -> new VCommanderClient(address, cred.getUsername(), Secret.toString(cred.getPassword()), orgName, connectTimeout, readTimeout));
 	}
 
+
+	/**
+	 * Returns the settings to connect to Commander from an agent
+	 * The agent creates its own client; the password of the credential is sent to the agent.
+	 * The credential is recorded as used by the build, like the credentials bound to the builds by other plugins.
+	 * 
+	 * @param run	the build sending the connection to its agent
+	 * @return the connection settings of the global configuration
+	 * @throws VCommanderException 
+	 */
+	public static VCommanderConnection getConnection(Run<?, ?> run) throws VCommanderException {
+		VCommanderConfig config = VCommanderConfig.get();
+		StandardUsernamePasswordCredentials cred = getCredential(config.getCredentialsId(), config.getAddress());
+		if(cred==null) {
+			throw new VCommanderException(Messages.VCommanderConfig_connection_failedNoCredential());
+		}
+		CredentialsProvider.track(run, cred);
+		return new VCommanderConnection(config.getAddress(), cred.getUsername(), cred.getPassword(), config.getOrgName(), 
+				config.getConnectTimeout(), config.getReadTimeout(), config.maxConcurrentCalls, config.getCallsPerSecond());
+	}
 	
 	/**
 	 * Inject a rest client
@@ -123,23 +166,52 @@ public final class VCommanderConfig extends GlobalConfiguration {
 	public boolean configure(StaplerRequest req, JSONObject json) throws Descriptor.FormException {
 		req.bindJSON(this, json);
 		save();
+		applyCallLimits();
+		
+		// the shared clients and the credentials were looked up with the previous settings
+		VCommanderClientRegistry.get().invalidate();
+		CredentialCache.get().invalidate();
 		return true;
 	}
 	
+	/**
+	 * Apply the limits of the REST calls to the whole controller
+	 */
+	private void applyCallLimits() {
+		CallLimiter.get().configure(maxConcurrentCalls, getCallsPerSecond());
+	}
+	
+	/**
+	 * @return the configured calls per second of each call type
+	 */
+	private Map<CallLimiter.CallType, Integer> getCallsPerSecond() {
+		Map<CallLimiter.CallType, Integer> callsPerSecond = new EnumMap<>(CallLimiter.CallType.class);
+		callsPerSecond.put(CallLimiter.CallType.SUBMIT, submitRate);
+		callsPerSecond.put(CallLimiter.CallType.STATUS, statusRate);
+		callsPerSecond.put(CallLimiter.CallType.COMMENTS, commentsRate);
+		callsPerSecond.put(CallLimiter.CallType.CATALOG, catalogRate);
+		return callsPerSecond;
+	}
+	
 	/**
 	 * Look up the credential based on it's ID
+	 * The credentials found are cached, see {@link CredentialCache}
 	 */
 	private static StandardUsernamePasswordCredentials getCredential(String id, String address) {
-		List<StandardUsernamePasswordCredentials> creds = CredentialsProvider.lookupCredentials(StandardUsernamePasswordCredentials.class, (Item)null, ACL.SYSTEM, URIRequirementBuilder.fromUri(address).build());
-		return CredentialsMatchers.firstOrNull(creds, CredentialsMatchers.withId(id));
+		return CredentialCache.get().get(StandardUsernamePasswordCredentials.class, id, address, () -> {
+			List<StandardUsernamePasswordCredentials> creds = CredentialsProvider.lookupCredentials(StandardUsernamePasswordCredentials.class, (Item)null, ACL.SYSTEM, URIRequirementBuilder.fromUri(address).build());
+			return CredentialsMatchers.firstOrNull(creds, CredentialsMatchers.withId(id));
+		});
 	}
 	
 	/**
 	 * Look up the credential without domain and type filtering
 	 */
 	private static StandardCredentials getCredentialWithoutDomainAndTypeFiltering(String id) {
-		List<StandardCredentials> creds = CredentialsProvider.lookupCredentials(StandardCredentials.class, (Item)null, ACL.SYSTEM, Collections.<DomainRequirement>emptyList());
-		return CredentialsMatchers.firstOrNull(creds, CredentialsMatchers.withId(id));
+		return CredentialCache.get().get(StandardCredentials.class, id, null, () -> {
+			List<StandardCredentials> creds = CredentialsProvider.lookupCredentials(StandardCredentials.class, (Item)null, ACL.SYSTEM, Collections.<DomainRequirement>emptyList());
+			return CredentialsMatchers.firstOrNull(creds, CredentialsMatchers.withId(id));
+		});
 	}
 	
 	/**
@@ -195,6 +267,80 @@ public final class VCommanderConfig extends GlobalConfiguration {
 		return FormValidation.ok();
 	}
 
+	/**
+	 * Called by jelly, to validate connect timeout field
+	 */
+	@POST
+	public FormValidation doCheckConnectTimeout(@QueryParameter String value) {
+		return checkTimeout(value);
+	}
+
+	/**
+	 * Called by jelly, to validate read timeout field
+	 */
+	@POST
+	public FormValidation doCheckReadTimeout(@QueryParameter String value) {
+		return checkTimeout(value);
+	}
+
+	private FormValidation checkTimeout(String value) {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		return isNonNegative(value) ? FormValidation.ok() : FormValidation.error(Messages.VCommanderConfig_errors_invalidTimeout());
+	}
+
+	/**
+	 * Called by jelly, to validate max concurrent calls field
+	 */
+	@POST
+	public FormValidation doCheckMaxConcurrentCalls(@QueryParameter String value) {
+		return checkLimit(value);
+	}
+
+	/**
+	 * Called by jelly, to validate submit rate field
+	 */
+	@POST
+	public FormValidation doCheckSubmitRate(@QueryParameter String value) {
+		return checkLimit(value);
+	}
+
+	/**
+	 * Called by jelly, to validate status rate field
+	 */
+	@POST
+	public FormValidation doCheckStatusRate(@QueryParameter String value) {
+		return checkLimit(value);
+	}
+
+	/**
+	 * Called by jelly, to validate comments rate field
+	 */
+	@POST
+	public FormValidation doCheckCommentsRate(@QueryParameter String value) {
+		return checkLimit(value);
+	}
+
+	/**
+	 * Called by jelly, to validate catalog rate field
+	 */
+	@POST
+	public FormValidation doCheckCatalogRate(@QueryParameter String value) {
+		return checkLimit(value);
+	}
+
+	private FormValidation checkLimit(String value) {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		return isNonNegative(value) ? FormValidation.ok() : FormValidation.error(Messages.VCommanderConfig_errors_invalidLimit());
+	}
+
+	private static boolean isNonNegative(String value) {
+		try {
+			return Integer.parseInt(value.trim()) >= 0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Called by jelly, to validate credential field
 	 */
@@ -250,9 +396,13 @@ public final class VCommanderConfig extends GlobalConfiguration {
 
 		// Test the credentials against vCommander
 		try {
-			VCommanderClient client = new VCommanderClient(address, cred.getUsername(), Secret.toString(cred.getPassword()), orgName);
-			client.getSecurityToken();
-			client.close();
+			VCommanderClient client = new VCommanderClient(address, cred.getUsername(), Secret.toString(cred.getPassword()), orgName, connectTimeout, readTimeout);
+			try {
+				// calls vCommander even while the circuit breaker of the endpoint is open
+				client.checkHealth();
+			} finally {
+				client.close();
+			}
 			
 			return FormValidation.ok(Messages.VCommanderConfig_connection_success());
 		} catch (Exception e) {
@@ -284,6 +434,55 @@ public final class VCommanderConfig extends GlobalConfiguration {
 	}
 
 
+	/**
+	 * Called by jelly, to show if the configured Commander is reachable
+	 * 
+	 * @return the state of the circuit breaker of the configured Commander, or null if not configured
+	 */
+	public String getCircuitBreakerStatus() {
+		if (StringUtils.isBlank(address)) {
+			return null;
+		}
+		CircuitBreaker circuitBreaker = CircuitBreaker.forEndpoint(address);
+		switch (circuitBreaker.getState()) {
+		case OPEN:
+			return Messages.VCommanderConfig_circuitBreaker_OPEN(circuitBreaker.getLastFailure());
+		case HALF_OPEN:
+			return Messages.VCommanderConfig_circuitBreaker_HALF_OPEN(circuitBreaker.getLastFailure());
+		default:
+			return Messages.VCommanderConfig_circuitBreaker_CLOSED();
+		}
+	}
+
+	/**
+	 * Called by jelly, to show the current limit of the calls in flight, adapted to the Commander latency
+	 */
+	public CallLimiter getCallLimiter() {
+		return CallLimiter.get();
+	}
+
+	/**
+	 * Called by jelly, to show the bytes not received thanks to the gzip compression
+	 */
+	public long getResponseBytesSaved() {
+		return GzipFilter.getResponseBytesSaved();
+	}
+
+	/**
+	 * Called by jelly, to show the bytes not sent thanks to the gzip compression
+	 */
+	public long getRequestBytesSaved() {
+		return GzipFilter.getRequestBytesSaved();
+	}
+
+	/**
+	 * Called by jelly, to show how the catalog lookups are cached
+	 */
+	public CatalogCacheStatistics getCatalogCacheStatistics() {
+		return VCommanderClientRegistry.get().getCatalogCacheStatistics();
+	}
+
+
 	//////////////////////
 	// getters & setters
 
@@ -311,5 +510,93 @@ public final class VCommanderConfig extends GlobalConfiguration {
 		this.orgName = orgName;
 	}
 
+	/**
+	 * @return the connect timeout of the REST calls, in seconds; 0 for none
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = Math.max(0, connectTimeout);
+	}
+
+	/**
+	 * @return the read timeout of the REST calls, in seconds; 0 for none
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = Math.max(0, readTimeout);
+	}
+
+	/**
+	 * @return the maximum number of REST calls in flight on the controller; 0 for no limit
+	 */
+	public int getMaxConcurrentCalls() {
+		return maxConcurrentCalls;
+	}
+
+	public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+		this.maxConcurrentCalls = Math.max(0, maxConcurrentCalls);
+	}
+
+	/**
+	 * @return the maximum number of service requests and workflow runs submitted per second; 0 for no limit
+	 */
+	public int getSubmitRate() {
+		return submitRate;
+	}
+
+	public void setSubmitRate(int submitRate) {
+		this.submitRate = Math.max(0, submitRate);
+	}
+
+	/**
+	 * @return the maximum number of status lookups per second; 0 for no limit
+	 */
+	public int getStatusRate() {
+		return statusRate;
+	}
+
+	public void setStatusRate(int statusRate) {
+		this.statusRate = Math.max(0, statusRate);
+	}
+
+	/**
+	 * @return the maximum number of comment lookups per second; 0 for no limit
+	 */
+	public int getCommentsRate() {
+		return commentsRate;
+	}
+
+	public void setCommentsRate(int commentsRate) {
+		this.commentsRate = Math.max(0, commentsRate);
+	}
+
+	/**
+	 * @return the maximum number of catalog lookups per second; 0 for no limit
+	 */
+	public int getCatalogRate() {
+		return catalogRate;
+	}
+
+	public void setCatalogRate(int catalogRate) {
+		this.catalogRate = Math.max(0, catalogRate);
+	}
+
+	/**
+	 * @return true if Commander calls back once the service requests are done, see {@link VCommanderCallbackAction}
+	 */
+	public boolean getCallbacks() {
+		return callbacks;
+	}
+
+	public void setCallbacks(boolean callbacks) {
+		this.callbacks = callbacks;
+	}
+
 
 }
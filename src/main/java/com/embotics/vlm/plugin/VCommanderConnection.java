@@ -0,0 +1,78 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin;
+
+import java.io.Serializable;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.embotics.vlm.rest.v30.client.CallLimiter;
+import com.embotics.vlm.rest.v30.client.VCommanderClient;
+
+import hudson.util.Secret;
+
+/**
+ * The settings to connect to Commander, sent to the agents running the Commander calls of a build step
+ * The password is kept as a secret until the client is created, in the JVM running the calls.
+ * The limits of the REST calls are sent as well, and applied to the JVM running the calls; they are per JVM, not controller-wide.
+ * 
+ * @author btarczali
+ */
+public final class VCommanderConnection implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final String address;
+	private final String userName;
+	private final Secret password;
+	private final String orgName;
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final int maxConcurrentCalls;
+	private final EnumMap<CallLimiter.CallType, Integer> callsPerSecond;
+
+	// the limits last applied in this JVM, so the calls waiting for a slot are not released by every new client
+	private static int appliedMaxConcurrentCalls;
+	private static Map<CallLimiter.CallType, Integer> appliedCallsPerSecond;
+
+
+	VCommanderConnection(String address, String userName, Secret password, String orgName, int connectTimeout, int readTimeout, 
+			int maxConcurrentCalls, Map<CallLimiter.CallType, Integer> callsPerSecond) {
+		this.address = address;
+		this.userName = userName;
+		this.password = password;
+		this.orgName = orgName;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.maxConcurrentCalls = maxConcurrentCalls;
+		this.callsPerSecond = new EnumMap<>(callsPerSecond);
+	}
+
+	/**
+	 * The client is not shared; it must be closed when not used anymore
+	 * The limits of the REST calls are applied to the JVM calling it, if changed.
+	 * 
+	 * @return a new client, in the JVM calling it
+	 */
+	public VCommanderClient createClient() {
+		applyCallLimits(maxConcurrentCalls, callsPerSecond);
+		return new VCommanderClient(address, userName, Secret.toString(password), orgName, connectTimeout, readTimeout);
+	}
+
+	private static synchronized void applyCallLimits(int maxConcurrentCalls, Map<CallLimiter.CallType, Integer> callsPerSecond) {
+		if (maxConcurrentCalls == appliedMaxConcurrentCalls && callsPerSecond.equals(appliedCallsPerSecond)) {
+			return;
+		}
+		CallLimiter.get().configure(maxConcurrentCalls, callsPerSecond);
+		appliedMaxConcurrentCalls = maxConcurrentCalls;
+		appliedCallsPerSecond = callsPerSecond;
+	}
+}
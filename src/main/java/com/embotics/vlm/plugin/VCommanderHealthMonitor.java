@@ -0,0 +1,69 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.embotics.vlm.rest.v30.client.VCommanderClient;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+/**
+ * Checks periodically if the configured Commander answers
+ * 
+ * The result feeds the circuit breaker of the endpoint: when Commander is back,
+ * the builds stop failing right away without waiting for the open period to end.
+ * 
+ * @author btarczali
+ */
+@Extension
+public class VCommanderHealthMonitor extends AsyncPeriodicWork {
+	private static final Logger LOGGER = Logger.getLogger(VCommanderHealthMonitor.class.getName());
+	private static final long RECURRENCE_PERIOD = Long.getLong(VCommanderHealthMonitor.class.getName() + ".recurrencePeriod", MIN);
+
+
+	public VCommanderHealthMonitor() {
+		super("Commander health monitor");
+	}
+
+	@Override
+	public long getRecurrencePeriod() {
+		return RECURRENCE_PERIOD;
+	}
+
+	@Override
+	protected void execute(TaskListener listener) throws IOException, InterruptedException {
+		VCommanderConfig config = VCommanderConfig.get();
+		if (config == null || StringUtils.isBlank(config.getAddress()) || StringUtils.isBlank(config.getCredentialsId())) {
+			return;
+		}
+
+		VCommanderClient client = null;
+		try {
+			client = VCommanderConfig.getVCommanderClient();
+			client.checkHealth();
+		} catch (Exception e) {
+			// already recorded by the circuit breaker
+			LOGGER.log(Level.FINE, "Commander health check failed", e);
+		} finally {
+			if (client != null) {
+				client.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,364 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import com.embotics.vlm.rest.v30.client.model.CommentWatermark;
+import com.embotics.vlm.rest.v30.client.model.PollingProgress;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+
+/**
+ * Append-only journal of the service requests and workflows being waited for
+ *
+ * A line is appended when a wait starts, when new comments were logged, and when the wait ends.
+ * After a restart the Pipeline steps find their request or task in the journal,
+ * and continue waiting from where they stopped, instead of submitting again.
+ *
+ * The journal is rewritten with the open entries only, when most of its lines belong to finished waits.
+ *
+ * @author btarczali
+ */
+public class VCommanderJournal {
+	private static final Logger LOGGER = Logger.getLogger(VCommanderJournal.class.getName());
+
+	private static final String FILE_NAME = VCommanderJournal.class.getName() + ".log";
+	// rewrite the journal when it has this many lines of finished waits
+	private static final int COMPACT_THRESHOLD = Integer.getInteger(VCommanderJournal.class.getName() + ".compactThreshold", 1000);
+
+	private static final String FIELD_OPERATION = "op";
+	private static final String FIELD_KEY = "key";
+	private static final String FIELD_TYPE = "type";
+	private static final String FIELD_ID = "id";
+	private static final String FIELD_RUN = "run";
+	private static final String FIELD_START = "start";
+	private static final String FIELD_TIMEOUT = "timeout";
+	private static final String FIELD_POLLING = "polling";
+	private static final String FIELD_WATERMARK = "watermark";
+
+	private static final String OPERATION_OPEN = "open";
+	private static final String OPERATION_UPDATE = "update";
+	private static final String OPERATION_CLOSE = "close";
+
+	private static VCommanderJournal instance;
+
+	private final File file;
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+	private int lines;
+	private Writer writer;
+
+
+	VCommanderJournal(File file) {
+		this.file = file;
+		load();
+	}
+
+	/**
+	 * @return the journal of the running Jenkins
+	 */
+	public static synchronized VCommanderJournal get() {
+		File file = new File(Jenkins.getInstance().getRootDir(), FILE_NAME);
+		if (instance == null || !instance.file.equals(file)) {
+			if (instance != null) {
+				instance.closeWriter();
+			}
+			instance = new VCommanderJournal(file);
+		}
+		return instance;
+	}
+
+	/**
+	 * Forgets the waits of builds which did not survive the restart
+	 * The Pipeline builds still running continue their waits when resumed.
+	 */
+	@Initializer(after = InitMilestone.JOB_LOADED)
+	public static void onStartup() {
+		get().dropFinishedRuns();
+	}
+
+	/**
+	 * Records the start of a wait
+	 *
+	 * @param key		identifies the wait, unique and stable across restarts
+	 * @param type		the kind of entity waited for
+	 * @param id		the service request ID, or the workflow task ID
+	 * @param run		the build waiting
+	 * @param timeout	timeout in minutes
+	 * @param polling	polling interval in seconds
+	 * @return the new entry
+	 */
+	public synchronized Entry open(String key, Type type, String id, Run<?, ?> run, long timeout, long polling) {
+		Entry entry = new Entry(key, type, id, run.getExternalizableId(), System.currentTimeMillis(), timeout, polling, null);
+		entries.put(key, entry);
+		append(entry.toJSON(OPERATION_OPEN));
+		return entry;
+	}
+
+	/**
+	 * Records the date of the newest logged comment
+	 */
+	public synchronized void update(String key, String watermark) {
+		Entry entry = entries.get(key);
+		if (entry == null || watermark == null || watermark.equals(entry.watermark)) {
+			return;
+		}
+		entry.watermark = watermark;
+		try {
+			append(operation(OPERATION_UPDATE, key).put(FIELD_WATERMARK, watermark));
+		} catch (JSONException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Records the end of a wait
+	 */
+	public synchronized void close(String key) {
+		if (entries.remove(key) == null) {
+			return;
+		}
+		append(operation(OPERATION_CLOSE, key));
+		if (lines - entries.size() >= COMPACT_THRESHOLD) {
+			compact();
+		}
+	}
+
+	/**
+	 * @return the wait not finished yet, or null if not found
+	 */
+	public synchronized Entry get(String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * @return the waits not finished yet
+	 */
+	public synchronized List<Entry> getEntries() {
+		return new ArrayList<>(entries.values());
+	}
+
+	private void dropFinishedRuns() {
+		List<String> finished = new ArrayList<>();
+		synchronized (this) {
+			for (Entry entry : entries.values()) {
+				Run<?, ?> run = Run.fromExternalizableId(entry.runId);
+				if (run == null || !run.isBuilding()) {
+					LOGGER.log(Level.INFO, "Commander {0} {1} of build {2} was in progress when Jenkins stopped; it is not tracked anymore.",
+							new Object[] { entry.type == Type.REQUEST ? "service request" : "workflow task", entry.id, entry.runId });
+					finished.add(entry.key);
+				}
+			}
+		}
+		for (String key : finished) {
+			close(key);
+		}
+		synchronized (this) {
+			if (lines > entries.size()) {
+				compact();
+			}
+		}
+	}
+
+	private void load() {
+		if (!file.exists()) {
+			return;
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				lines++;
+				try {
+					replay(new JSONObject(line));
+				} catch (JSONException | IllegalArgumentException e) {
+					// a line partially written when Jenkins stopped
+					LOGGER.log(Level.FINE, "Skipping invalid journal line: " + line, e);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Cannot read the Commander journal: " + file, e);
+		}
+	}
+
+	private void replay(JSONObject line) throws JSONException {
+		String key = line.getString(FIELD_KEY);
+		switch (line.getString(FIELD_OPERATION)) {
+		case OPERATION_OPEN:
+			entries.put(key, Entry.fromJSON(line));
+			break;
+
+		case OPERATION_UPDATE:
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				entry.watermark = line.optString(FIELD_WATERMARK, null);
+			}
+			break;
+
+		case OPERATION_CLOSE:
+			entries.remove(key);
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	private void append(JSONObject line) {
+		try {
+			if (writer == null) {
+				writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+			}
+			writer.write(line.toString());
+			writer.write('\n');
+			writer.flush();
+			lines++;
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Cannot write the Commander journal: " + file, e);
+			closeWriter();
+		}
+	}
+
+	/**
+	 * Rewrites the journal with the open entries only
+	 */
+	private void compact() {
+		closeWriter();
+		File compacted = new File(file.getPath() + ".tmp");
+		try {
+			try (Writer compactedWriter = new OutputStreamWriter(new FileOutputStream(compacted), StandardCharsets.UTF_8)) {
+				for (Entry entry : entries.values()) {
+					compactedWriter.write(entry.toJSON(OPERATION_OPEN).toString());
+					compactedWriter.write('\n');
+				}
+			}
+			Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			lines = entries.size();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Cannot compact the Commander journal: " + file, e);
+		}
+	}
+
+	private void closeWriter() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				// nothing to do; the next append opens the file again
+			}
+			writer = null;
+		}
+	}
+
+	private static JSONObject operation(String operation, String key) {
+		try {
+			return new JSONObject().put(FIELD_OPERATION, operation).put(FIELD_KEY, key);
+		} catch (JSONException e) {
+			// only thrown for null keys
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * The kind of entity waited for
+	 */
+	public enum Type {
+		REQUEST, WORKFLOW
+	}
+
+	/**
+	 * A wait not finished yet
+	 */
+	public static final class Entry {
+		private final String key;
+		private final Type type;
+		private final String id;
+		private final String runId;
+		private final long startTimeInMillis;
+		private final long timeout;
+		private final long polling;
+		private volatile String watermark;
+
+		private Entry(String key, Type type, String id, String runId, long startTimeInMillis, long timeout, long polling, String watermark) {
+			this.key = key;
+			this.type = type;
+			this.id = id;
+			this.runId = runId;
+			this.startTimeInMillis = startTimeInMillis;
+			this.timeout = timeout;
+			this.polling = polling;
+			this.watermark = watermark;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * @return the service request ID, or the workflow task ID
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @return the progress to continue the wait from
+		 */
+		public PollingProgress toProgress() {
+			return new PollingProgress(startTimeInMillis, new CommentWatermark(watermark));
+		}
+
+		private JSONObject toJSON(String operation) {
+			try {
+				return operation(operation, key)
+						.put(FIELD_TYPE, type.name())
+						.put(FIELD_ID, id)
+						.put(FIELD_RUN, runId)
+						.put(FIELD_START, startTimeInMillis)
+						.put(FIELD_TIMEOUT, timeout)
+						.put(FIELD_POLLING, polling)
+						.putOpt(FIELD_WATERMARK, watermark);
+			} catch (JSONException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+
+		private static Entry fromJSON(JSONObject line) throws JSONException {
+			return new Entry(line.getString(FIELD_KEY), Type.valueOf(line.getString(FIELD_TYPE)), line.getString(FIELD_ID), line.getString(FIELD_RUN),
+					line.getLong(FIELD_START), line.getLong(FIELD_TIMEOUT), line.getLong(FIELD_POLLING), line.optString(FIELD_WATERMARK, null));
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin.actions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.codehaus.jettison.json.JSONException;
+
+import com.embotics.vlm.plugin.VCommanderConnection;
+import com.embotics.vlm.rest.v30.client.VCommanderClient;
+import com.embotics.vlm.rest.v30.client.model.DeployedComponentInfo;
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+import hudson.model.TaskListener;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * The Commander calls of the build steps, run on the agent of the build
+ *
+ * The REST calls, the JSON parsing and the polling are done by the agent; only the results are sent back to the controller.
+ * Each call creates its own client on the agent, closed once the call is done.
+ *
+ * @author btarczali
+ */
+final class AgentCalls {
+
+	private AgentCalls() {
+	}
+
+	/**
+	 * A call on the agent, with its own Commander client
+	 */
+	private abstract static class AgentCall<V> extends MasterToSlaveCallable<V, IOException> {
+		private static final long serialVersionUID = 1L;
+
+		private final VCommanderConnection connection;
+		protected final TaskListener listener;
+
+		AgentCall(VCommanderConnection connection, TaskListener listener) {
+			this.connection = connection;
+			this.listener = listener;
+		}
+
+		@Override
+		public final V call() throws IOException {
+			VCommanderClient client = connection.createClient();
+			try {
+				return call(client);
+			} catch (JSONException e) {
+				throw new VCommanderException(e, "Error while reading the Commander response.");
+			} catch (InterruptedException e) {
+				// the build was aborted
+				Thread.currentThread().interrupt();
+				throw new VCommanderException(e, "Interrupted while waiting for Commander.");
+			} finally {
+				client.close();
+			}
+		}
+
+		protected abstract V call(VCommanderClient client) throws JSONException, InterruptedException, IOException;
+	}
+
+	/**
+	 * Requests a new service
+	 */
+	static final class RequestService extends AgentCall<Long> {
+		private static final long serialVersionUID = 1L;
+
+		private final String payload;
+
+		RequestService(VCommanderConnection connection, String payload, TaskListener listener) {
+			super(connection, listener);
+			this.payload = payload;
+		}
+
+		@Override
+		protected Long call(VCommanderClient client) throws JSONException, VCommanderException {
+			listener.getLogger().println(client.getClientInfo());
+			return client.requestService(payload);
+		}
+	}
+
+	/**
+	 * Waits for a service request to be completed
+	 */
+	static final class WaitForServiceRequest extends AgentCall<ArrayList<DeployedComponentInfo>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Long requestId;
+		private final long timeout;
+		private final long polling;
+
+		WaitForServiceRequest(VCommanderConnection connection, Long requestId, long timeout, long polling, TaskListener listener) {
+			super(connection, listener);
+			this.requestId = requestId;
+			this.timeout = timeout;
+			this.polling = polling;
+		}
+
+		@Override
+		protected ArrayList<DeployedComponentInfo> call(VCommanderClient client) throws JSONException, InterruptedException, VCommanderException {
+			return new ArrayList<>(client.waitForServiceRequestToBeCompleted(requestId, timeout, polling, listener.getLogger()));
+		}
+	}
+
+	/**
+	 * Runs a command workflow
+	 */
+	static final class RunWorkflow extends AgentCall<String> {
+		private static final long serialVersionUID = 1L;
+
+		private final String workflowName;
+		private final String targetType;
+		private final String targetName;
+
+		RunWorkflow(VCommanderConnection connection, String workflowName, String targetType, String targetName, TaskListener listener) {
+			super(connection, listener);
+			this.workflowName = workflowName;
+			this.targetType = targetType;
+			this.targetName = targetName;
+		}
+
+		@Override
+		protected String call(VCommanderClient client) throws JSONException, VCommanderException {
+			listener.getLogger().println(client.getClientInfo());
+			listener.getLogger().println("Looking up command workflow with name: '" + workflowName + "'");
+			Long workflowDefinitionId = client.getWorkflowDefinition(workflowName);
+			return client.runCommandWorkflow(workflowDefinitionId, targetType, targetName);
+		}
+	}
+
+	/**
+	 * Waits for a workflow to be completed
+	 */
+	static final class WaitForWorkflow extends AgentCall<Long> {
+		private static final long serialVersionUID = 1L;
+
+		private final String taskId;
+		private final long timeout;
+		private final long polling;
+		private final boolean lowLatency;
+
+		WaitForWorkflow(VCommanderConnection connection, String taskId, long timeout, long polling, boolean lowLatency, TaskListener listener) {
+			super(connection, listener);
+			this.taskId = taskId;
+			this.timeout = timeout;
+			this.polling = polling;
+			this.lowLatency = lowLatency;
+		}
+
+		@Override
+		protected Long call(VCommanderClient client) throws JSONException, InterruptedException, VCommanderException {
+			return client.waitForWorkflowToBeCompleted(taskId, timeout, polling, listener.getLogger(), lowLatency);
+		}
+	}
+}
@@ -1,7 +1,10 @@
 package com.embotics.vlm.plugin.actions;
 
+import java.io.IOException;
+
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
+import org.codehaus.jettison.json.JSONException;
 
 import com.embotics.vlm.plugin.VCommanderActionRunEnvironmentVariables;
 import com.embotics.vlm.plugin.VCommanderEnvironmentContributingAction;
@@ -17,6 +20,13 @@ import hudson.util.VariableResolver;
  *
  */
 public class PluginUtils {
+
+	/**
+	 * A blocking wait for Commander, on the controller or on an agent
+	 */
+	interface Wait<V> {
+		V call() throws JSONException, InterruptedException, IOException;
+	}
 	
 	/**
 	 *	Adds a new environment variable to the jenkins build context
@@ -27,7 +37,7 @@ public class PluginUtils {
 	 * @param key		environment variable name
 	 * @param value		environment variable value
 	 */
-	static void addEnvVariable(Run<?, ?> run, TaskListener listener, String key, String value) {
+	public static void addEnvVariable(Run<?, ?> run, TaskListener listener, String key, String value) {
 		listener.getLogger().println("Adding new environment variable: " + key + "=" + value);
 		
 		// For FreeStyle projects we can use a ContributorAction class to manage environmental variables. This does not work for Pipeline projects.
@@ -14,6 +14,11 @@ package com.embotics.vlm.plugin.actions;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.ws.rs.POST;
 
 import javax.servlet.ServletException;
@@ -22,21 +27,28 @@ import org.apache.commons.lang.StringUtils;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.bind.JavaScriptMethod;
 
 import com.embotics.vlm.plugin.Messages;
 import com.embotics.vlm.plugin.VCommanderAction;
+import com.embotics.vlm.plugin.VCommanderCallbackAction;
 import com.embotics.vlm.plugin.VCommanderConfig;
+import com.embotics.vlm.plugin.VCommanderConnection;
+import com.embotics.vlm.plugin.VCommanderJournal;
 import com.embotics.vlm.rest.v30.client.VCommanderClient;
 import com.embotics.vlm.rest.v30.client.model.DeployedComponentInfo;
 import com.embotics.vlm.rest.v30.client.model.VCommanderException;
 
 import hudson.Extension;
+import hudson.Launcher;
 import hudson.Util;
 import hudson.model.Descriptor;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.remoting.LocalChannel;
+import hudson.remoting.VirtualChannel;
 import hudson.util.FormValidation;
 import jenkins.model.Jenkins;
 
@@ -46,63 +58,132 @@ import jenkins.model.Jenkins;
  * @author btarczali
  */
 public class VCommanderRequestNewServiceAction extends AbstractVCommanderAction {
-	static final String ENV_VARIABLE_REQUEST_ID = "VCOMMANDER_REQUESTED_SERVICE_ID";
+	public static final String ENV_VARIABLE_REQUEST_ID = "VCOMMANDER_REQUESTED_SERVICE_ID";
 	static final String VCOMMANDER_REQUESTED_SERVICE_COMPONENT_NAME_FORMAT = "VCOMMANDER_REQUESTED_SERVICE%d_COMPONENT%d_NAME";
 	static final String VCOMMANDER_REQUESTED_SERVICE_COMPONENT_TYPE_FORMAT = "VCOMMANDER_REQUESTED_SERVICE%d_COMPONENT%d_TYPE";
 
-	private final String serviceName;
+	// how long the configuration page waits for the service name, before showing it blank
+	private static final long SERVICE_NAME_DISPLAY_WAIT = 2;
+
+	// resolved when first displayed, and saved with the job from the configuration form
+	private volatile String serviceName;
 	private final String payload;
+	private boolean onAgent;
+
+	private transient CompletableFuture<String> serviceNameResolution;
 	
 	
 	@DataBoundConstructor
 	public VCommanderRequestNewServiceAction(String payload, Boolean sync, Long timeout, Long polling) {
 		super(sync, timeout, polling);
 		this.payload = payload;
-		this.serviceName = getDefaultServiceName(payload);
-
 	}
 
+	/**
+	 * Returns the name of the requested published service, used only for display / lookup purposes
+	 * The name is looked up in the background when first displayed;
+	 * if vCommander is slow to answer, the name is blank until a later display.
+	 */
 	public String getServiceName() {
-		return serviceName;
+		String name = serviceName;
+		if (name != null) {
+			return name;
+		}
+
+		try {
+			serviceName = resolveServiceName().get(SERVICE_NAME_DISPLAY_WAIT, TimeUnit.SECONDS);
+			return serviceName;
+		} catch (TimeoutException e) {
+			return StringUtils.EMPTY;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return StringUtils.EMPTY;
+		} catch (ExecutionException e) {
+			// ignoring all errors; try again on the next display
+			synchronized (this) {
+				serviceNameResolution = null;
+			}
+			return StringUtils.EMPTY;
+		}
+	}
+
+	/**
+	 * @param serviceName	the service name displayed on the configuration page; blank to look it up again
+	 */
+	@DataBoundSetter
+	public void setServiceName(String serviceName) {
+		this.serviceName = Util.fixEmpty(serviceName);
 	}
 
 	public String getPayload() {
 		return payload;
 	}
 
-	private String getDefaultServiceName(String payload) {
-		VCommanderClient client = null;
+	public boolean getOnAgent() {
+		return onAgent;
+	}
 
-		try {
-			client = VCommanderConfig.getVCommanderClient();
-			
-			// Retrieve published service name
-			return client.getPublishedServiceNameByPayload(payload);
-		} catch (Exception e) {
-			// ignoring all errors; service name is used only for display / lookup purposes
-			return StringUtils.EMPTY;
-		} finally {
-			if(client!=null) {
-				client.close();
+	/**
+	 * @param onAgent	true to request the service and wait for it on the agent of the build, instead of the controller
+	 */
+	@DataBoundSetter
+	public void setOnAgent(boolean onAgent) {
+		this.onAgent = onAgent;
+	}
+
+	private synchronized CompletableFuture<String> resolveServiceName() {
+		if (serviceNameResolution == null) {
+			try {
+				// looked up on the bounded pool of the client, not on the shared Jenkins threads
+				VCommanderClient client = VCommanderConfig.getVCommanderClient();
+				serviceNameResolution = client.getPublishedServiceNameByPayloadAsync(payload).whenComplete((name, error) -> client.close());
+			} catch (VCommanderException e) {
+				serviceNameResolution = new CompletableFuture<>();
+				serviceNameResolution.completeExceptionally(e);
 			}
 		}
+		return serviceNameResolution;
 	}
 
 	@Override
-	public void perform(Run<?, ?> run, TaskListener listener) throws InterruptedException, IOException {
-		// check if user configured a service request
-		if (StringUtils.isBlank(payload)) {
-			throw new VCommanderException("There is no configuration for the Commander service request build step.");
+	public void perform(Run<?, ?> run, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
+		VirtualChannel channel = launcher != null ? launcher.getChannel() : null;
+		if (!onAgent || channel == null || channel instanceof LocalChannel) {
+			// built on the controller
+			perform(run, listener);
+			return;
 		}
-		try {
-			new JSONObject(payload);
-		} catch (JSONException e) {
-			throw new VCommanderException(e, "Error in build step configuration. Payload is not in valid JSON format.");
+		checkPayload();
+
+		VCommanderConnection connection = VCommanderConfig.getConnection(run);
+		String resolvedPayload = Util.replaceMacro(payload, run.getEnvironment(listener));
+		listener.getLogger().println("Creating new service request on the agent with payload: " + resolvedPayload);
+		Long requestId = channel.call(new AgentCalls.RequestService(connection, resolvedPayload, listener));
+
+		//create environment variables for the results
+		PluginUtils.addEnvVariable(run, listener, ENV_VARIABLE_REQUEST_ID, requestId.toString());
+		listener.getLogger().println("Service was succesfuly requested. RequestID: " + requestId);
+
+		if(getSync()) {
+			// polled by the agent; only the deployed components are sent back
+			waitForServiceRequestToBeCompleted(requestId, getTimeout(), getPolling(), run, listener,
+					() -> channel.call(new AgentCalls.WaitForServiceRequest(connection, requestId, getTimeout(), getPolling(), listener)));
 		}
+	}
+
+	@Override
+	public void perform(Run<?, ?> run, TaskListener listener) throws InterruptedException, IOException {
+		checkPayload();
 
 		VCommanderClient client = VCommanderConfig.getVCommanderClient();
 		listener.getLogger().println(client.getClientInfo());
 
+		// the payload can pass the callback URL to Commander
+		VCommanderCallbackAction.Callback callback = getSync() ? VCommanderCallbackAction.createCallback(payload) : null;
+		if (callback != null) {
+			PluginUtils.addEnvVariable(run, listener, VCommanderCallbackAction.ENV_VARIABLE_CALLBACK_URL, callback.getUrl());
+		}
+
 		try {
 			Long requestId;
 			try {
@@ -119,32 +200,67 @@ public class VCommanderRequestNewServiceAction extends AbstractVCommanderAction
 			}
 	
 			if(getSync()) {
+				if (callback != null) {
+					callback.expect(requestId);
+				}
 				waitForServiceRequestToBeCompleted(client, requestId, getTimeout(), getPolling(), run, listener);
 			}
 
 		} finally {
+			if (callback != null) {
+				callback.close();
+			}
 			client.close();
 		}
 	}
 	
-	static void waitForServiceRequestToBeCompleted(VCommanderClient client, Long requestId, long timeout, long polling, Run<?, ?> run, TaskListener listener) throws VCommanderException, InterruptedException {
+	private void checkPayload() throws VCommanderException {
+		// check if user configured a service request
+		if (StringUtils.isBlank(payload)) {
+			throw new VCommanderException("There is no configuration for the Commander service request build step.");
+		}
+		try {
+			new JSONObject(payload);
+		} catch (JSONException e) {
+			throw new VCommanderException(e, "Error in build step configuration. Payload is not in valid JSON format.");
+		}
+	}
+	
+	static void waitForServiceRequestToBeCompleted(VCommanderClient client, Long requestId, long timeout, long polling, Run<?, ?> run, TaskListener listener) throws IOException, InterruptedException {
+		waitForServiceRequestToBeCompleted(requestId, timeout, polling, run, listener, 
+				() -> client.waitForServiceRequestToBeCompleted(requestId, timeout, polling, listener.getLogger()));
+	}
+	
+	private static void waitForServiceRequestToBeCompleted(Long requestId, long timeout, long polling, Run<?, ?> run, TaskListener listener, PluginUtils.Wait<List<DeployedComponentInfo>> wait) throws IOException, InterruptedException {
+		// recorded, so a request still in progress when Jenkins stops is reported at startup; freestyle builds do not resume the wait
+		String journalKey = UUID.randomUUID().toString();
+		VCommanderJournal.get().open(journalKey, VCommanderJournal.Type.REQUEST, requestId.toString(), run, timeout, polling);
 		try {
 			// monitor request until is completed or failed
 			listener.getLogger().println("Waiting " + timeout + " minutes for request completion. Checking every " + polling + " seconds ...");
-			List<DeployedComponentInfo> deployedComponents = client.waitForServiceRequestToBeCompleted(requestId, timeout, polling, listener.getLogger());
+			List<DeployedComponentInfo> deployedComponents = wait.call();
 			listener.getLogger().println("Service request successfully completed.");
 
 			//create environment variables for the results
-			for (DeployedComponentInfo deployedComponent : deployedComponents) {
-				String nameEnvVarKey = String.format(VCOMMANDER_REQUESTED_SERVICE_COMPONENT_NAME_FORMAT, deployedComponent.getServiceIndex(), deployedComponent.getComponentIndex());
-				PluginUtils.addEnvVariable(run, listener, nameEnvVarKey, deployedComponent.getComponentName());
-				
-				String typeEnvVarKey = String.format(VCOMMANDER_REQUESTED_SERVICE_COMPONENT_TYPE_FORMAT, deployedComponent.getServiceIndex(), deployedComponent.getComponentIndex());
-				PluginUtils.addEnvVariable(run, listener, typeEnvVarKey, deployedComponent.getComponentType());
-			}
+			addDeployedComponentsEnvVariables(run, listener, deployedComponents);
 
 		} catch (JSONException e) {
 			throw new VCommanderException(e, "Error while waiting for request completion.");
+		} finally {
+			VCommanderJournal.get().close(journalKey);
+		}
+	}
+
+	/**
+	 * Adds the name and type of the deployed components to the environment variables of the run
+	 */
+	public static void addDeployedComponentsEnvVariables(Run<?, ?> run, TaskListener listener, List<DeployedComponentInfo> deployedComponents) {
+		for (DeployedComponentInfo deployedComponent : deployedComponents) {
+			String nameEnvVarKey = String.format(VCOMMANDER_REQUESTED_SERVICE_COMPONENT_NAME_FORMAT, deployedComponent.getServiceIndex(), deployedComponent.getComponentIndex());
+			PluginUtils.addEnvVariable(run, listener, nameEnvVarKey, deployedComponent.getComponentName());
+			
+			String typeEnvVarKey = String.format(VCOMMANDER_REQUESTED_SERVICE_COMPONENT_TYPE_FORMAT, deployedComponent.getServiceIndex(), deployedComponent.getComponentIndex());
+			PluginUtils.addEnvVariable(run, listener, typeEnvVarKey, deployedComponent.getComponentType());
 		}
 	}
 
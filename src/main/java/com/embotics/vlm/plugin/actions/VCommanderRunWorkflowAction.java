@@ -13,6 +13,7 @@ package com.embotics.vlm.plugin.actions;
 
 import java.io.IOException;
 import java.net.ConnectException;
+import java.util.UUID;
 
 import javax.servlet.ServletException;
 import javax.ws.rs.POST;
@@ -20,20 +21,26 @@ import javax.ws.rs.POST;
 import org.apache.commons.lang.StringUtils;
 import org.codehaus.jettison.json.JSONException;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import com.embotics.vlm.plugin.Messages;
 import com.embotics.vlm.plugin.VCommanderAction;
 import com.embotics.vlm.plugin.VCommanderConfig;
+import com.embotics.vlm.plugin.VCommanderConnection;
+import com.embotics.vlm.plugin.VCommanderJournal;
 import com.embotics.vlm.rest.v30.client.VCommanderClient;
 import com.embotics.vlm.rest.v30.client.model.VCommanderException;
 import com.embotics.vlm.rest.v30.client.model.WorkflowTargetType;
 
 import hudson.Extension;
+import hudson.Launcher;
 import hudson.Util;
 import hudson.model.Descriptor;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.remoting.LocalChannel;
+import hudson.remoting.VirtualChannel;
 import hudson.util.ComboBoxModel;
 import hudson.util.FormValidation;
 import jenkins.model.Jenkins;
@@ -44,11 +51,13 @@ import jenkins.model.Jenkins;
  * @author btarczali
  */
 public class VCommanderRunWorkflowAction extends AbstractVCommanderAction {
-	static final String ENV_VARIABLE_WORKFLOW_TASK_ID = "VCOMMANDER_WORKFLOW_TASK_ID";
+	public static final String ENV_VARIABLE_WORKFLOW_TASK_ID = "VCOMMANDER_WORKFLOW_TASK_ID";
 	
 	private final String targetType;
 	private final String targetName;
 	private final String workflowName;
+	private boolean lowLatency;
+	private boolean onAgent;
 	
 
 	@DataBoundConstructor
@@ -71,12 +80,61 @@ public class VCommanderRunWorkflowAction extends AbstractVCommanderAction {
 		return workflowName;
 	}
 
+	public boolean getLowLatency() {
+		return lowLatency;
+	}
+
+	/**
+	 * @param lowLatency	true for workflows finishing in a few seconds; the first seconds are polled much quicker
+	 */
+	@DataBoundSetter
+	public void setLowLatency(boolean lowLatency) {
+		this.lowLatency = lowLatency;
+	}
+
+	public boolean getOnAgent() {
+		return onAgent;
+	}
+
+	/**
+	 * @param onAgent	true to run the workflow and wait for it on the agent of the build, instead of the controller
+	 */
+	@DataBoundSetter
+	public void setOnAgent(boolean onAgent) {
+		this.onAgent = onAgent;
+	}
+
 	@Override
-	public void perform(Run<?, ?> run, TaskListener listener) throws InterruptedException, IOException {
-		// check if user configured a workflow
-		if (StringUtils.isBlank(workflowName)) {
-			throw new VCommanderException("There is no configuration for the Commander workflow build step.");
+	public void perform(Run<?, ?> run, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
+		VirtualChannel channel = launcher != null ? launcher.getChannel() : null;
+		if (!onAgent || channel == null || channel instanceof LocalChannel) {
+			// built on the controller
+			perform(run, listener);
+			return;
+		}
+		checkWorkflowName();
+
+		VCommanderConnection connection = VCommanderConfig.getConnection(run);
+		String resolvedTargetName = Util.replaceMacro(targetName, run.getEnvironment(listener));
+		String resolvedTargetType = Util.replaceMacro(targetType, run.getEnvironment(listener));
+
+		listener.getLogger().println("Running command workflow on the agent: '" + workflowName + "' for target: '" + resolvedTargetName + "' with type: " + resolvedTargetType);
+		String taskId = channel.call(new AgentCalls.RunWorkflow(connection, workflowName, resolvedTargetType, resolvedTargetName, listener));
+		listener.getLogger().println("Command workflow submitted to Commander. Task ID: " + taskId);
+
+		//create environment variables for the results
+		PluginUtils.addEnvVariable(run, listener, ENV_VARIABLE_WORKFLOW_TASK_ID, taskId);
+
+		if(getSync()) {
+			// polled by the agent
+			waitForWorkflowToBeCompleted(taskId, getTimeout(), getPolling(), run, listener,
+					() -> channel.call(new AgentCalls.WaitForWorkflow(connection, taskId, getTimeout(), getPolling(), lowLatency, listener)));
 		}
+	}
+
+	@Override
+	public void perform(Run<?, ?> run, TaskListener listener) throws InterruptedException, IOException {
+		checkWorkflowName();
 
 		VCommanderClient client = VCommanderConfig.getVCommanderClient();
 		listener.getLogger().println(client.getClientInfo());
@@ -107,21 +165,38 @@ public class VCommanderRunWorkflowAction extends AbstractVCommanderAction {
 			}
 
 			if(getSync()) {
-				waitForWorkflowToBeCompleted(client, taskId, getTimeout(), getPolling(), run, listener);
+				waitForWorkflowToBeCompleted(client, taskId, getTimeout(), getPolling(), lowLatency, run, listener);
 			}
 		} finally {
 			client.close();
 		}
 	}
 	
-	static void waitForWorkflowToBeCompleted(VCommanderClient client, String taskId, long timeout, long polling, Run<?, ?> run, TaskListener listener) throws VCommanderException, InterruptedException {
+	private void checkWorkflowName() throws VCommanderException {
+		// check if user configured a workflow
+		if (StringUtils.isBlank(workflowName)) {
+			throw new VCommanderException("There is no configuration for the Commander workflow build step.");
+		}
+	}
+	
+	static void waitForWorkflowToBeCompleted(VCommanderClient client, String taskId, long timeout, long polling, boolean lowLatency, Run<?, ?> run, TaskListener listener) throws IOException, InterruptedException {
+		waitForWorkflowToBeCompleted(taskId, timeout, polling, run, listener, 
+				() -> client.waitForWorkflowToBeCompleted(taskId, timeout, polling, listener.getLogger(), lowLatency));
+	}
+	
+	private static void waitForWorkflowToBeCompleted(String taskId, long timeout, long polling, Run<?, ?> run, TaskListener listener, PluginUtils.Wait<Long> wait) throws IOException, InterruptedException {
+		// recorded, so a workflow still in progress when Jenkins stops is reported at startup; freestyle builds do not resume the wait
+		String journalKey = UUID.randomUUID().toString();
+		VCommanderJournal.get().open(journalKey, VCommanderJournal.Type.WORKFLOW, taskId, run, timeout, polling);
 		try {
 			// monitor the workflow until is completed or failed
 			listener.getLogger().println("Waiting " + timeout + " minutes for workflow completion. Checking every " + polling + " seconds ...");
-			client.waitForWorkflowToBeCompleted(taskId, timeout, polling, listener.getLogger());
+			wait.call();
 			listener.getLogger().println("Workflow successfully completed.");
 		} catch (JSONException e) {
 			throw new VCommanderException(e, "Error while waiting for workflow completion.");
+		} finally {
+			VCommanderJournal.get().close(journalKey);
 		}
 	}
 
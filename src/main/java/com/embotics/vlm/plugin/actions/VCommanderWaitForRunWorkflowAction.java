@@ -70,7 +70,7 @@ public class VCommanderWaitForRunWorkflowAction extends AbstractVCommanderAction
 		listener.getLogger().println(client.getClientInfo());
 		
 		try {
-			VCommanderRunWorkflowAction.waitForWorkflowToBeCompleted(client, taskIdStr, getTimeout(), getPolling(), run, listener);
+			VCommanderRunWorkflowAction.waitForWorkflowToBeCompleted(client, taskIdStr, getTimeout(), getPolling(), false, run, listener);
 		} finally {
 			client.close();
 		}
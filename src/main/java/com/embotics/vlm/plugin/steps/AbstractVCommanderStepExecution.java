@@ -0,0 +1,219 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin.steps;
+
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.codehaus.jettison.json.JSONException;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+
+import com.embotics.vlm.plugin.Messages;
+import com.embotics.vlm.plugin.VCommanderConfig;
+import com.embotics.vlm.plugin.VCommanderJournal;
+import com.embotics.vlm.rest.v30.client.VCommanderClient;
+import com.embotics.vlm.rest.v30.client.model.PollingProgress;
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+import hudson.EnvVars;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+/**
+ * A base class for the vCommander Pipeline step executions
+ *
+ * The short REST calls (like submitting a service request) run on the bounded pool of the client, no longer than the step timeout,
+ * and the wait for completion is tracked by the shared polling scheduler.
+ * No thread is held while vCommander works; the Pipeline continues when the wait completes.
+ *
+ * @author btarczali
+ */
+abstract class AbstractVCommanderStepExecution<T> extends StepExecution {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The context needed by the vCommander steps
+	 */
+	static final Set<? extends Class<?>> REQUIRED_CONTEXT = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(Run.class, TaskListener.class, EnvVars.class)));
+
+	// identifies the wait in the journal, across restarts
+	private final String journalKey = UUID.randomUUID().toString();
+
+	private transient volatile Future<?> submission;
+	private transient volatile Future<?> completion;
+	private transient volatile boolean stopped;
+	private transient boolean resumed;
+
+
+	AbstractVCommanderStepExecution(StepContext context) {
+		super(context);
+	}
+
+	/**
+	 * Performs the step
+	 * Called on a background thread; the returned future must not block a thread while waiting for vCommander.
+	 *
+	 * @param client	the vCommander client, closed when the returned future completes
+	 * @param run		run context
+	 * @param listener	listener context, used for logging
+	 * @return the result of the step
+	 */
+	protected abstract CompletableFuture<T> perform(VCommanderClient client, Run<?, ?> run, TaskListener listener) throws Exception;
+
+	/**
+	 * @return the timeout of the step, in minutes
+	 */
+	protected abstract long getTimeout();
+
+	@Override
+	public boolean start() throws Exception {
+		submit();
+		return false;
+	}
+
+	@Override
+	public void onResume() {
+		resumed = true;
+		submit();
+	}
+
+	@Override
+	public void stop(Throwable cause) throws Exception {
+		stopped = true;
+		cancel(submission);
+		cancel(completion);
+		VCommanderJournal.get().close(journalKey);
+		getContext().onFailure(cause);
+	}
+
+	@Override
+	public String getStatus() {
+		return completion != null ? "waiting for Commander" : "calling Commander";
+	}
+
+	/**
+	 * @return true if the step was started before a Jenkins restart
+	 */
+	protected boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * @return the journal entry of a wait started before a Jenkins restart, or null if none
+	 */
+	protected VCommanderJournal.Entry getJournalEntry() {
+		return VCommanderJournal.get().get(journalKey);
+	}
+
+	/**
+	 * Records the wait in the journal, or continues the wait recorded before a Jenkins restart
+	 *
+	 * @return the progress to continue the wait from
+	 */
+	protected PollingProgress journal(VCommanderJournal.Type type, String id, Run<?, ?> run, long timeout, long polling) {
+		VCommanderJournal journal = VCommanderJournal.get();
+		VCommanderJournal.Entry entry = journal.get(journalKey);
+		if (entry == null) {
+			entry = journal.open(journalKey, type, id, run, timeout, polling);
+		}
+
+		PollingProgress progress = entry.toProgress();
+		progress.setListener(() -> journal.update(journalKey, progress.getCommentWatermark().getUtcDate()));
+		return progress;
+	}
+
+	/**
+	 * Registers the wait for completion, so it is cancelled when the step is stopped
+	 */
+	protected <V> CompletableFuture<V> track(CompletableFuture<V> future) {
+		completion = future;
+		return future;
+	}
+
+	private void submit() {
+		long deadlineInMillis = System.currentTimeMillis() + getTimeout() * DateUtils.MILLIS_PER_MINUTE;
+		try {
+			submission = VCommanderClient.submit(deadlineInMillis, this::execute);
+		} catch (VCommanderException e) {
+			VCommanderJournal.get().close(journalKey);
+			complete(null, e);
+		}
+	}
+
+	private void execute() {
+		VCommanderClient client = null;
+		try {
+			Run<?, ?> run = getContext().get(Run.class);
+			TaskListener listener = getContext().get(TaskListener.class);
+
+			client = VCommanderConfig.getVCommanderClient();
+			listener.getLogger().println(client.getClientInfo());
+
+			CompletableFuture<T> future = perform(client, run, listener);
+
+			// the client is closed when the step completes
+			final VCommanderClient stepClient = client;
+			client = null;
+			future.whenComplete((result, error) -> {
+				stepClient.close();
+				VCommanderJournal.get().close(journalKey);
+				complete(result, error);
+			});
+		} catch (Throwable e) {
+			if (client != null) {
+				client.close();
+			}
+			VCommanderJournal.get().close(journalKey);
+			complete(null, e);
+		}
+	}
+
+	private void complete(T result, Throwable error) {
+		if (stopped) {
+			return;
+		}
+		if (error == null) {
+			getContext().onSuccess(result);
+		} else {
+			getContext().onFailure(toStepFailure(error));
+		}
+	}
+
+	private static Throwable toStepFailure(Throwable error) {
+		while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+			error = error.getCause();
+		}
+		if (error.getCause() instanceof ConnectException) {
+			return new VCommanderException(Messages.VCommanderConfig_connection_failedConnection());
+		}
+		if (error instanceof JSONException) {
+			return new VCommanderException(error, "Error while waiting for Commander.");
+		}
+		return error;
+	}
+
+	private static void cancel(Future<?> future) {
+		if (future != null) {
+			future.cancel(true);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin.steps;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import com.embotics.vlm.plugin.Messages;
+import com.embotics.vlm.plugin.VCommanderCallbackAction;
+import com.embotics.vlm.plugin.VCommanderJournal;
+import com.embotics.vlm.plugin.actions.AbstractVCommanderAction;
+import com.embotics.vlm.plugin.actions.PluginUtils;
+import com.embotics.vlm.plugin.actions.VCommanderRequestNewServiceAction;
+import com.embotics.vlm.rest.v30.client.VCommanderClient;
+import com.embotics.vlm.rest.v30.client.model.PollingProgress;
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+/**
+ * Pipeline step, which submits a new service request, and optionally waits for its completion
+ * Returns the service request ID.
+ *
+ * @author btarczali
+ */
+public class VCommanderRequestServiceStep extends Step {
+
+	private final String payload;
+	private boolean sync = true;
+	private long timeout = AbstractVCommanderAction.DEFAULT_TIMEOUT_VALUE;
+	private long polling = AbstractVCommanderAction.DEFAULT_POLLING_VALUE;
+
+
+	@DataBoundConstructor
+	public VCommanderRequestServiceStep(String payload) {
+		this.payload = payload;
+	}
+
+	public String getPayload() {
+		return payload;
+	}
+
+	public boolean getSync() {
+		return sync;
+	}
+
+	@DataBoundSetter
+	public void setSync(boolean sync) {
+		this.sync = sync;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	@DataBoundSetter
+	public void setTimeout(long timeout) {
+		this.timeout = AbstractVCommanderAction.getDefault(timeout, AbstractVCommanderAction.MINIMUM_TIMEOUT_VALUE, AbstractVCommanderAction.DEFAULT_TIMEOUT_VALUE);
+	}
+
+	public long getPolling() {
+		return polling;
+	}
+
+	@DataBoundSetter
+	public void setPolling(long polling) {
+		this.polling = AbstractVCommanderAction.getDefault(polling, AbstractVCommanderAction.MINIMUM_POLLING_VALUE, AbstractVCommanderAction.DEFAULT_POLLING_VALUE);
+	}
+
+	@Override
+	public StepExecution start(StepContext context) throws Exception {
+		return new Execution(context, this);
+	}
+
+	private static final class Execution extends AbstractVCommanderStepExecution<String> {
+		private static final long serialVersionUID = 1L;
+
+		private final String payload;
+		private final boolean sync;
+		private final long timeout;
+		private final long polling;
+		private volatile Long requestId;
+		// not kept over a Jenkins restart; the request is then polled as usual
+		private transient VCommanderCallbackAction.Callback callback;
+
+		Execution(StepContext context, VCommanderRequestServiceStep step) {
+			super(context);
+			this.payload = step.payload;
+			this.sync = step.sync;
+			this.timeout = step.timeout;
+			this.polling = step.polling;
+		}
+
+		@Override
+		protected long getTimeout() {
+			return timeout;
+		}
+
+		@Override
+		protected CompletableFuture<String> perform(VCommanderClient client, Run<?, ?> run, TaskListener listener) throws Exception {
+			try {
+				return waitFor(client, run, listener);
+			} catch (Exception e) {
+				// the callback URL is accepted from its creation
+				closeCallback();
+				throw e;
+			}
+		}
+
+		private CompletableFuture<String> waitFor(VCommanderClient client, Run<?, ?> run, TaskListener listener) throws Exception {
+			if (requestId == null) {
+				VCommanderJournal.Entry entry = getJournalEntry();
+				if (entry != null) {
+					// submitted before a Jenkins restart
+					requestId = Long.valueOf(entry.getId());
+				} else if (isResumed()) {
+					// the request may have been submitted; do not submit it again
+					throw new VCommanderException("Jenkins was restarted while submitting the service request. Check the service request in Commander.");
+				} else {
+					submit(client, run, listener);
+				}
+			}
+
+			if (!sync) {
+				return CompletableFuture.completedFuture(requestId.toString());
+			}
+
+			PollingProgress progress = journal(VCommanderJournal.Type.REQUEST, requestId.toString(), run, timeout, polling);
+			listener.getLogger().println("Waiting " + timeout + " minutes for request completion. Checking every " + polling + " seconds ...");
+			if (callback != null) {
+				callback.expect(requestId);
+			}
+			return track(client.waitForServiceRequestToBeCompletedAsync(requestId, timeout, polling, listener.getLogger(), progress))
+					.whenComplete((deployedComponents, error) -> closeCallback())
+					.thenApply(deployedComponents -> {
+						listener.getLogger().println("Service request successfully completed.");
+						VCommanderRequestNewServiceAction.addDeployedComponentsEnvVariables(run, listener, deployedComponents);
+						return requestId.toString();
+					});
+		}
+
+		private void submit(VCommanderClient client, Run<?, ?> run, TaskListener listener) throws Exception {
+			// check if user configured a service request
+			if (StringUtils.isBlank(payload)) {
+				throw new VCommanderException("There is no configuration for the Commander service request build step.");
+			}
+			try {
+				new JSONObject(payload);
+			} catch (JSONException e) {
+				throw new VCommanderException(e, "Error in build step configuration. Payload is not in valid JSON format.");
+			}
+
+			EnvVars env = getContext().get(EnvVars.class);
+			// the payload can pass the callback URL to Commander
+			callback = sync ? VCommanderCallbackAction.createCallback(payload) : null;
+			if (callback != null) {
+				env = new EnvVars(env);
+				env.put(VCommanderCallbackAction.ENV_VARIABLE_CALLBACK_URL, callback.getUrl());
+				PluginUtils.addEnvVariable(run, listener, VCommanderCallbackAction.ENV_VARIABLE_CALLBACK_URL, callback.getUrl());
+			}
+
+			try {
+				String resolvedPayload = Util.replaceMacro(payload, env);
+				listener.getLogger().println("Creating new service request with payload: " + resolvedPayload);
+				requestId = client.requestService(resolvedPayload);
+
+				//create environment variables for the results
+				PluginUtils.addEnvVariable(run, listener, VCommanderRequestNewServiceAction.ENV_VARIABLE_REQUEST_ID, requestId.toString());
+				listener.getLogger().println("Service was succesfuly requested. RequestID: " + requestId);
+			} catch (JSONException e) {
+				throw new VCommanderException(e, "Error while requesting service request from Commander.");
+			}
+		}
+
+		private void closeCallback() {
+			if (callback != null) {
+				callback.close();
+			}
+		}
+	}
+
+
+	@Extension
+	public static final class DescriptorImpl extends StepDescriptor {
+
+		@Override
+		public String getFunctionName() {
+			return "vCommanderRequestService";
+		}
+
+		@Override
+		public String getDisplayName() {
+			return Messages.VCommanderRequestServiceStep_displayName();
+		}
+
+		@Override
+		public Set<? extends Class<?>> getRequiredContext() {
+			return AbstractVCommanderStepExecution.REQUIRED_CONTEXT;
+		}
+	}
+
+}
@@ -0,0 +1,234 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin.steps;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jettison.json.JSONException;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import com.embotics.vlm.plugin.Messages;
+import com.embotics.vlm.plugin.VCommanderJournal;
+import com.embotics.vlm.plugin.actions.AbstractVCommanderAction;
+import com.embotics.vlm.plugin.actions.PluginUtils;
+import com.embotics.vlm.plugin.actions.VCommanderRunWorkflowAction;
+import com.embotics.vlm.rest.v30.client.VCommanderClient;
+import com.embotics.vlm.rest.v30.client.model.PollingProgress;
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+import com.embotics.vlm.rest.v30.client.model.WorkflowTargetType;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+/**
+ * Pipeline step, which triggers a command workflow, and optionally waits for its completion
+ * Returns the workflow task ID.
+ *
+ * @author btarczali
+ */
+public class VCommanderRunWorkflowStep extends Step {
+
+	private final String workflowName;
+	private String targetType = WorkflowTargetType.NO_INVENTORY_TARGET.name();
+	private String targetName;
+	private boolean sync = true;
+	private long timeout = AbstractVCommanderAction.DEFAULT_TIMEOUT_VALUE;
+	private long polling = AbstractVCommanderAction.DEFAULT_POLLING_VALUE;
+	private boolean lowLatency;
+
+
+	@DataBoundConstructor
+	public VCommanderRunWorkflowStep(String workflowName) {
+		this.workflowName = workflowName;
+	}
+
+	public String getWorkflowName() {
+		return workflowName;
+	}
+
+	public String getTargetType() {
+		return targetType;
+	}
+
+	@DataBoundSetter
+	public void setTargetType(String targetType) {
+		this.targetType = targetType;
+	}
+
+	public String getTargetName() {
+		return targetName;
+	}
+
+	@DataBoundSetter
+	public void setTargetName(String targetName) {
+		this.targetName = targetName;
+	}
+
+	public boolean getSync() {
+		return sync;
+	}
+
+	@DataBoundSetter
+	public void setSync(boolean sync) {
+		this.sync = sync;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	@DataBoundSetter
+	public void setTimeout(long timeout) {
+		this.timeout = AbstractVCommanderAction.getDefault(timeout, AbstractVCommanderAction.MINIMUM_TIMEOUT_VALUE, AbstractVCommanderAction.DEFAULT_TIMEOUT_VALUE);
+	}
+
+	public long getPolling() {
+		return polling;
+	}
+
+	@DataBoundSetter
+	public void setPolling(long polling) {
+		this.polling = AbstractVCommanderAction.getDefault(polling, AbstractVCommanderAction.MINIMUM_POLLING_VALUE, AbstractVCommanderAction.DEFAULT_POLLING_VALUE);
+	}
+
+	public boolean getLowLatency() {
+		return lowLatency;
+	}
+
+	@DataBoundSetter
+	public void setLowLatency(boolean lowLatency) {
+		this.lowLatency = lowLatency;
+	}
+
+	@Override
+	public StepExecution start(StepContext context) throws Exception {
+		return new Execution(context, this);
+	}
+
+	private static final class Execution extends AbstractVCommanderStepExecution<String> {
+		private static final long serialVersionUID = 1L;
+
+		private final String workflowName;
+		private final String targetType;
+		private final String targetName;
+		private final boolean sync;
+		private final long timeout;
+		private final long polling;
+		private final boolean lowLatency;
+		private volatile String taskId;
+
+		Execution(StepContext context, VCommanderRunWorkflowStep step) {
+			super(context);
+			this.workflowName = step.workflowName;
+			this.targetType = step.targetType;
+			this.targetName = step.targetName;
+			this.sync = step.sync;
+			this.timeout = step.timeout;
+			this.polling = step.polling;
+			this.lowLatency = step.lowLatency;
+		}
+
+		@Override
+		protected long getTimeout() {
+			return timeout;
+		}
+
+		@Override
+		protected CompletableFuture<String> perform(VCommanderClient client, Run<?, ?> run, TaskListener listener) throws Exception {
+			if (taskId == null) {
+				VCommanderJournal.Entry entry = getJournalEntry();
+				if (entry != null) {
+					// started before a Jenkins restart
+					taskId = entry.getId();
+				} else if (isResumed()) {
+					// the workflow may have been started; do not start it again
+					throw new VCommanderException("Jenkins was restarted while running the command workflow. Check the workflow in Commander.");
+				} else {
+					submit(client, run, listener);
+				}
+			}
+
+			if (!sync) {
+				return CompletableFuture.completedFuture(taskId);
+			}
+
+			PollingProgress progress = journal(VCommanderJournal.Type.WORKFLOW, taskId, run, timeout, polling);
+			listener.getLogger().println("Waiting " + timeout + " minutes for workflow completion. Checking every " + polling + " seconds ...");
+			return track(client.waitForWorkflowToBeCompletedAsync(taskId, timeout, polling, listener.getLogger(), progress, lowLatency))
+					.thenApply(workflowId -> {
+						listener.getLogger().println("Workflow successfully completed.");
+						return taskId;
+					});
+		}
+
+		private void submit(VCommanderClient client, Run<?, ?> run, TaskListener listener) throws Exception {
+			// check if user configured a workflow
+			if (StringUtils.isBlank(workflowName)) {
+				throw new VCommanderException("There is no configuration for the Commander workflow build step.");
+			}
+
+			Long workflowDefinitionId;
+			try {
+				listener.getLogger().println("Looking up command workflow with name: '" + workflowName + "'");
+				workflowDefinitionId = client.getWorkflowDefinition(workflowName);
+			} catch (JSONException e) {
+				throw new VCommanderException(e, "Error while retrieving workflow from Commander.");
+			}
+
+			try {
+				EnvVars env = getContext().get(EnvVars.class);
+				String resolvedTargetName = Util.replaceMacro(targetName, env);
+				String resolvedTargetType = Util.replaceMacro(targetType, env);
+
+				listener.getLogger().println("Running command workflow: '" + workflowName + "' for target: '" + resolvedTargetName + "' with type: " + resolvedTargetType);
+				taskId = client.runCommandWorkflow(workflowDefinitionId, resolvedTargetType, resolvedTargetName);
+				listener.getLogger().println("Command workflow submitted to Commander. Task ID: " + taskId);
+
+				//create environment variables for the results
+				PluginUtils.addEnvVariable(run, listener, VCommanderRunWorkflowAction.ENV_VARIABLE_WORKFLOW_TASK_ID, taskId);
+			} catch (JSONException e) {
+				throw new VCommanderException(e, "Error while running command workflow in Commander.");
+			}
+		}
+	}
+
+
+	@Extension
+	public static final class DescriptorImpl extends StepDescriptor {
+
+		@Override
+		public String getFunctionName() {
+			return "vCommanderRunWorkflow";
+		}
+
+		@Override
+		public String getDisplayName() {
+			return Messages.VCommanderRunWorkflowStep_displayName();
+		}
+
+		@Override
+		public Set<? extends Class<?>> getRequiredContext() {
+			return AbstractVCommanderStepExecution.REQUIRED_CONTEXT;
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin.steps;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import com.embotics.vlm.plugin.Messages;
+import com.embotics.vlm.plugin.VCommanderJournal;
+import com.embotics.vlm.plugin.actions.AbstractVCommanderAction;
+import com.embotics.vlm.plugin.actions.VCommanderRequestNewServiceAction;
+import com.embotics.vlm.rest.v30.client.VCommanderClient;
+import com.embotics.vlm.rest.v30.client.model.PollingProgress;
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+/**
+ * Pipeline step, which waits for a service request or a command workflow submitted asynchronously
+ * Exactly one of the request ID and the workflow task ID must be specified.
+ *
+ * @author btarczali
+ */
+public class VCommanderWaitStep extends Step {
+
+	private String requestId;
+	private String taskId;
+	private long timeout = AbstractVCommanderAction.DEFAULT_TIMEOUT_VALUE;
+	private long polling = AbstractVCommanderAction.DEFAULT_POLLING_VALUE;
+
+
+	@DataBoundConstructor
+	public VCommanderWaitStep() {
+	}
+
+	public String getRequestId() {
+		return requestId;
+	}
+
+	@DataBoundSetter
+	public void setRequestId(String requestId) {
+		this.requestId = requestId;
+	}
+
+	public String getTaskId() {
+		return taskId;
+	}
+
+	@DataBoundSetter
+	public void setTaskId(String taskId) {
+		this.taskId = taskId;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	@DataBoundSetter
+	public void setTimeout(long timeout) {
+		this.timeout = AbstractVCommanderAction.getDefault(timeout, AbstractVCommanderAction.MINIMUM_TIMEOUT_VALUE, AbstractVCommanderAction.DEFAULT_TIMEOUT_VALUE);
+	}
+
+	public long getPolling() {
+		return polling;
+	}
+
+	@DataBoundSetter
+	public void setPolling(long polling) {
+		this.polling = AbstractVCommanderAction.getDefault(polling, AbstractVCommanderAction.MINIMUM_POLLING_VALUE, AbstractVCommanderAction.DEFAULT_POLLING_VALUE);
+	}
+
+	@Override
+	public StepExecution start(StepContext context) throws Exception {
+		return new Execution(context, this);
+	}
+
+	private static final class Execution extends AbstractVCommanderStepExecution<Void> {
+		private static final long serialVersionUID = 1L;
+
+		private final String requestId;
+		private final String taskId;
+		private final long timeout;
+		private final long polling;
+
+		Execution(StepContext context, VCommanderWaitStep step) {
+			super(context);
+			this.requestId = step.requestId;
+			this.taskId = step.taskId;
+			this.timeout = step.timeout;
+			this.polling = step.polling;
+		}
+
+		@Override
+		protected long getTimeout() {
+			return timeout;
+		}
+
+		@Override
+		protected CompletableFuture<Void> perform(VCommanderClient client, Run<?, ?> run, TaskListener listener) throws Exception {
+			if (StringUtils.isNotBlank(requestId) == StringUtils.isNotBlank(taskId)) {
+				throw new VCommanderException("Error in build step configuration. Specify either the request ID or the task ID.");
+			}
+
+			if (StringUtils.isNotBlank(requestId)) {
+				Long numericRequestId;
+				try {
+					numericRequestId = Long.valueOf(requestId.trim());
+				} catch (NumberFormatException e) {
+					throw new VCommanderException("Error in build step configuration. Request ID is not a number: %s", requestId);
+				}
+
+				PollingProgress progress = journal(VCommanderJournal.Type.REQUEST, numericRequestId.toString(), run, timeout, polling);
+				listener.getLogger().println("Waiting " + timeout + " minutes for request completion. Checking every " + polling + " seconds ...");
+				return track(client.waitForServiceRequestToBeCompletedAsync(numericRequestId, timeout, polling, listener.getLogger(), progress))
+						.thenAccept(deployedComponents -> {
+							listener.getLogger().println("Service request successfully completed.");
+							VCommanderRequestNewServiceAction.addDeployedComponentsEnvVariables(run, listener, deployedComponents);
+						});
+			}
+
+			PollingProgress progress = journal(VCommanderJournal.Type.WORKFLOW, taskId.trim(), run, timeout, polling);
+			listener.getLogger().println("Waiting " + timeout + " minutes for workflow completion. Checking every " + polling + " seconds ...");
+			return track(client.waitForWorkflowToBeCompletedAsync(taskId.trim(), timeout, polling, listener.getLogger(), progress))
+					.thenAccept(workflowId -> listener.getLogger().println("Workflow successfully completed."));
+		}
+	}
+
+
+	@Extension
+	public static final class DescriptorImpl extends StepDescriptor {
+
+		@Override
+		public String getFunctionName() {
+			return "vCommanderWait";
+		}
+
+		@Override
+		public String getDisplayName() {
+			return Messages.VCommanderWaitStep_displayName();
+		}
+
+		@Override
+		public Set<? extends Class<?>> getRequiredContext() {
+			return AbstractVCommanderStepExecution.REQUIRED_CONTEXT;
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.embotics.vlm.rest.v30.client.CallLimiter.CallType;
+
+/**
+ * A limit of the calls in flight, adapted to the measured vCommander latency (AIMD)
+ *
+ * The calls are measured in windows of a fixed number of calls, one window for each type of call (see {@link CallType}),
+ * as a submit takes much longer than a status lookup. At the end of each window:
+ * - if too many calls failed, or the 95th percentile latency went well above the usual one of its type, the limit is halved
+ * - otherwise, if the limit was reached since the last window, it is raised by one
+ *
+ * The usual latency of a type is the lowest 95th percentile seen, drifting slowly towards the measured one,
+ * so a lasting change of the vCommander load becomes the new usual after a few windows.
+ * The limit stays between 1 and the configured maximum.
+ *
+ * @author btarczali
+ */
+final class AdaptiveLimit {
+	private static final Logger LOGGER = Logger.getLogger(AdaptiveLimit.class.getName());
+
+	static final int WINDOW_SIZE = Integer.getInteger(AdaptiveLimit.class.getName() + ".windowSize", 20);
+	// the share of failed calls in a window above which the limit is decreased
+	static final double MAX_FAILURE_RATE = 0.1;
+	// how much the latency can grow above the usual one before the limit is decreased
+	static final double LATENCY_TOLERANCE = 2.0;
+	static final double DECREASE_RATIO = 0.5;
+	static final double BASELINE_DRIFT = 0.1;
+
+	private static final int MIN_LIMIT = 1;
+	// enough permits to let every waiting and future call through, once replaced
+	private static final int RETIRED_PERMITS = Integer.MAX_VALUE / 2;
+
+	private final AdjustableSemaphore permits;
+	private final int maxLimit;
+	private final int windowSize;
+	private final Map<CallType, Window> windows = new EnumMap<>(CallType.class);
+
+	private int limit;
+	private int inFlight;
+	private int maxInFlight;
+
+
+	/**
+	 * @param maxLimit	the configured maximum of calls in flight, also the initial limit
+	 */
+	AdaptiveLimit(int maxLimit) {
+		this(maxLimit, WINDOW_SIZE);
+	}
+
+	/**
+	 * Used for Unit Testing
+	 */
+	AdaptiveLimit(int maxLimit, int windowSize) {
+		this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+		this.limit = this.maxLimit;
+		this.permits = new AdjustableSemaphore(this.limit);
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Waits for a free slot, in arrival order
+	 *
+	 * @return true if the call can be made, false if the timeout elapsed
+	 */
+	boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!permits.tryAcquire(timeout, unit)) {
+			return false;
+		}
+		synchronized (this) {
+			inFlight++;
+			maxInFlight = Math.max(maxInFlight, inFlight);
+		}
+		return true;
+	}
+
+	/**
+	 * Frees the slot, without measuring the call
+	 */
+	void release() {
+		synchronized (this) {
+			inFlight--;
+		}
+		permits.release();
+	}
+
+	/**
+	 * Frees the slot of a completed call, and adapts the limit
+	 *
+	 * @param type				the type of the call
+	 * @param latencyInMillis	the duration of the call
+	 * @param failed			true if vCommander failed or was overloaded
+	 */
+	void release(CallType type, long latencyInMillis, boolean failed) {
+		synchronized (this) {
+			inFlight--;
+			Window window = windows.computeIfAbsent(type, t -> new Window(windowSize));
+			if (window.add(latencyInMillis, failed)) {
+				adapt(type, window);
+			}
+		}
+		permits.release();
+	}
+
+	private void adapt(CallType type, Window window) {
+		long[] sorted = Arrays.copyOf(window.latencies, window.samples);
+		Arrays.sort(sorted);
+		long p95 = sorted[(int) Math.ceil(window.samples * 0.95) - 1];
+		int failures = window.failures;
+		int samples = window.samples;
+
+		boolean overloaded = failures > samples * MAX_FAILURE_RATE || (window.baseline >= 0 && p95 > window.baseline * LATENCY_TOLERANCE);
+		if (window.baseline < 0 || p95 < window.baseline) {
+			window.baseline = p95;
+		} else {
+			window.baseline += (p95 - window.baseline) * BASELINE_DRIFT;
+		}
+		window.samples = 0;
+		window.failures = 0;
+
+		int newLimit = limit;
+		if (overloaded) {
+			newLimit = Math.max(MIN_LIMIT, (int) (limit * DECREASE_RATIO));
+		} else if (maxInFlight >= limit) {
+			newLimit = Math.min(maxLimit, limit + 1);
+		}
+		if (newLimit != limit) {
+			LOGGER.log(Level.FINE, "Commander calls limit changed from {0} to {1}; {2} p95 latency: {3} ms, failures: {4}/{5}",
+					new Object[] { limit, newLimit, type, p95, failures, samples });
+			if (newLimit > limit) {
+				permits.release(newLimit - limit);
+			} else {
+				permits.reducePermits(limit - newLimit);
+			}
+			limit = newLimit;
+		}
+		maxInFlight = inFlight;
+	}
+
+	/**
+	 * The limit is replaced; every waiting call is let through, to wait on the new limit instead
+	 */
+	void retire() {
+		permits.release(RETIRED_PERMITS);
+	}
+
+	/**
+	 * @return the current limit of the calls in flight
+	 */
+	synchronized int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return the number of calls in flight
+	 */
+	synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * The latest calls of a type, with their usual latency
+	 */
+	private static final class Window {
+		private final long[] latencies;
+		private int samples;
+		private int failures;
+		private double baseline = -1;
+
+		Window(int size) {
+			this.latencies = new long[size];
+		}
+
+		/**
+		 * @return true if the window is full
+		 */
+		boolean add(long latencyInMillis, boolean failed) {
+			latencies[samples++] = latencyInMillis;
+			if (failed) {
+				failures++;
+			}
+			return samples == latencies.length;
+		}
+	}
+
+	/**
+	 * A fair semaphore whose permits can be taken away, while some are in use
+	 */
+	private static final class AdjustableSemaphore extends Semaphore {
+		private static final long serialVersionUID = 1L;
+
+		AdjustableSemaphore(int permits) {
+			super(permits, true);
+		}
+
+		@Override
+		protected void reducePermits(int reduction) {
+			super.reducePermits(reduction);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.jettison.json.JSONException;
+
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+/**
+ * Runs the one-off REST calls of the asynchronous client API, and the submissions of the Pipeline steps, on a small bounded pool
+ *
+ * The waits for service requests and workflows do not use this pool; they are polled by the {@link PollingScheduler}.
+ * When too many calls are queued, the new ones fail right away instead of queueing without bound.
+ *
+ * @author btarczali
+ */
+final class AsyncCalls {
+	private static final int THREAD_COUNT = Integer.getInteger(AsyncCalls.class.getName() + ".threads", 8);
+	private static final int QUEUE_SIZE = Integer.getInteger(AsyncCalls.class.getName() + ".queueSize", 1000);
+	private static final long KEEP_ALIVE_IN_SECONDS = 60;
+
+	private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+	/**
+	 * A blocking REST call
+	 */
+	interface Call<V> {
+		V call() throws JSONException, VCommanderException;
+	}
+
+
+	private AsyncCalls() {
+	}
+
+	/**
+	 * The deadline of the caller (see {@link Deadline}) applies to the call too.
+	 * When the retries of the caller are deferred, like on the polling workers, the retries of the call are deferred to the caller too.
+	 *
+	 * @param call	the call to run
+	 *
+	 * @return a future completed with the result of the call, or failed with its exception.
+	 * 			Cancelling the future before the call starts skips it.
+	 */
+	static <V> CompletableFuture<V> submit(Call<V> call) {
+		CompletableFuture<V> future = new CompletableFuture<>();
+		long deadline = Deadline.get();
+		RetryFilter.DeferredRetry deferred = RetryFilter.getDeferredRetries();
+		try {
+			EXECUTOR.execute(() -> {
+				if (future.isDone()) {
+					return;
+				}
+				Deadline.set(deadline);
+				RetryFilter.shareDeferredRetries(deferred);
+				try {
+					future.complete(call.call());
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				} finally {
+					RetryFilter.shareDeferredRetries(null);
+					Deadline.clear();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(new VCommanderException(e, "Too many Commander calls in progress."));
+		}
+		return future;
+	}
+
+	/**
+	 * @param deadlineInMillis	the deadline of the calls made by the task, see {@link Deadline}
+	 * @param task				makes the calls, and handles their failures
+	 *
+	 * @return the future of the task; cancelling it interrupts the calls in progress
+	 *
+	 * @throws VCommanderException	when too many calls are queued
+	 */
+	static Future<?> execute(long deadlineInMillis, Runnable task) throws VCommanderException {
+		try {
+			return EXECUTOR.submit(() -> {
+				Deadline.set(deadlineInMillis);
+				try {
+					task.run();
+				} finally {
+					Deadline.clear();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			throw new VCommanderException(e, "Too many Commander calls in progress.");
+		}
+	}
+
+	private static ThreadPoolExecutor createExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new WorkerThreadFactory());
+		// no idle threads when the asynchronous API is not used
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Commander call worker " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
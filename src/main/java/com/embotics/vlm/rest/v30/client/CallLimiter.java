@@ -0,0 +1,296 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang.time.DateUtils;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+/**
+ * Limits the REST calls made to vCommander by the whole Jenkins controller
+ *
+ * Two limits are applied, both configured on the global configuration page:
+ * - the number of calls in flight at the same time; the limit adapts to the vCommander latency, up to the configured maximum (see {@link AdaptiveLimit})
+ * - the number of calls per second, for each type of call (see {@link CallType})
+ *
+ * A call over the limits waits for its turn. The calls wait in arrival order, whichever build they are made for,
+ * so a build starting many branches does not starve the others. No call waits beyond its {@link Deadline}.
+ * When the limits are reconfigured, the waiting calls are released by the previous limits and queue again on the new ones,
+ * in the order they are woken up.
+ * The session token requests are not limited.
+ *
+ * The calls in flight are limited to {@link #DEFAULT_MAX_CONCURRENT_CALLS} by default, also after an upgrade from a version without the limit.
+ *
+ * @author btarczali
+ */
+public final class CallLimiter {
+
+	public static final int DEFAULT_MAX_CONCURRENT_CALLS = 20;
+
+	private static final CallLimiter INSTANCE = new CallLimiter();
+
+	private static final String METHOD_POST = "POST";
+	private static final int STATUS_TOO_MANY_REQUESTS = 429;
+	private static final int STATUS_SERVER_ERROR = 500;
+	private static final String COMMENTS_SEGMENT = "/comments";
+	private static final String SERVICE_REQUESTS_SEGMENT = "/service-requests";
+	private static final String WORKFLOW_DEFINITIONS_SEGMENT = "/workflow-definitions";
+	private static final String SERVICES_SEGMENT = "/services";
+	private static final String WORKFLOWS_SEGMENT = "/workflows";
+	private static final String TASKS_SEGMENT = "/tasks";
+
+	/**
+	 * The types of calls, each one with its own rate limit
+	 */
+	public enum CallType {
+		/** new service requests and workflow runs */
+		SUBMIT,
+		/** service request, workflow and task lookups */
+		STATUS,
+		/** service request and workflow comments */
+		COMMENTS,
+		/** published service and workflow definition lookups */
+		CATALOG;
+
+		/**
+		 * @return the type of the call, or null if the call is not limited
+		 */
+		static CallType of(String method, String path) {
+			if (path == null) {
+				return null;
+			}
+			if (METHOD_POST.equalsIgnoreCase(method)) {
+				return path.contains(SERVICE_REQUESTS_SEGMENT) || path.contains(WORKFLOW_DEFINITIONS_SEGMENT) ? SUBMIT : null;
+			}
+			if (path.contains(COMMENTS_SEGMENT)) {
+				return COMMENTS;
+			}
+			if (path.contains(SERVICE_REQUESTS_SEGMENT) || path.contains(WORKFLOWS_SEGMENT) || path.contains(TASKS_SEGMENT)) {
+				return STATUS;
+			}
+			if (path.contains(SERVICES_SEGMENT) || path.contains(WORKFLOW_DEFINITIONS_SEGMENT)) {
+				return CATALOG;
+			}
+			return null;
+		}
+	}
+
+	private volatile Limits limits;
+
+
+	private CallLimiter() {
+		this.limits = new Limits(DEFAULT_MAX_CONCURRENT_CALLS, Collections.<CallType, Integer>emptyMap(), System::currentTimeMillis);
+	}
+
+	/**
+	 * @return the limiter shared by all the clients
+	 */
+	public static CallLimiter get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Apply new limits; the calls already waiting switch to the new limits
+	 *
+	 * @param maxConcurrentCalls	the maximum number of calls in flight; 0 for no limit
+	 * @param callsPerSecond		the maximum number of calls per second by type; a missing type or 0 for no limit
+	 */
+	public void configure(int maxConcurrentCalls, Map<CallType, Integer> callsPerSecond) {
+		Limits previous = limits;
+		limits = new Limits(maxConcurrentCalls, callsPerSecond, System::currentTimeMillis);
+		if (previous.concurrency != null) {
+			// wake up the waiting calls, to switch to the new limits
+			previous.concurrency.retire();
+		}
+	}
+
+	/**
+	 * @return the current limit of the calls in flight, or 0 if not limited
+	 */
+	public int getConcurrencyLimit() {
+		AdaptiveLimit concurrency = limits.concurrency;
+		return concurrency != null ? concurrency.getLimit() : 0;
+	}
+
+	/**
+	 * @return the number of limited calls in flight, or 0 if not limited
+	 */
+	public int getCallsInFlight() {
+		AdaptiveLimit concurrency = limits.concurrency;
+		return concurrency != null ? concurrency.getInFlight() : 0;
+	}
+
+	/**
+	 * @return a filter making every call wait for its turn, and measuring it
+	 */
+	ClientFilter createFilter() {
+		return new ClientFilter() {
+			@Override
+			public ClientResponse handle(ClientRequest cr) throws ClientHandlerException {
+				CallType type = CallType.of(cr.getMethod(), cr.getURI().getPath());
+				if (type == null) {
+					return getNext().handle(cr);
+				}
+
+				AdaptiveLimit concurrency = acquire(type);
+				if (concurrency == null) {
+					return getNext().handle(cr);
+				}
+
+				long start = System.nanoTime();
+				boolean failed = true;
+				try {
+					ClientResponse response = getNext().handle(cr);
+					failed = response.getStatus() >= STATUS_SERVER_ERROR || response.getStatus() == STATUS_TOO_MANY_REQUESTS;
+					return response;
+				} catch (ClientHandlerException e) {
+					// the step ran out of time; not a failure of vCommander
+					failed = Deadline.remainingInMillis() > 0;
+					throw e;
+				} finally {
+					concurrency.release(type, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), failed);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Waits until the call can be made
+	 *
+	 * @return the limit to release once the call is done, or null if the calls in flight are not limited
+	 */
+	private AdaptiveLimit acquire(CallType type) throws ClientHandlerException {
+		try {
+			while (true) {
+				Limits current = limits;
+				if (current.acquire(type)) {
+					return current.concurrency;
+				}
+				// reconfigured while waiting; start over with the new limits
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ClientHandlerException(new InterruptedIOException("Interrupted while waiting to call Commander"));
+		}
+	}
+
+	/**
+	 * The limits configured at a time
+	 */
+	static final class Limits {
+		private final AdaptiveLimit concurrency;
+		private final Map<CallType, TokenBucket> rates = new EnumMap<>(CallType.class);
+
+		Limits(int maxConcurrentCalls, Map<CallType, Integer> callsPerSecond, LongSupplier clock) {
+			this.concurrency = maxConcurrentCalls > 0 ? new AdaptiveLimit(maxConcurrentCalls) : null;
+			for (Map.Entry<CallType, Integer> rate : callsPerSecond.entrySet()) {
+				if (rate.getValue() != null && rate.getValue() > 0) {
+					rates.put(rate.getKey(), new TokenBucket(rate.getValue(), clock));
+				}
+			}
+		}
+
+		/**
+		 * @return true if the call can be made, false if the limits were replaced while waiting
+		 */
+		boolean acquire(CallType type) throws InterruptedException, ClientHandlerException {
+			TokenBucket rate = rates.get(type);
+			if (rate != null) {
+				long wait = rate.reserve(Deadline.remainingInMillis());
+				if (wait < 0) {
+					throw timeout();
+				}
+				Thread.sleep(wait);
+			}
+
+			if (concurrency == null) {
+				return true;
+			}
+			long remaining = Deadline.remainingInMillis();
+			if (remaining <= 0) {
+				throw timeout();
+			}
+			// a single wait keeps the place of the call in the queue
+			if (concurrency.tryAcquire(remaining, TimeUnit.MILLISECONDS)) {
+				if (this == INSTANCE.limits) {
+					return true;
+				}
+				// released by the retired limits
+				concurrency.release();
+				return false;
+			}
+			if (this != INSTANCE.limits) {
+				return false;
+			}
+			throw timeout();
+		}
+
+		private static ClientHandlerException timeout() {
+			return new ClientHandlerException(new SocketTimeoutException("Timeout reached while waiting to call Commander"));
+		}
+	}
+
+	/**
+	 * A token bucket, refilled at a constant rate, holding up to one second of calls
+	 *
+	 * The tokens are reserved in arrival order: a caller finding the bucket empty takes the next token to come,
+	 * and the next caller waits for the one after.
+	 */
+	static final class TokenBucket {
+		private final double tokensPerMilli;
+		private final double capacity;
+		private final LongSupplier clock;
+
+		private double tokens;
+		private long updated;
+
+
+		TokenBucket(int callsPerSecond, LongSupplier clock) {
+			this.tokensPerMilli = (double) callsPerSecond / DateUtils.MILLIS_PER_SECOND;
+			this.capacity = callsPerSecond;
+			this.clock = clock;
+			this.tokens = capacity;
+			this.updated = clock.getAsLong();
+		}
+
+		/**
+		 * Reserve the next token
+		 *
+		 * @param maxWait	the longest acceptable wait, in milliseconds
+		 *
+		 * @return the time to wait for the reserved token, in milliseconds, or -1 if it would take longer than maxWait; nothing is reserved then
+		 */
+		synchronized long reserve(long maxWait) {
+			long now = clock.getAsLong();
+			tokens = Math.min(capacity, tokens + (now - updated) * tokensPerMilli);
+			updated = now;
+
+			long wait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerMilli);
+			if (wait > maxWait) {
+				return -1;
+			}
+			tokens -= 1;
+			return wait;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.codehaus.jettison.json.JSONException;
+
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+/**
+ * Bounded cache of catalog lookups, like published services and workflow definitions
+ *
+ * The catalog changes rarely, so a looked up value is reused until it expires.
+ * An entry used shortly before it expires is reloaded in the background,
+ * so frequently used entries are never waited for once loaded.
+ * Failed lookups are not cached. When the cache is full, the least recently used entry is evicted.
+ *
+ * @param <K>	the type of the lookup key
+ * @param <V>	the type of the looked up value
+ *
+ * @author btarczali
+ */
+class CatalogCache<K, V> {
+	private static final Logger LOGGER = Logger.getLogger(CatalogCache.class.getName());
+
+	static final long TIME_TO_LIVE = Long.getLong(CatalogCache.class.getName() + ".timeToLive", 5 * DateUtils.MILLIS_PER_MINUTE);
+	static final int MAX_SIZE = Integer.getInteger(CatalogCache.class.getName() + ".maxSize", 256);
+	// entries used in the last part of their life are reloaded in the background
+	private static final double REFRESH_AHEAD_RATIO = 0.8;
+
+	private final Loader<K, V> loader;
+	private final Executor refreshExecutor;
+	private final LongSupplier clock;
+	private final long timeToLive;
+	private final long refreshAfter;
+	private final int maxSize;
+
+	private final Map<K, Entry<V>> entries;
+	private final CatalogCacheStatistics statistics = new CatalogCacheStatistics();
+
+
+	/**
+	 * @param loader	looks up the value of a key in vCommander
+	 */
+	CatalogCache(Loader<K, V> loader) {
+		this(loader, PollingScheduler.get()::execute, System::currentTimeMillis, TIME_TO_LIVE, MAX_SIZE);
+	}
+
+	/**
+	 * Used for Unit Testing
+	 */
+	CatalogCache(Loader<K, V> loader, Executor refreshExecutor, LongSupplier clock, long timeToLive, int maxSize) {
+		this.loader = loader;
+		this.refreshExecutor = refreshExecutor;
+		this.clock = clock;
+		this.timeToLive = timeToLive;
+		this.refreshAfter = (long) (timeToLive * REFRESH_AHEAD_RATIO);
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				if (size() > CatalogCache.this.maxSize) {
+					statistics.evicted();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached value, or looks it up when not cached or expired
+	 *
+	 * @param key					the lookup key
+	 *
+	 * @return the value
+	 *
+	 * @throws JSONException		If there is a syntax error
+	 * @throws VCommanderException 	If the lookup fails
+	 */
+	V get(K key) throws JSONException, VCommanderException {
+		long now = clock.getAsLong();
+		Entry<V> entry;
+		boolean refresh = false;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if (entry != null && now - entry.loadTime < timeToLive) {
+				if (now - entry.loadTime >= refreshAfter && !entry.refreshing) {
+					entry.refreshing = true;
+					refresh = true;
+				}
+			} else {
+				entry = null;
+			}
+		}
+
+		if (entry != null) {
+			statistics.hit();
+			if (refresh) {
+				refreshExecutor.execute(() -> refresh(key));
+			}
+			return entry.value;
+		}
+
+		statistics.missed();
+		return load(key);
+	}
+
+	CatalogCacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	private V load(K key) throws JSONException, VCommanderException {
+		V value = loader.load(key);
+		synchronized (entries) {
+			entries.put(key, new Entry<>(value, clock.getAsLong()));
+		}
+		return value;
+	}
+
+	private void refresh(K key) {
+		statistics.refreshed();
+		try {
+			load(key);
+		} catch (Exception e) {
+			// keep the current value until it expires
+			LOGGER.log(Level.FINE, "Cannot refresh the cached Commander catalog entry: " + key, e);
+			synchronized (entries) {
+				Entry<V> entry = entries.get(key);
+				if (entry != null) {
+					entry.refreshing = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Looks up the value of a key in vCommander
+	 */
+	interface Loader<K, V> {
+		V load(K key) throws JSONException, VCommanderException;
+	}
+
+	private static final class Entry<V> {
+		private final V value;
+		private final long loadTime;
+		private boolean refreshing;
+
+		Entry(V value, long loadTime) {
+			this.value = value;
+			this.loadTime = loadTime;
+		}
+	}
+}
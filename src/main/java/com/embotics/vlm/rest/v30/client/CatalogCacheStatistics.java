@@ -0,0 +1,82 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Usage counters of the catalog caches
+ *
+ * @author btarczali
+ */
+public final class CatalogCacheStatistics {
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+
+	void hit() {
+		hits.incrementAndGet();
+	}
+
+	void missed() {
+		misses.incrementAndGet();
+	}
+
+	void refreshed() {
+		refreshes.incrementAndGet();
+	}
+
+	void evicted() {
+		evictions.incrementAndGet();
+	}
+
+	/**
+	 * Adds the counters of another cache to these
+	 */
+	CatalogCacheStatistics add(CatalogCacheStatistics other) {
+		hits.addAndGet(other.getHits());
+		misses.addAndGet(other.getMisses());
+		refreshes.addAndGet(other.getRefreshes());
+		evictions.addAndGet(other.getEvictions());
+		return this;
+	}
+
+	/**
+	 * @return the lookups answered from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the lookups sent to vCommander
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the entries reloaded in the background
+	 */
+	public long getRefreshes() {
+		return refreshes.get();
+	}
+
+	/**
+	 * @return the entries evicted because the cache was full
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+}
@@ -0,0 +1,261 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.net.ConnectException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.time.DateUtils;
+
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+/**
+ * Stops calling a vCommander endpoint which keeps failing
+ *
+ * After a number of consecutive failures (connection errors, timeouts, 502/503/504) the circuit opens,
+ * and the calls fail right away without opening a connection.
+ * Only the failures of the connection itself count, not the calls aborted or out of time before reaching vCommander.
+ * Once the open period is over, one trial call is let through: if it succeeds the circuit closes, otherwise it opens again.
+ * A health probe (see {@link VCommanderClient#checkHealth()}) is always let through, and closes the circuit as soon as vCommander answers.
+ *
+ * There is one breaker per endpoint, shared by all the clients of the endpoint.
+ *
+ * @author btarczali
+ */
+public final class CircuitBreaker {
+	private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+	static final int FAILURE_THRESHOLD = Integer.getInteger(CircuitBreaker.class.getName() + ".failureThreshold", 5);
+	static final long OPEN_PERIOD = Long.getLong(CircuitBreaker.class.getName() + ".openPeriod", 30 * DateUtils.MILLIS_PER_SECOND);
+
+	private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+	private static final ThreadLocal<Boolean> PROBING = new ThreadLocal<>();
+
+	private static final int STATUS_BAD_GATEWAY = 502;
+	private static final int STATUS_SERVICE_UNAVAILABLE = 503;
+	private static final int STATUS_GATEWAY_TIMEOUT = 504;
+
+	/**
+	 * The states of the circuit
+	 */
+	public enum State {
+		/** calls go through */
+		CLOSED,
+		/** calls fail right away */
+		OPEN,
+		/** one trial call goes through */
+		HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openPeriod;
+	private final LongSupplier clock;
+
+	private State state = State.CLOSED;
+	private int failures;
+	private long openedTime;
+	private boolean trialInProgress;
+	// the thread making the trial call, so only its end releases the trial
+	private Thread trialThread;
+	private String lastFailure;
+
+
+	/**
+	 * Used for Unit Testing
+	 */
+	CircuitBreaker(int failureThreshold, long openPeriod, LongSupplier clock) {
+		this.failureThreshold = failureThreshold;
+		this.openPeriod = openPeriod;
+		this.clock = clock;
+	}
+
+	/**
+	 * @param uri	the vCommander address
+	 *
+	 * @return the breaker of the endpoint
+	 */
+	public static CircuitBreaker forEndpoint(String uri) {
+		return BREAKERS.computeIfAbsent(ClientHelper.getEndpoint(uri), endpoint -> new CircuitBreaker(FAILURE_THRESHOLD, OPEN_PERIOD, System::currentTimeMillis));
+	}
+
+	/**
+	 * Runs a health probe; the calls it makes are let through even when the circuit is open
+	 */
+	static <T> T probe(Callable<T> call) throws Exception {
+		PROBING.set(Boolean.TRUE);
+		try {
+			return call.call();
+		} finally {
+			PROBING.remove();
+		}
+	}
+
+	/**
+	 * @return the current state of the circuit
+	 */
+	public synchronized State getState() {
+		if (state == State.OPEN && clock.getAsLong() - openedTime >= openPeriod) {
+			return State.HALF_OPEN;
+		}
+		return state;
+	}
+
+	/**
+	 * @return the last failure which opened the circuit, or null when the circuit is closed
+	 */
+	public synchronized String getLastFailure() {
+		return state == State.CLOSED ? null : lastFailure;
+	}
+
+	/**
+	 * @return true if a call can be made now
+	 */
+	synchronized boolean allowRequest(boolean probing) {
+		if (probing || state == State.CLOSED) {
+			return true;
+		}
+		if (state == State.OPEN && clock.getAsLong() - openedTime >= openPeriod) {
+			state = State.HALF_OPEN;
+			trialInProgress = false;
+			trialThread = null;
+		}
+		if (state == State.HALF_OPEN && !trialInProgress) {
+			trialInProgress = true;
+			trialThread = Thread.currentThread();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The call of the current thread ended without a result; if it was the trial call, another call can be the trial
+	 */
+	synchronized void endTrial() {
+		if (trialInProgress && trialThread == Thread.currentThread()) {
+			trialInProgress = false;
+			trialThread = null;
+		}
+	}
+
+	synchronized void recordSuccess() {
+		if (state != State.CLOSED) {
+			LOGGER.log(Level.INFO, "Commander is available again; circuit closed.");
+		}
+		state = State.CLOSED;
+		failures = 0;
+		trialInProgress = false;
+		trialThread = null;
+	}
+
+	synchronized void recordFailure(String failure) {
+		failures++;
+		lastFailure = failure;
+		if (state != State.CLOSED || failures >= failureThreshold) {
+			if (state == State.CLOSED) {
+				LOGGER.log(Level.WARNING, "Commander failed {0} times in a row; calls fail right away for {1} seconds. Last failure: {2}",
+						new Object[] { failures, openPeriod / DateUtils.MILLIS_PER_SECOND, failure });
+			}
+			state = State.OPEN;
+			openedTime = clock.getAsLong();
+		}
+		trialInProgress = false;
+		trialThread = null;
+	}
+
+	/**
+	 * @return a filter failing the calls right away while the circuit is open, and recording the result of the others
+	 */
+	ClientFilter createFilter() {
+		return new ClientFilter() {
+			@Override
+			public ClientResponse handle(ClientRequest cr) throws ClientHandlerException {
+				return CircuitBreaker.this.handle(cr, getNext());
+			}
+		};
+	}
+
+	/**
+	 * @return a filter marking the failures of the connection to vCommander;
+	 * 			added right above the transport, so the failures of the other filters are not counted
+	 */
+	static ClientFilter createTransportFilter() {
+		return new ClientFilter() {
+			@Override
+			public ClientResponse handle(ClientRequest cr) throws ClientHandlerException {
+				return handleTransport(cr, getNext());
+			}
+		};
+	}
+
+	ClientResponse handle(ClientRequest cr, ClientHandler next) throws ClientHandlerException {
+		if (!allowRequest(Boolean.TRUE.equals(PROBING.get()))) {
+			throw new ClientHandlerException(new ConnectException("Commander is unavailable; not calling it for a while. Last failure: " + getLastFailure()));
+		}
+
+		boolean recorded = false;
+		try {
+			ClientResponse response = next.handle(cr);
+			int status = response.getStatus();
+			if (status == STATUS_BAD_GATEWAY || status == STATUS_SERVICE_UNAVAILABLE || status == STATUS_GATEWAY_TIMEOUT) {
+				recordFailure("HTTP " + status);
+			} else {
+				recordSuccess();
+			}
+			recorded = true;
+			return response;
+		} catch (TransportException e) {
+			// the step ran out of time; not a failure of vCommander
+			if (Deadline.remainingInMillis() > 0) {
+				recordFailure(e.getCause() != null ? e.getCause().toString() : e.toString());
+				recorded = true;
+			}
+			throw e;
+		} finally {
+			// like waiting for a call slot, interrupted, or out of time; vCommander was not called, or not long enough
+			if (!recorded) {
+				endTrial();
+			}
+		}
+	}
+
+	static ClientResponse handleTransport(ClientRequest cr, ClientHandler next) throws ClientHandlerException {
+		try {
+			return next.handle(cr);
+		} catch (ClientHandlerException e) {
+			if (Thread.currentThread().isInterrupted()) {
+				// the build was aborted
+				throw e;
+			}
+			throw new TransportException(e);
+		}
+	}
+
+	/**
+	 * A failure of the connection to vCommander, like a refused connection or a read timeout
+	 */
+	private static final class TransportException extends ClientHandlerException {
+		private static final long serialVersionUID = 1L;
+
+		TransportException(ClientHandlerException e) {
+			super(e.getMessage(), e.getCause() != null ? e.getCause() : e);
+		}
+	}
+}
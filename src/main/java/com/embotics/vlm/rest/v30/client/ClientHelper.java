@@ -11,13 +11,18 @@
 
 package com.embotics.vlm.rest.v30.client;
 
-import java.security.SecureRandom;
+import java.net.URI;
+import java.security.GeneralSecurityException;
 import java.security.cert.X509Certificate;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
@@ -28,53 +33,111 @@ import com.sun.jersey.client.urlconnection.HTTPSProperties;
 
 /**
  * Jersey client helper for trusting all certificates in SSL/TLS
- * 
+ *
+ * One TLS configuration is built per vCommander endpoint, when first used, and shared by all the clients of the endpoint.
+ * Sharing the SSLContext shares its session cache, so new connections resume the TLS session instead of a full handshake.
+ * No JVM wide setting (default socket factory, https.protocols) is changed.
+ *
  * btarczali
  */
 public class ClientHelper {
-	public static ClientConfig configureClient() {
-		TrustManager[] certs = new TrustManager[] { new X509TrustManager() {
-			@Override
-			public X509Certificate[] getAcceptedIssuers() {
-				return null;
-			}
+	private static final Logger LOGGER = Logger.getLogger(ClientHelper.class.getName());
 
-			@Override
-			public void checkServerTrusted(X509Certificate[] chain, String authType) {
-			}
+	private static final int SESSION_CACHE_SIZE = Integer.getInteger(ClientHelper.class.getName() + ".sessionCacheSize", 100);
+	private static final int SESSION_TIMEOUT_IN_SECONDS = Integer.getInteger(ClientHelper.class.getName() + ".sessionTimeout", 24 * 60 * 60);
 
-			@Override
-			public void checkClientTrusted(X509Certificate[] chain, String authType) {
-			}
-		} };
-
-		SSLContext ctx = null;
-		try {
-			ctx = SSLContext.getInstance("TLS");
-			ctx.init(null, certs, new SecureRandom());
-		} catch (java.security.GeneralSecurityException ex) {
+	private static final TrustManager[] TRUST_ALL_CERTIFICATES = new TrustManager[] { new X509TrustManager() {
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
 			return null;
 		}
 
-		// this is system wide, but OK since this runs in it's own process (not part of
-		// vCommander)
-		HttpsURLConnection.setDefaultSSLSocketFactory(ctx.getSocketFactory());
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType) {
+		}
+
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType) {
+		}
+	} };
+
+	private static final HostnameVerifier TRUST_ALL_HOSTNAMES = (hostname, session) -> true;
+
+	// the immutable TLS configuration of each endpoint
+	private static final Map<String, HTTPSProperties> HTTPS_PROPERTIES = new ConcurrentHashMap<>();
+
+
+	/**
+	 * @param uri	the vCommander address
+	 *
+	 * @return the client configuration, with the TLS configuration shared by the clients of the endpoint
+	 */
+	public static ClientConfig configureClient(String uri) {
 		ClientConfig config = new DefaultClientConfig();
-		try {
-			config.getProperties().put(HTTPSProperties.PROPERTY_HTTPS_PROPERTIES,
-					new HTTPSProperties(new HostnameVerifier() {
-						@Override
-						public boolean verify(String hostname, SSLSession session) {
-							return true;
-						}
-					}, ctx));
-		} catch (Exception e) {
-			System.err.println(e.getMessage());
+		HTTPSProperties httpsProperties = HTTPS_PROPERTIES.computeIfAbsent(getEndpoint(uri), endpoint -> createHttpsProperties());
+		if (httpsProperties != null) {
+			config.getProperties().put(HTTPSProperties.PROPERTY_HTTPS_PROPERTIES, httpsProperties);
 		}
 		return config;
 	}
 
-	public static Client createClient() {
-		return Client.create(ClientHelper.configureClient());
+	/**
+	 * @param uri						the vCommander address
+	 * @param connectTimeoutInMillis	the connect timeout of every call; 0 for none
+	 * @param readTimeoutInMillis		the read timeout of every call; 0 for none
+	 *
+	 * @return a new Jersey client for the address
+	 */
+	public static Client createClient(String uri, int connectTimeoutInMillis, int readTimeoutInMillis) {
+		Client client = Client.create(ClientHelper.configureClient(uri));
+		client.setConnectTimeout(connectTimeoutInMillis);
+		client.setReadTimeout(readTimeoutInMillis);
+		// the failures of the connection, counted by the circuit breaker
+		client.addFilter(CircuitBreaker.createTransportFilter());
+		// gzip responses, and large request bodies when enabled
+		client.addFilter(new GzipFilter());
+		// polls do not go beyond the timeout of their step
+		client.addFilter(Deadline.createFilter(connectTimeoutInMillis, readTimeoutInMillis));
+		// every attempt waits for its turn, before the deadline sets its timeouts
+		client.addFilter(CallLimiter.get().createFilter());
+		// transient errors are retried; each attempt gets the timeouts left by the deadline
+		client.addFilter(new RetryFilter());
+		// while the endpoint keeps failing, the calls fail right away
+		client.addFilter(CircuitBreaker.forEndpoint(uri).createFilter());
+		return client;
+	}
+
+	private static HTTPSProperties createHttpsProperties() {
+		try {
+			SSLContext ctx = SSLContext.getInstance("TLS");
+			ctx.init(null, TRUST_ALL_CERTIFICATES, null);
+
+			// keep the sessions, so they can be resumed by the next connections
+			SSLSessionContext sessionContext = ctx.getClientSessionContext();
+			if (sessionContext != null) {
+				sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+				sessionContext.setSessionTimeout(SESSION_TIMEOUT_IN_SECONDS);
+			}
+			return new HTTPSProperties(TRUST_ALL_HOSTNAMES, ctx);
+		} catch (GeneralSecurityException e) {
+			// not cached; the next client tries again
+			LOGGER.log(Level.WARNING, "Cannot create the SSL context for Commander", e);
+			return null;
+		}
+	}
+
+	/**
+	 * The scheme, host and port of the address; the path does not change the TLS configuration
+	 */
+	static String getEndpoint(String uri) {
+		try {
+			URI parsed = URI.create(uri.trim());
+			if (parsed.getHost() != null) {
+				return (parsed.getScheme() + "://" + parsed.getHost() + ":" + parsed.getPort()).toLowerCase(Locale.ENGLISH);
+			}
+		} catch (IllegalArgumentException e) {
+			// not a valid URI; Jersey reports it on the first request
+		}
+		return uri;
 	}
 }
@@ -1,17 +1,30 @@
 package com.embotics.vlm.rest.v30.client;
 
 import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.ws.rs.core.MediaType;
 
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 
 import com.embotics.vlm.rest.v30.client.model.Comment;
+import com.embotics.vlm.rest.v30.client.model.CommentWatermark;
 import com.embotics.vlm.rest.v30.client.model.VCommanderException;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.ClientResponse.Status;
+import com.sun.jersey.api.client.WebResource;
 
 /**
  * Utility class with helper methods for the REST API clients
@@ -22,18 +35,26 @@ public class ClientUtils {
 	
 	static final int 	JSON_NICEFORMAT_SPACING = 2;
 	static final String COMMON_ITEMS = "items";
+	static final String COMMENT_DATE = "date";
 	
 	public static final String REST_FILTER = "filter";			//the single query string parameter used to filter RESTv3 collections
-	public enum RestFilterOperator {eq, contains, ge, and};		//the operators supported in the RESTv3 filter grammar
+	public enum RestFilterOperator {eq, contains, ge, and, or};	//the operators supported in the RESTv3 filter grammar
+	
+	static final int MAX_FILTER_LENGTH = 1500;					//keeps the request URL well below the usual server limits
+	static final long LATE_COMMENTS_WAIT = 1000;				//the longest wait for the comments of an entity in its final state, in milliseconds
+	private static final int STATUS_REQUEST_TIMEOUT = 408;
+	private static final int STATUS_TOO_MANY_REQUESTS = 429;
 	
 	static void checkResponse(ClientResponse response, int expectedStatusCode) throws VCommanderException {
 		if (response.getStatus() != expectedStatusCode) {
 			if(response.getStatus() == Status.UNAUTHORIZED.getStatusCode()) {
+				// release the connection, so it can be reused by the keep-alive cache
+				response.close();
 				throw new VCommanderException("Access is denied due to invalid credentials.");	
 			} else {
 				StringBuilder errorMessage = new StringBuilder();
 				errorMessage.append("status_code=").append(response.getStatus()).append(", error_message=").append(response.getEntity(String.class));
-				throw new VCommanderException(errorMessage.toString());
+				throw new StatusException(response.getStatus(), errorMessage.toString());
 			}
 		}
 	}
@@ -44,6 +65,77 @@ public class ClientUtils {
 		}
 	}
 	
+	/**
+	 * Blocks until the future is completed, and unwraps its failure
+	 * If the waiting thread is interrupted, the future is cancelled.
+	 */
+	static <T> T await(Future<T> future) throws JSONException, InterruptedException, VCommanderException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof VCommanderException) {
+				throw (VCommanderException) cause;
+			} else if (cause instanceof JSONException) {
+				throw (JSONException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new VCommanderException(cause, "Error while waiting for Commander.");
+		}
+	}
+	
+	private static List<Comment> getComments(WebResource commentsResource, SingleFlight singleFlight) throws JSONException, VCommanderException {
+		return singleFlight.execute(commentsResource.getURI().toString(),
+				() -> getComments(commentsResource.accept(MediaType.APPLICATION_JSON).get(ClientResponse.class)));
+	}
+	
+	/**
+	 * Starts fetching the comments while the caller looks up the state of the entity
+	 * The fetch gets the deadline of the caller, and its retries are deferred to the caller like its own, see {@link AsyncCalls#submit(AsyncCalls.Call)}.
+	 * 
+	 * @param fetch		fetches the new comments, and logs its own errors
+	 * @return the comments being fetched, or null if too many calls are in progress; {@link #awaitComments} then fetches them
+	 */
+	static CompletableFuture<List<Comment>> fetchCommentsAsync(AsyncCalls.Call<List<Comment>> fetch) {
+		CompletableFuture<List<Comment>> pendingComments = AsyncCalls.submit(fetch);
+		// the fetch does not fail; it was not started
+		return pendingComments.isCompletedExceptionally() ? null : pendingComments;
+	}
+
+	/**
+	 * Waits for the comments fetched while the state of the entity was looked up, no longer than the {@link Deadline} of the caller
+	 * Once the entity is in its final state, the comments are not waited for longer than {@link #LATE_COMMENTS_WAIT}.
+	 * The fetch is cancelled if not done in time.
+	 * 
+	 * @param pendingComments	the comments being fetched, or null if not started
+	 * @param fetch				fetches the comments on the caller when not started
+	 * @param finalState		true if the entity is in its final state
+	 * @return the new comments, or none if not fetched in time
+	 */
+	static List<Comment> awaitComments(CompletableFuture<List<Comment>> pendingComments, AsyncCalls.Call<List<Comment>> fetch, boolean finalState) {
+		try {
+			if (pendingComments == null) {
+				return fetch.call();
+			}
+			long remaining = Deadline.remainingInMillis();
+			long wait = finalState ? Math.min(LATE_COMMENTS_WAIT, remaining) : remaining;
+			return wait == Long.MAX_VALUE ? pendingComments.get() : pendingComments.get(Math.max(0, wait), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (JSONException | VCommanderException | ExecutionException | TimeoutException e) {
+			// the comments are only logged; the lookup errors are logged by the fetch
+		} finally {
+			if (pendingComments != null) {
+				pendingComments.cancel(false);
+			}
+		}
+		return Collections.emptyList();
+	}
+	
 	static List<Comment> getComments(ClientResponse commentsResponse) throws JSONException, VCommanderException {
 		checkResponse(commentsResponse, Status.OK.getStatusCode());
 		
@@ -61,6 +153,58 @@ public class ClientUtils {
 		return commentsList;
 	}
 	
+	/**
+	 * Fetch the comments not logged yet
+	 * Only the comments not older than the watermark are requested; the watermark is updated with the returned comments.
+	 * The same comments requested by other threads at the same time are fetched once, and filtered by each watermark.
+	 * 
+	 * @param commentsResource	the comments collection of a service request or workflow
+	 * @param watermark			the comments already logged
+	 * @param singleFlight		coalesces the same requests made at the same time
+	 * @return the new comments, from the oldest to the newest
+	 */
+	static List<Comment> getNewComments(WebResource commentsResource, CommentWatermark watermark, SingleFlight singleFlight) throws JSONException, VCommanderException {
+		List<Comment> comments;
+		if (watermark.isIncremental()) {
+			String filter = buildFilter(COMMENT_DATE, RestFilterOperator.ge, encapsulateInQuots(watermark.getUtcDate()));
+			try {
+				comments = getComments(commentsResource.queryParam(REST_FILTER, filter), singleFlight);
+			} catch (VCommanderException e) {
+				if (!isFilterRejected(e)) {
+					// a transient failure, not the filter; the next poll tries the filter again
+					throw e;
+				}
+				// filtering comments by date is not supported; fetch all of them from now on
+				watermark.setIncremental(false);
+				comments = getComments(commentsResource, singleFlight);
+			}
+		} else {
+			comments = getComments(commentsResource, singleFlight);
+		}
+
+		List<Comment> newComments = new ArrayList<>();
+		for (Comment comment : comments) {
+			if (watermark.add(comment)) {
+				newComments.add(comment);
+			}
+		}
+		return newComments;
+	}
+	
+	/**
+	 * @return true if vCommander rejected the request itself, like a filter it does not support;
+	 * 			false for the errors not caused by the request, like authentication, throttling or server errors
+	 */
+	static boolean isFilterRejected(VCommanderException e) {
+		if (!(e instanceof StatusException)) {
+			return false;
+		}
+		int status = ((StatusException) e).getStatusCode();
+		return status >= Status.BAD_REQUEST.getStatusCode() && status < 500
+				&& status != Status.UNAUTHORIZED.getStatusCode() && status != Status.FORBIDDEN.getStatusCode()
+				&& status != Status.NOT_FOUND.getStatusCode() && status != STATUS_REQUEST_TIMEOUT && status != STATUS_TOO_MANY_REQUESTS;
+	}
+	
 	/**
 	 * Filter helper that encapsulates in quotes
 	 *  
@@ -98,4 +242,49 @@ public class ClientUtils {
 		return filter.toString();
 	}
 	
+	/**
+	 * Helper that builds filters matching any of the given values, like:
+	 * 
+	 * GET /rest/v3/workflows?filter=((id -eq 1) -or (id -eq 2)) -or (id -eq 3)
+	 * 
+	 * The values are split into multiple filters, so the encoded length of each filter
+	 * stays below the given limit.
+	 * 
+	 * @param field		the field to filter on
+	 * @param values	the values to match
+	 * @param maxLength	the maximum encoded length of a filter
+	 * @return the filters, each one matching a chunk of the values
+	 */
+	public static List<String> buildAnyOfFilters(String field, Collection<String> values, int maxLength) {
+		List<String> filters = new ArrayList<>();
+		String filter = null;
+		for (String value : values) {
+			String valueFilter = buildFilter(field, RestFilterOperator.eq, value);
+			if (filter == null) {
+				filter = valueFilter;
+				continue;
+			}
+
+			String extendedFilter = buildFilter(filter, RestFilterOperator.or, valueFilter);
+			if (encodedLength(extendedFilter) > maxLength) {
+				filters.add(filter);
+				filter = valueFilter;
+			} else {
+				filter = extendedFilter;
+			}
+		}
+		if (filter != null) {
+			filters.add(filter);
+		}
+		return filters;
+	}
+	
+	private static int encodedLength(String filter) {
+		try {
+			return URLEncoder.encode(filter, "UTF-8").length();
+		} catch (UnsupportedEncodingException e) {
+			return filter.length();
+		}
+	}
+	
 }
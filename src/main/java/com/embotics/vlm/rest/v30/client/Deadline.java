@@ -0,0 +1,95 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.net.SocketTimeoutException;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+/**
+ * The time by which the current build step must finish, propagated to the REST calls made on its behalf
+ *
+ * The polling workers set the deadline of the polled entity while polling it.
+ * The filter of the client then shortens the connect and read timeouts of every call to the remaining time,
+ * so no call outlives the timeout of the step.
+ *
+ * @author btarczali
+ */
+final class Deadline {
+	private static final ThreadLocal<Long> CURRENT = new ThreadLocal<>();
+
+
+	private Deadline() {
+	}
+
+	/**
+	 * @param deadlineInMillis	the deadline of the calls made by the current thread, or Long.MAX_VALUE for none
+	 */
+	static void set(long deadlineInMillis) {
+		CURRENT.set(deadlineInMillis);
+	}
+
+	/**
+	 * @return the deadline of the calls made by the current thread, or Long.MAX_VALUE for none
+	 */
+	static long get() {
+		Long deadline = CURRENT.get();
+		return deadline != null ? deadline : Long.MAX_VALUE;
+	}
+
+	static void clear() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * @return the time left for the calls made by the current thread, or Long.MAX_VALUE when there is no deadline
+	 */
+	static long remainingInMillis() {
+		Long deadline = CURRENT.get();
+		if (deadline == null || deadline == Long.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+		return deadline - System.currentTimeMillis();
+	}
+
+	/**
+	 * @param connectTimeoutInMillis	the configured connect timeout; 0 for none
+	 * @param readTimeoutInMillis		the configured read timeout; 0 for none
+	 *
+	 * @return a filter limiting the timeouts of every call to the current deadline
+	 */
+	static ClientFilter createFilter(final int connectTimeoutInMillis, final int readTimeoutInMillis) {
+		return new ClientFilter() {
+			@Override
+			public ClientResponse handle(ClientRequest cr) throws ClientHandlerException {
+				long remaining = remainingInMillis();
+				if (remaining != Long.MAX_VALUE) {
+					if (remaining <= 0) {
+						throw new ClientHandlerException(new SocketTimeoutException("Timeout reached before calling Commander: " + cr.getURI()));
+					}
+					cr.getProperties().put(ClientConfig.PROPERTY_CONNECT_TIMEOUT, limit(connectTimeoutInMillis, remaining));
+					cr.getProperties().put(ClientConfig.PROPERTY_READ_TIMEOUT, limit(readTimeoutInMillis, remaining));
+				}
+				return getNext().handle(cr);
+			}
+		};
+	}
+
+	private static Integer limit(int timeoutInMillis, long remainingInMillis) {
+		long limited = timeoutInMillis > 0 ? Math.min(timeoutInMillis, remainingInMillis) : remainingInMillis;
+		return (int) Math.min(limited, Integer.MAX_VALUE);
+	}
+}
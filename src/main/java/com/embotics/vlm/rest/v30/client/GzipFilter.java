@@ -0,0 +1,209 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+/**
+ * Gzip compression of the REST calls
+ *
+ * Every call accepts gzip responses, decompressed transparently.
+ * The request bodies larger than a threshold are compressed too, when enabled;
+ * vCommander versions not accepting compressed requests reject them, so it is disabled by default.
+ *
+ * The bytes saved by the compression are counted for the whole controller.
+ *
+ * @author btarczali
+ */
+public final class GzipFilter extends ClientFilter {
+
+	static final boolean COMPRESS_REQUESTS = Boolean.getBoolean(GzipFilter.class.getName() + ".compressRequests");
+	static final int REQUEST_THRESHOLD = Integer.getInteger(GzipFilter.class.getName() + ".requestThreshold", 1024);
+
+	private static final String GZIP = "gzip";
+
+	private static final AtomicLong REQUEST_BYTES_SAVED = new AtomicLong();
+	private static final AtomicLong RESPONSE_BYTES_SAVED = new AtomicLong();
+
+
+	GzipFilter() {
+	}
+
+	/**
+	 * @return the bytes not sent, thanks to the compression of the request bodies
+	 */
+	public static long getRequestBytesSaved() {
+		return REQUEST_BYTES_SAVED.get();
+	}
+
+	/**
+	 * @return the bytes not received, thanks to the compression of the responses
+	 */
+	public static long getResponseBytesSaved() {
+		return RESPONSE_BYTES_SAVED.get();
+	}
+
+	@Override
+	public ClientResponse handle(ClientRequest cr) throws ClientHandlerException {
+		if (!cr.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+			cr.getHeaders().add(HttpHeaders.ACCEPT_ENCODING, GZIP);
+		}
+		// a retried request is already compressed
+		if (COMPRESS_REQUESTS && cr.getEntity() instanceof String && !cr.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+			compress(cr);
+		}
+
+		ClientResponse response = getNext().handle(cr);
+
+		if (response.hasEntity() && GZIP.equalsIgnoreCase(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING))) {
+			response.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+			try {
+				response.setEntityInputStream(decompress(response.getEntityInputStream()));
+			} catch (IOException e) {
+				response.close();
+				throw new ClientHandlerException(e);
+			}
+		}
+		return response;
+	}
+
+	private void compress(ClientRequest cr) {
+		byte[] compressed = compress((String) cr.getEntity(), REQUEST_THRESHOLD);
+		if (compressed != null) {
+			cr.setEntity(compressed);
+			cr.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, GZIP);
+		}
+	}
+
+	/**
+	 * @param entity	the request body
+	 * @param threshold	the smallest body compressed, in bytes
+	 *
+	 * @return the compressed body, or null if too small or not smaller once compressed
+	 */
+	static byte[] compress(String entity, int threshold) {
+		byte[] body = entity.getBytes(StandardCharsets.UTF_8);
+		if (body.length < threshold) {
+			return null;
+		}
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+		try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+			out.write(body);
+		} catch (IOException e) {
+			// not expected in memory; send it as is
+			return null;
+		}
+		if (compressed.size() >= body.length) {
+			return null;
+		}
+		REQUEST_BYTES_SAVED.addAndGet(body.length - compressed.size());
+		return compressed.toByteArray();
+	}
+
+	/**
+	 * @param in	a compressed response body
+	 *
+	 * @return the decompressed body, counting the bytes saved once closed
+	 */
+	static InputStream decompress(InputStream in) throws IOException {
+		return new DecompressingInputStream(in);
+	}
+
+	/**
+	 * Decompresses a response, and counts the bytes saved once closed
+	 */
+	private static final class DecompressingInputStream extends FilterInputStream {
+		private final CountingInputStream compressed;
+		private long decompressed;
+		private boolean closed;
+
+		DecompressingInputStream(InputStream in) throws IOException {
+			this(new CountingInputStream(in));
+		}
+
+		private DecompressingInputStream(CountingInputStream compressed) throws IOException {
+			super(new GZIPInputStream(compressed));
+			this.compressed = compressed;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				decompressed++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				decompressed += n;
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				RESPONSE_BYTES_SAVED.addAndGet(Math.max(0, decompressed - compressed.count));
+			}
+			super.close();
+		}
+	}
+
+	/**
+	 * Counts the bytes read
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.lang.time.DateUtils;
+
+/**
+ * Decides how long to wait between two polls of a service request, task or workflow
+ *
+ * - the first polls are quick, then the interval doubles up to the configured polling interval
+ * - while the entity waits for people (like a pending approval) the interval is much longer
+ * - when the state changes, polling is quick again
+ * - a random jitter spreads the polls of builds started together
+ * - in low-latency mode, the polls of the first seconds start much quicker, so short entities are noticed soon after they finish
+ *
+ * The wait never goes beyond the remaining time of the step.
+ *
+ * @author btarczali
+ */
+public class PollingPolicy implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	static final long INITIAL_INTERVAL = 2 * DateUtils.MILLIS_PER_SECOND;
+	private static final int BACKOFF_FACTOR = 2;
+	private static final int WAITING_STATE_FACTOR = 4;
+	private static final long MAX_WAITING_STATE_INTERVAL = 5 * DateUtils.MILLIS_PER_MINUTE;
+	private static final double JITTER = 0.1;	// +/- 10%
+	static final long LOW_LATENCY_INITIAL_INTERVAL = 250;
+	static final long LOW_LATENCY_PERIOD = 30 * DateUtils.MILLIS_PER_SECOND;
+
+	private final long intervalInMillis;
+	private final long lowLatencyEndInMillis;
+	private long nextIntervalInMillis;
+	private String lastState;
+
+
+	/**
+	 * @param pollingInSeconds	the configured polling interval, used once the initial quick polls are done
+	 */
+	public PollingPolicy(long pollingInSeconds) {
+		this(pollingInSeconds, false);
+	}
+
+	/**
+	 * @param pollingInSeconds	the configured polling interval, used once the initial quick polls are done
+	 * @param lowLatency		true to poll much quicker in the first seconds, for entities expected to finish soon
+	 */
+	public PollingPolicy(long pollingInSeconds, boolean lowLatency) {
+		this.intervalInMillis = pollingInSeconds * DateUtils.MILLIS_PER_SECOND;
+		this.lowLatencyEndInMillis = lowLatency ? System.currentTimeMillis() + LOW_LATENCY_PERIOD : 0;
+		this.nextIntervalInMillis = getInitialInterval();
+	}
+
+	/**
+	 * @param state				the current state of the polled entity
+	 * @param waitingForPeople	true when the state can last long, like waiting for an approval
+	 * @param remainingInMillis	the time left until the timeout
+	 *
+	 * @return the time to wait before the next poll, in milliseconds
+	 */
+	public synchronized long nextDelay(String state, boolean waitingForPeople, long remainingInMillis) {
+		// something is happening; look again soon
+		if (lastState != null && !lastState.equals(state)) {
+			nextIntervalInMillis = getInitialInterval();
+		}
+		lastState = state;
+
+		long delay;
+		if (waitingForPeople) {
+			delay = Math.max(intervalInMillis, Math.min(intervalInMillis * WAITING_STATE_FACTOR, MAX_WAITING_STATE_INTERVAL));
+		} else {
+			delay = nextIntervalInMillis;
+			nextIntervalInMillis = Math.min(nextIntervalInMillis * BACKOFF_FACTOR, intervalInMillis);
+		}
+
+		delay = addJitter(delay);
+		return Math.max(0, Math.min(delay, remainingInMillis));
+	}
+
+	/**
+	 * @return the configured polling interval, in seconds
+	 */
+	public long getPollingInSeconds() {
+		return intervalInMillis / DateUtils.MILLIS_PER_SECOND;
+	}
+
+	private long getInitialInterval() {
+		long initialInterval = System.currentTimeMillis() < lowLatencyEndInMillis ? LOW_LATENCY_INITIAL_INTERVAL : INITIAL_INTERVAL;
+		return Math.min(initialInterval, intervalInMillis);
+	}
+
+	private static long addJitter(long delay) {
+		double jitter = (ThreadLocalRandom.current().nextDouble() * 2 - 1) * JITTER;
+		return Math.round(delay * (1 + jitter));
+	}
+}
@@ -0,0 +1,269 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls every in-flight service request, task and workflow from a small, fixed pool of worker threads
+ *
+ * Waiting builds do not poll on their own thread; they submit a {@link PollingTask}
+ * and wait for its future. The number of threads does not depend on the number of waiting builds.
+ *
+ * When Commander is expected to call back once an entity is done, the entity is polled right away on the callback
+ * (see {@link #pollNow(String)}), and only slowly until then, in case the callback never comes.
+ *
+ * @author btarczali
+ */
+public final class PollingScheduler {
+	private static final int WORKER_COUNT = Integer.getInteger(PollingScheduler.class.getName() + ".workers", 4);
+	// the polling of the entities expected to call back, in case the callback is lost
+	static final long CALLBACK_POLLING_IN_MILLIS = Long.getLong(PollingScheduler.class.getName() + ".callbackPolling", 5 * 60) * 1000;
+
+	private static final String SERVICE_REQUEST_KEY_PREFIX = "request:";
+
+	private static final PollingScheduler INSTANCE = new PollingScheduler();
+
+	private final ScheduledThreadPoolExecutor executor;
+	// the polled tasks, by the key of their entity
+	private final ConcurrentMap<String, Set<PollingTask<?>>> tasksByKey = new ConcurrentHashMap<>();
+	// the keys of the entities expected to call back, with the number of waits expecting it
+	private final ConcurrentMap<String, Integer> callbackKeys = new ConcurrentHashMap<>();
+
+
+	private PollingScheduler() {
+		executor = new ScheduledThreadPoolExecutor(WORKER_COUNT, new WorkerThreadFactory());
+		executor.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * @return the scheduler shared by all the clients
+	 */
+	public static PollingScheduler get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Start polling; the first poll is done right away
+	 *
+	 * @param task		the task to poll
+	 *
+	 * @return a future completed when the task completes, fails or times out.
+	 * 			Cancelling the future stops the polling.
+	 */
+	<T> CompletableFuture<T> submit(PollingTask<T> task) {
+		task.scheduler = this;
+		String key = task.getCallbackKey();
+		if (key != null) {
+			tasksByKey.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(task);
+			task.future.whenComplete((result, failure) -> tasksByKey.computeIfPresent(key, (k, tasks) -> {
+				tasks.remove(task);
+				return tasks.isEmpty() ? null : tasks;
+			}));
+		}
+		executor.execute(task);
+		return task.future;
+	}
+
+	/**
+	 * @param requestId	the service request ID
+	 *
+	 * @return the key of the service request, for the callbacks
+	 */
+	public static String serviceRequestKey(Long requestId) {
+		return SERVICE_REQUEST_KEY_PREFIX + requestId;
+	}
+
+	/**
+	 * Commander will call back once the entity is done; until then, the entity is polled only slowly.
+	 * Every call must be followed by {@link #cancelCallback(String)}, once the wait is over.
+	 *
+	 * @param key	the key of the entity
+	 */
+	public void expectCallback(String key) {
+		callbackKeys.merge(key, 1, Integer::sum);
+	}
+
+	/**
+	 * The wait is over, the callback is no longer expected
+	 *
+	 * @param key	the key of the entity
+	 */
+	public void cancelCallback(String key) {
+		callbackKeys.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+	}
+
+	/**
+	 * Poll the entity right away, like when Commander called back.
+	 * If a poll is already running, the entity is polled again as soon as it is done, as it may have read the previous state.
+	 *
+	 * @param key	the key of the entity
+	 *
+	 * @return true if the entity is polled
+	 */
+	public boolean pollNow(String key) {
+		Set<PollingTask<?>> tasks = tasksByKey.get(key);
+		if (tasks == null) {
+			return false;
+		}
+		for (PollingTask<?> task : tasks) {
+			synchronized (task) {
+				if (task.running) {
+					task.pollAgain = true;
+				} else if (task.next != null && task.next.cancel(false)) {
+					task.next = null;
+					executor.execute(task);
+				}
+				// else the first poll is about to run
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Run a short background call, like refreshing a cached lookup, on the polling workers
+	 */
+	void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * @param retry	the poll failed on a transient error and is tried again after the delay, even if a callback is expected
+	 */
+	private void schedule(PollingTask<?> task, long delayInMillis, boolean retry) {
+		String key = task.getCallbackKey();
+		if (!retry && key != null && callbackKeys.containsKey(key)) {
+			// but not beyond the deadline, to fail on time
+			long remaining = task.getDeadlineInMillis() - System.currentTimeMillis();
+			delayInMillis = Math.min(Math.max(delayInMillis, CALLBACK_POLLING_IN_MILLIS), remaining);
+		}
+		synchronized (task) {
+			if (task.pollAgain) {
+				// called back while polling
+				task.pollAgain = false;
+				delayInMillis = 0;
+			}
+			task.next = executor.schedule(task, Math.max(0, delayInMillis), TimeUnit.MILLISECONDS);
+			task.running = false;
+		}
+	}
+
+	/**
+	 * One in-flight entity polled by the scheduler
+	 *
+	 * @param <T>	the type of the result
+	 */
+	abstract static class PollingTask<T> implements Runnable {
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+		private PollingScheduler scheduler;
+		// the next poll, cancelled to poll right away; guarded by the task
+		private ScheduledFuture<?> next;
+		// a poll is running, and if it must be repeated once done; guarded by the task
+		private boolean running;
+		private boolean pollAgain;
+		// the polls in a row whose calls failed and are tried again; only used by the running poll
+		private int retriedPolls;
+
+		/**
+		 * Poll the entity once.
+		 * When the entity reached its final state call {@link #complete(Object)}, or throw an exception if it failed.
+		 *
+		 * @return the time to wait in milliseconds until the next poll
+		 *
+		 * @throws Exception	fails the future
+		 */
+		protected abstract long poll() throws Exception;
+
+		/**
+		 * @return the time by which the polling must be done; the REST calls of a poll do not go beyond it
+		 */
+		protected long getDeadlineInMillis() {
+			return Long.MAX_VALUE;
+		}
+
+		/**
+		 * @return the key of the polled entity, so it can be polled right away when Commander calls back; null if none
+		 */
+		protected String getCallbackKey() {
+			return null;
+		}
+
+		protected void complete(T result) {
+			future.complete(result);
+		}
+
+		@Override
+		public final void run() {
+			// cancelled by the waiting build, or already completed
+			if (future.isDone()) {
+				return;
+			}
+			synchronized (this) {
+				if (running) {
+					// a cancelled poll that started anyway; the running poll is repeated instead
+					pollAgain = true;
+					return;
+				}
+				running = true;
+				// this poll reads the state the callback was about
+				pollAgain = false;
+			}
+			boolean scheduled = false;
+			Deadline.set(getDeadlineInMillis());
+			// the workers are shared; the failed calls are retried by the next poll instead of waiting here
+			RetryFilter.deferRetries(retriedPolls + 1);
+			try {
+				long delay = poll();
+				long retryDelay = RetryFilter.takeDeferredRetry();
+				retriedPolls = retryDelay >= 0 ? retriedPolls + 1 : 0;
+				if (!future.isDone()) {
+					// the scheduler ends the run once the next poll is scheduled
+					if (retryDelay >= 0 && retryDelay < delay) {
+						scheduler.schedule(this, retryDelay, true);
+					} else {
+						scheduler.schedule(this, delay, false);
+					}
+					scheduled = true;
+				}
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			} finally {
+				RetryFilter.takeDeferredRetry();
+				Deadline.clear();
+				if (!scheduled) {
+					synchronized (this) {
+						running = false;
+					}
+				}
+			}
+		}
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Commander polling worker " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateUtils;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+/**
+ * Retries the REST calls failing with a transient error, like during a short vCommander restart
+ *
+ * Retried failures:
+ * - the connection cannot be opened; the request was not sent, so every method is retried
+ * - 429, 500, 502, 503 and 504; only the idempotent methods are retried, never a POST.
+ *   A proxy in front of vCommander may answer any of them after forwarding the request, so a service request
+ *   or workflow may have been submitted.
+ *
+ * The wait between two attempts grows exponentially up to a cap, with a random jitter.
+ * A Retry-After header sent by vCommander is honored. No wait goes beyond the {@link Deadline} of the call.
+ *
+ * The polling workers are shared by all the waits, so they do not wait between attempts (see {@link #deferRetries(int)}):
+ * the failed call is not retried, and the poll is scheduled again after the wait instead.
+ *
+ * @author btarczali
+ */
+class RetryFilter extends ClientFilter {
+	private static final Logger LOGGER = Logger.getLogger(RetryFilter.class.getName());
+
+	static final int MAX_ATTEMPTS = Integer.getInteger(RetryFilter.class.getName() + ".maxAttempts", 4);
+	static final long INITIAL_BACKOFF = 500;
+	static final long MAX_BACKOFF = 10 * DateUtils.MILLIS_PER_SECOND;
+	// vCommander asking for a longer wait is not retried; the caller gets the response
+	static final long MAX_RETRY_AFTER = DateUtils.MILLIS_PER_MINUTE;
+
+	private static final String RETRY_AFTER_HEADER = "Retry-After";
+	private static final String METHOD_POST = "POST";
+
+	private static final int STATUS_TOO_MANY_REQUESTS = 429;
+	private static final int STATUS_INTERNAL_SERVER_ERROR = 500;
+	private static final int STATUS_BAD_GATEWAY = 502;
+	private static final int STATUS_SERVICE_UNAVAILABLE = 503;
+	private static final int STATUS_GATEWAY_TIMEOUT = 504;
+
+	// the retries deferred by the current thread, when it must not wait
+	private static final ThreadLocal<DeferredRetry> DEFERRED = new ThreadLocal<>();
+
+	private final int maxAttempts;
+
+
+	RetryFilter() {
+		this(MAX_ATTEMPTS);
+	}
+
+	RetryFilter(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	@Override
+	public ClientResponse handle(ClientRequest cr) throws ClientHandlerException {
+		for (int attempt = 1; ; attempt++) {
+			ClientResponse response;
+			try {
+				response = getNext().handle(cr);
+			} catch (ClientHandlerException e) {
+				if (attempt >= maxAttempts || !isRetryable(e) || !backOff(cr, attempt, -1)) {
+					throw e;
+				}
+				continue;
+			}
+
+			int status = response.getStatus();
+			if (attempt >= maxAttempts || !isRetryable(cr.getMethod(), status)) {
+				return response;
+			}
+			long retryAfter = getRetryAfter(response.getHeaders().getFirst(RETRY_AFTER_HEADER));
+			if (!backOff(cr, attempt, retryAfter)) {
+				return response;
+			}
+			response.close();
+		}
+	}
+
+	/**
+	 * The calls of the current thread are not retried after a wait, like on the polling workers.
+	 * The caller retries itself after the wait returned by {@link #takeDeferredRetry()}.
+	 *
+	 * @param attempt	the attempt of the caller, from 1; its failures are retried up to the maximum attempts
+	 */
+	static void deferRetries(int attempt) {
+		DEFERRED.set(new DeferredRetry(attempt));
+	}
+
+	/**
+	 * Ends the deferring of the current thread
+	 *
+	 * @return the wait before the caller should try again, in milliseconds; -1 if no call was to be retried
+	 */
+	static long takeDeferredRetry() {
+		DeferredRetry deferred = DEFERRED.get();
+		DEFERRED.remove();
+		return deferred != null ? deferred.getDelay() : -1;
+	}
+
+	/**
+	 * @return the deferring of the current thread, to share with the calls made on its behalf by another thread; null if none
+	 */
+	static DeferredRetry getDeferredRetries() {
+		return DEFERRED.get();
+	}
+
+	/**
+	 * The calls of the current thread are deferred like the ones of another thread,
+	 * and the wait before retrying them is added to the deferring of that thread.
+	 *
+	 * @param deferred	the deferring of the other thread, see {@link #getDeferredRetries()}; null to stop deferring
+	 */
+	static void shareDeferredRetries(DeferredRetry deferred) {
+		if (deferred != null) {
+			DEFERRED.set(deferred);
+		} else {
+			DEFERRED.remove();
+		}
+	}
+
+	/**
+	 * Waits before the next attempt
+	 *
+	 * @return false if there is no time left for another attempt, or if the retry is deferred to the caller
+	 */
+	private boolean backOff(ClientRequest cr, int attempt, long retryAfter) {
+		long delay = getRetryDelay(attempt, retryAfter);
+		if (delay < 0) {
+			return false;
+		}
+		if (defer(delay)) {
+			LOGGER.log(Level.FINE, "Deferring the retry of {0} {1} by {2} ms", new Object[] { cr.getMethod(), cr.getURI(), delay });
+			return false;
+		}
+		LOGGER.log(Level.FINE, "Retrying {0} {1} in {2} ms (attempt {3})", new Object[] { cr.getMethod(), cr.getURI(), delay, attempt + 1 });
+		try {
+			Thread.sleep(delay);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * @param attempt		the failed attempt of the call; the attempt of the caller when it retries itself
+	 * @param retryAfter	the wait requested by vCommander, or -1 if none
+	 *
+	 * @return the wait before the next attempt, in milliseconds; -1 if there is no other attempt
+	 */
+	long getRetryDelay(int attempt, long retryAfter) {
+		DeferredRetry deferred = DEFERRED.get();
+		if (deferred != null) {
+			attempt = deferred.attempt;
+		}
+		if (attempt >= maxAttempts) {
+			return -1;
+		}
+		long delay = Math.max(getBackoff(attempt), retryAfter);
+		if (retryAfter > MAX_RETRY_AFTER || delay >= Deadline.remainingInMillis()) {
+			return -1;
+		}
+		return delay;
+	}
+
+	/**
+	 * @return true if the retries of the current thread are deferred; the caller then retries after the delay
+	 */
+	static boolean defer(long delay) {
+		DeferredRetry deferred = DEFERRED.get();
+		if (deferred == null) {
+			return false;
+		}
+		deferred.defer(delay);
+		return true;
+	}
+
+	/**
+	 * @return the capped exponential backoff before the next attempt, with a random jitter
+	 */
+	static long getBackoff(int attempt) {
+		long backoff = Math.min(INITIAL_BACKOFF << Math.min(attempt - 1, 20), MAX_BACKOFF);
+		// between half and the full backoff
+		return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+	}
+
+	/**
+	 * @return true if the request could not be sent at all
+	 */
+	static boolean isRetryable(ClientHandlerException e) {
+		Throwable cause = e.getCause();
+		return cause instanceof ConnectException || cause instanceof NoRouteToHostException || cause instanceof UnknownHostException;
+	}
+
+	/**
+	 * @return true if the request can be sent again after this response
+	 */
+	static boolean isRetryable(String method, int status) {
+		switch (status) {
+		case STATUS_TOO_MANY_REQUESTS:
+		case STATUS_INTERNAL_SERVER_ERROR:
+		case STATUS_BAD_GATEWAY:
+		case STATUS_SERVICE_UNAVAILABLE:
+		case STATUS_GATEWAY_TIMEOUT:
+			// a service request or workflow may have been submitted; never submit it twice
+			return !METHOD_POST.equalsIgnoreCase(method);
+
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @param value	the Retry-After header, in seconds or as an HTTP date
+	 *
+	 * @return the requested wait in milliseconds, or -1 if not specified
+	 */
+	static long getRetryAfter(String value) {
+		if (StringUtils.isBlank(value)) {
+			return -1;
+		}
+		try {
+			return Math.max(0, Long.parseLong(value.trim()) * DateUtils.MILLIS_PER_SECOND);
+		} catch (NumberFormatException e) {
+			// not in seconds; try as a date
+		}
+		try {
+			ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+			return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * The deferred retries of a caller; shared with the threads making calls on its behalf
+	 */
+	static final class DeferredRetry {
+		private final int attempt;
+		private long delay = -1;
+
+		DeferredRetry(int attempt) {
+			this.attempt = attempt;
+		}
+
+		synchronized void defer(long retryDelay) {
+			delay = Math.max(delay, retryDelay);
+		}
+
+		synchronized long getDelay() {
+			return delay;
+		}
+	}
+}
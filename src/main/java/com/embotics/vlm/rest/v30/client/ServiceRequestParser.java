@@ -0,0 +1,198 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import com.embotics.vlm.rest.v30.client.model.DeployedComponentInfo;
+
+/**
+ * Streaming parser of a service request, reading only what the polling needs
+ *
+ * The parsing stops as soon as the state is read, unless the request is completed.
+ * The deployed components of a completed request are read in the same pass.
+ * No JSON tree of the request is built.
+ *
+ * @author btarczali
+ */
+final class ServiceRequestParser {
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private static final String SUMMARY = "summary";
+	private static final String STATE = "state";
+	private static final String SERVICES = "services";
+	private static final String COMPONENTS = "components";
+	private static final String DEPLOYED_OBJECT = "deployed_object";
+	private static final String DEPLOYED_OBJECT_NAME = "name";
+	private static final String DEPLOYED_OBJECT_TYPE = "type";
+
+
+	private ServiceRequestParser() {
+	}
+
+	/**
+	 * The parts of a service request read while polling
+	 */
+	static final class ParsedRequest {
+		private final String state;
+		private final List<DeployedComponentInfo> deployedComponents;
+
+		ParsedRequest(String state, List<DeployedComponentInfo> deployedComponents) {
+			this.state = state;
+			this.deployedComponents = deployedComponents != null ? Collections.unmodifiableList(deployedComponents) : null;
+		}
+
+		/**
+		 * @return the state of the request, or null if not found
+		 */
+		String getState() {
+			return state;
+		}
+
+		/**
+		 * @return the deployed components, or null if not read
+		 */
+		List<DeployedComponentInfo> getDeployedComponents() {
+			return deployedComponents;
+		}
+	}
+
+	/**
+	 * @param in				the service request JSON
+	 * @param completedState	the state in which the deployed components are read
+	 *
+	 * @return the state, and the deployed components when the request is in the completed state and lists its services
+	 *
+	 * @throws IOException	If the JSON cannot be read
+	 */
+	static ParsedRequest parse(InputStream in, String completedState) throws IOException {
+		try (JsonParser parser = JSON_FACTORY.createJsonParser(in)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Service request expected");
+			}
+
+			String state = null;
+			List<DeployedComponentInfo> deployedComponents = null;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if (SUMMARY.equals(field) && value == JsonToken.START_OBJECT) {
+					state = readState(parser);
+					// the rest of the request is not needed
+					if (!completedState.equals(state) || deployedComponents != null) {
+						break;
+					}
+				} else if (SERVICES.equals(field) && value == JsonToken.START_ARRAY) {
+					deployedComponents = readServices(parser);
+					if (state != null) {
+						break;
+					}
+				} else {
+					parser.skipChildren();
+				}
+			}
+			return new ParsedRequest(state, deployedComponents);
+		}
+	}
+
+	/**
+	 * Reads the summary object, the parser being at its start
+	 */
+	private static String readState(JsonParser parser) throws IOException {
+		String state = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			if (STATE.equals(field) && value == JsonToken.VALUE_STRING) {
+				state = parser.getText();
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Reads the services array, the parser being at its start
+	 * The components are numbered like in vCommander, counting the components without deployed objects too.
+	 */
+	private static List<DeployedComponentInfo> readServices(JsonParser parser) throws IOException {
+		List<DeployedComponentInfo> deployedComponents = new ArrayList<>();
+		int serviceIndex = 0;
+		while (parser.nextToken() == JsonToken.START_OBJECT) {
+			serviceIndex++;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				if (parser.nextToken() == JsonToken.START_ARRAY && COMPONENTS.equals(field)) {
+					readComponents(parser, serviceIndex, deployedComponents);
+				} else {
+					parser.skipChildren();
+				}
+			}
+		}
+		return deployedComponents;
+	}
+
+	/**
+	 * Reads the components array of a service, the parser being at its start
+	 */
+	private static void readComponents(JsonParser parser, int serviceIndex, List<DeployedComponentInfo> deployedComponents) throws IOException {
+		int componentIndex = 0;
+		while (parser.nextToken() == JsonToken.START_OBJECT) {
+			componentIndex++;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				if (parser.nextToken() == JsonToken.START_OBJECT && SUMMARY.equals(field)) {
+					readComponentSummary(parser, serviceIndex, componentIndex, deployedComponents);
+				} else {
+					parser.skipChildren();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the summary of a component, the parser being at its start
+	 * Custom components do not have deployed objects.
+	 */
+	private static void readComponentSummary(JsonParser parser, int serviceIndex, int componentIndex, List<DeployedComponentInfo> deployedComponents) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			if (parser.nextToken() == JsonToken.START_OBJECT && DEPLOYED_OBJECT.equals(field)) {
+				String name = null;
+				String type = null;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String objectField = parser.getCurrentName();
+					parser.nextToken();
+					if (DEPLOYED_OBJECT_NAME.equals(objectField)) {
+						name = parser.getText();
+					} else if (DEPLOYED_OBJECT_TYPE.equals(objectField)) {
+						type = parser.getText();
+					} else {
+						parser.skipChildren();
+					}
+				}
+				deployedComponents.add(new DeployedComponentInfo(serviceIndex, componentIndex, type, name));
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+}
@@ -11,12 +11,12 @@
 
 package com.embotics.vlm.rest.v30.client;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.ws.rs.core.MediaType;
 
@@ -26,8 +26,11 @@ import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 
+import com.embotics.vlm.rest.v30.client.ServiceRequestParser.ParsedRequest;
 import com.embotics.vlm.rest.v30.client.model.Comment;
+import com.embotics.vlm.rest.v30.client.model.CommentWatermark;
 import com.embotics.vlm.rest.v30.client.model.DeployedComponentInfo;
+import com.embotics.vlm.rest.v30.client.model.PollingProgress;
 import com.embotics.vlm.rest.v30.client.model.VCommanderException;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.ClientResponse.Status;
@@ -64,19 +67,27 @@ public class ServiceRequestsClient {
 	private static final String REQUESTED_SERVICE_STATE_COMPLETED = "COMPLETED";
 	private static final String REQUESTED_SERVICE_STATE_REJECTED = "REJECTED";
 	private static final String REQUESTED_SERVICE_STATE_FAILED = "FAILED";
+	private static final String REQUESTED_SERVICE_STATE_PENDING_APPROVAL = "PENDING_APPROVAL";
 	
 	
 	private final WebResource webResource;
+	private final StatusBatcher statusBatcher;
+	private final SingleFlight singleFlight = new SingleFlight();
+	private final CatalogCache<String, Long> publishedServices = new CatalogCache<>(this::lookupPublishedService);
+	private final CatalogCache<Long, String> publishedServiceNames = new CatalogCache<>(this::lookupPublishedServiceName);
 
 	
 	public ServiceRequestsClient(WebResource webResource) {
 		this.webResource = webResource;
+		this.statusBatcher = new StatusBatcher(webResource.path(SERVICE_REQUESTS_PATH), 
+				item -> item.getJSONObject(REQUESTED_SERVICE_SUMMARY).getLong(REQUESTED_SERVICE_ID));
 	}
 
 
 	/**
 	 * Retrieve the Published service with the given name.
 	 * If service not found or if multiple are found with the same name, exception will occur.
+	 * The result is cached, see {@link CatalogCache}.
 	 * 
 	 * @param serviceName			The name of the published service
 	 * 
@@ -89,7 +100,10 @@ public class ServiceRequestsClient {
 		if (StringUtils.isBlank(serviceName)) {
 			throw new VCommanderException("No serviceName provided.");
 		}
+		return publishedServices.get(serviceName);
+	}
 
+	private Long lookupPublishedService(String serviceName) throws JSONException, VCommanderException {
 		String filter = ClientUtils.buildFilter(PUBLISHED_SERVICE_NAME, ClientUtils.RestFilterOperator.eq, ClientUtils.encapsulateInQuots(serviceName));
 		ClientResponse servicesResponse = webResource.path(SERVICES_PATH).queryParam(ClientUtils.REST_FILTER, filter).accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
 		ClientUtils.checkResponse(servicesResponse, Status.OK.getStatusCode());
@@ -110,6 +124,7 @@ public class ServiceRequestsClient {
 
 	/**
 	 * Retrieve the Published service name for the given payload
+	 * The result is cached by service ID, see {@link CatalogCache}.
 	 * 
 	 * @param payload				The service request payload
 	 * 
@@ -128,7 +143,10 @@ public class ServiceRequestsClient {
 			throw new VCommanderException("Payload is missing the '" + PUBLISHED_SERVICE_FORM_SERVICE_ID + "' element");
 		}
 		Long publishedServiceId = payloadJSON.getLong(PUBLISHED_SERVICE_FORM_SERVICE_ID);
+		return publishedServiceNames.get(publishedServiceId);
+	}
 
+	private String lookupPublishedServiceName(Long publishedServiceId) throws JSONException, VCommanderException {
 		String filter = ClientUtils.buildFilter(PUBLISHED_SERVICE_ID, ClientUtils.RestFilterOperator.eq, publishedServiceId.toString());
 		ClientResponse servicesResponse = webResource.path(SERVICES_PATH).queryParam(ClientUtils.REST_FILTER, filter).accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
 		
@@ -145,6 +163,13 @@ public class ServiceRequestsClient {
 		}
 	}
 
+	/**
+	 * @return the usage counters of the catalog caches of this client
+	 */
+	CatalogCacheStatistics getCatalogCacheStatistics() {
+		return new CatalogCacheStatistics().add(publishedServices.getStatistics()).add(publishedServiceNames.getStatistics());
+	}
+
 	/**
 	 * Retrieve the form required for a published service
 	 * 
@@ -219,22 +244,54 @@ public class ServiceRequestsClient {
 	 * @throws VCommanderException 	If something goes wrong
 	 */
 	public List<DeployedComponentInfo> waitForServiceRequestToBeCompleted(Long requestId, long timeout, long polling, PrintStream logger) throws JSONException, InterruptedException, VCommanderException {
+		return ClientUtils.await(waitForServiceRequestToBeCompletedAsync(requestId, timeout, polling, logger));
+	}
+
+	/**
+	 * Same as {@link #waitForServiceRequestToBeCompleted(Long, long, long, PrintStream)}, without blocking the caller.
+	 * The service request is polled by the {@link PollingScheduler}.
+	 * 
+	 * @param requestId		The service request id
+	 * @param timeout		Timeout in minutes
+	 * @param polling		Polling interval in seconds
+	 * @param logger		A PrintStream, used for logging
+	 * 
+	 * @return A future completed with the information about the deployed components.
+	 * 			Cancelling the future stops the polling.
+	 * 
+	 * @throws VCommanderException 	If something goes wrong
+	 */
+	public CompletableFuture<List<DeployedComponentInfo>> waitForServiceRequestToBeCompletedAsync(Long requestId, long timeout, long polling, PrintStream logger) throws VCommanderException {
+		return waitForServiceRequestToBeCompletedAsync(requestId, timeout, polling, logger, new PollingProgress());
+	}
+
+	/**
+	 * Same as {@link #waitForServiceRequestToBeCompletedAsync(Long, long, long, PrintStream)}, continuing an earlier wait.
+	 * 
+	 * @param requestId		The service request id
+	 * @param timeout		Timeout in minutes, counted from the start of the progress
+	 * @param polling		Polling interval in seconds
+	 * @param logger		A PrintStream, used for logging
+	 * @param progress		The progress of the earlier wait, updated while polling
+	 * 
+	 * @return A future completed with the information about the deployed components.
+	 * 			Cancelling the future stops the polling.
+	 * 
+	 * @throws VCommanderException 	If something goes wrong
+	 */
+	public CompletableFuture<List<DeployedComponentInfo>> waitForServiceRequestToBeCompletedAsync(Long requestId, long timeout, long polling, PrintStream logger, PollingProgress progress) throws VCommanderException {
 		if (requestId == null) {
 			throw new VCommanderException("No requestId provided.");
 		}
 
-		JSONObject requestJSON;
-		String requestState;
-		long startTime = System.currentTimeMillis();
-		Set<String> loggedComments = new HashSet<>();
-
-		do {
-			requestJSON = checkServiceRequestIfCompletedAndWait(requestId, loggedComments, startTime, timeout, polling, logger);
-			requestState = getRequestState(requestJSON);
-		} while (!REQUESTED_SERVICE_STATE_COMPLETED.equals(requestState));
+		statusBatcher.register(requestId);
+		CompletableFuture<List<DeployedComponentInfo>> future = PollingScheduler.get().submit(new ServiceRequestPollingTask(requestId, timeout, polling, logger, progress));
+		future.whenComplete((result, failure) -> statusBatcher.unregister(requestId));
+		return future;
+	}
 
+	private List<DeployedComponentInfo> getDeployedComponents(JSONObject requestJSON) throws JSONException {
 		List<DeployedComponentInfo> deployedComponents = new ArrayList<>();
-		// requestJSON is never null at this point 
 		JSONArray services = requestJSON.getJSONArray(REQUESTED_SERVICE_SERVICES);
 		for (int i = 0; i < services.length(); i++) {
 			JSONObject service = services.getJSONObject(i);
@@ -256,82 +313,167 @@ public class ServiceRequestsClient {
 		return deployedComponents;
 	}
 
-	private JSONObject checkServiceRequestIfCompletedAndWait(Long requestId, Set<String> loggedComments, long startTimeInMillis, long timeoutInMinutes, long pollingInSeconds, PrintStream logger) throws VCommanderException, JSONException, InterruptedException {
+	/**
+	 * Checks the service request state once
+	 * 
+	 * @return the time to wait until the next check, in milliseconds
+	 */
+	private long checkServiceRequestIfCompleted(ServiceRequestPollingTask task) throws VCommanderException, JSONException {
+		Long requestId = task.requestId;
+		PrintStream logger = task.logger;
 		ClientUtils.log(logger, "Looking up service request with ID: " + requestId);
 
-		JSONObject requestJSON = getRequest(requestId, logger);
-		String requestState = getRequestState(requestJSON);
+		// fetch the new request comments while the state is looked up
+		AsyncCalls.Call<List<Comment>> fetchComments = () -> getRequestComments(requestId, task.progress.getCommentWatermark(), logger);
+		CompletableFuture<List<Comment>> pendingComments = logger != null ? ClientUtils.fetchCommentsAsync(fetchComments) : null;
+		try {
+			ParsedRequest request = lookupRequest(requestId, logger);
+			String requestState = getRequestState(request);
+
+			// the collection may not list the deployed components; read the whole request
+			if (REQUESTED_SERVICE_STATE_COMPLETED.equals(requestState) && request.getDeployedComponents() == null) {
+				request = getRequest(requestId, logger);
+				requestState = getRequestState(request);
+			}
 
-		if (logger != null) {
-			// fetch the requests comments, and add it to the log if they were not added yet
-			List<Comment> comments = getRequestComments(requestId, logger);
-			for (Comment requestComment : comments) {
-				String commentStr = requestComment.toString();
-				if (!loggedComments.contains(commentStr)) {
+			if (logger != null) {
+				// add the new request comments to the log; a final state is not held up by late comments
+				boolean finalState = REQUESTED_SERVICE_STATE_COMPLETED.equals(requestState) || REQUESTED_SERVICE_STATE_FAILED.equals(requestState) || REQUESTED_SERVICE_STATE_REJECTED.equals(requestState);
+				List<Comment> comments = ClientUtils.awaitComments(pendingComments, fetchComments, finalState);
+				for (Comment requestComment : comments) {
 					logger.println();
 					logger.println("Request Comment: ");
-					logger.println(commentStr);
+					logger.println(requestComment.toString());
 					logger.println();
-
-					loggedComments.add(commentStr);
+				}
+				if (!comments.isEmpty()) {
+					task.progress.commentsLogged();
 				}
 			}
-		}
 
-		switch (requestState) {
-		case REQUESTED_SERVICE_STATE_COMPLETED:
-			break;
+			switch (requestState) {
+			case REQUESTED_SERVICE_STATE_COMPLETED:
+				// request is never null at this point 
+				List<DeployedComponentInfo> deployedComponents = request.getDeployedComponents();
+				task.complete(deployedComponents != null ? deployedComponents : Collections.<DeployedComponentInfo>emptyList());
+				return 0;
 
-		case REQUESTED_SERVICE_STATE_FAILED:
-			throw new VCommanderException("Service request failed");
+			case REQUESTED_SERVICE_STATE_FAILED:
+				throw new VCommanderException("Service request failed");
 
-		case REQUESTED_SERVICE_STATE_REJECTED:
-			throw new VCommanderException("Service request rejected");
+			case REQUESTED_SERVICE_STATE_REJECTED:
+				throw new VCommanderException("Service request rejected");
 
-		default:
-			long currentTimeInMillis = System.currentTimeMillis();
-			if (startTimeInMillis + timeoutInMinutes * DateUtils.MILLIS_PER_MINUTE <= currentTimeInMillis) {
-				throw new VCommanderException("Service request did not completed in the given timeout: " + timeoutInMinutes + " minutes");
-			} else {
-				long toWait = Math.min(pollingInSeconds * DateUtils.MILLIS_PER_SECOND, startTimeInMillis + timeoutInMinutes * DateUtils.MILLIS_PER_MINUTE - currentTimeInMillis);
+			default:
+				long currentTimeInMillis = System.currentTimeMillis();
+				long deadlineInMillis = task.getDeadlineInMillis();
+				if (deadlineInMillis <= currentTimeInMillis) {
+					throw new VCommanderException("Service request did not completed in the given timeout: " + task.timeoutInMinutes + " minutes");
+				}
+				boolean waitingForPeople = REQUESTED_SERVICE_STATE_PENDING_APPROVAL.equals(requestState);
+				long toWait = task.pollingPolicy.nextDelay(requestState, waitingForPeople, deadlineInMillis - currentTimeInMillis);
 				ClientUtils.log(logger, "Service request state is: " + requestState + ". Wait " + toWait / DateUtils.MILLIS_PER_SECOND + " seconds ...");
-				Thread.sleep(toWait);
+				return toWait;
+			}
+		} finally {
+			// not left running when the lookup failed
+			if (pendingComments != null) {
+				pendingComments.cancel(false);
 			}
-			break;
 		}
-		
-		return requestJSON;
 	}
 	
-	private JSONObject getRequest(Long requestId, PrintStream logger) {
-		try {
-			ClientResponse requestResponse = webResource.path(SERVICE_REQUESTS_PATH).path(requestId.toString()).accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
-			ClientUtils.checkResponse(requestResponse, Status.OK.getStatusCode());
+	/**
+	 * Look up the request in bulk with the other in-flight requests, or on its own
+	 */
+	private ParsedRequest lookupRequest(Long requestId, PrintStream logger) {
+		JSONObject requestJSON = statusBatcher.get(requestId);
+		if (requestJSON != null) {
+			try {
+				String requestState = requestJSON.getJSONObject(REQUESTED_SERVICE_SUMMARY).getString(REQUESTED_SERVICE_STATE);
+				return new ParsedRequest(requestState, requestJSON.isNull(REQUESTED_SERVICE_SERVICES) ? null : getDeployedComponents(requestJSON));
+			} catch (JSONException e) {
+				// the collection item is not complete; read the whole request
+			}
+		}
+		return getRequest(requestId, logger);
+	}
 	
-			String requestStr = requestResponse.getEntity(String.class);
-			return new JSONObject(requestStr);
+	/**
+	 * Look up the request on its own
+	 * The response is streamed: only the state is read, and the deployed components once completed, see {@link ServiceRequestParser}.
+	 */
+	private ParsedRequest getRequest(Long requestId, PrintStream logger) {
+		try {
+			WebResource requestResource = webResource.path(SERVICE_REQUESTS_PATH).path(requestId.toString());
+			// builds waiting for the same request share the lookup
+			return singleFlight.execute(requestResource.getURI().toString(), () -> {
+				ClientResponse requestResponse = requestResource.accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
+				ClientUtils.checkResponse(requestResponse, Status.OK.getStatusCode());
+		
+				try {
+					return ServiceRequestParser.parse(requestResponse.getEntityInputStream(), REQUESTED_SERVICE_STATE_COMPLETED);
+				} catch (IOException e) {
+					throw new VCommanderException(e, "Cannot read service request with ID: " + requestId);
+				} finally {
+					requestResponse.close();
+				}
+			});
 		} catch (Exception e) {
 			ClientUtils.log(logger, "\tError while looking up request with ID: " + requestId + " Message: " + e.getMessage());
 			return null;
 		}
 	}
 	
-	private String getRequestState(JSONObject request) throws JSONException {
-		if(request != null) {
-			JSONObject summary = request.getJSONObject(REQUESTED_SERVICE_SUMMARY);
-			return summary.getString(REQUESTED_SERVICE_STATE);
+	private String getRequestState(ParsedRequest request) {
+		if(request != null && request.getState() != null) {
+			return request.getState();
 		}
 		return StringUtils.EMPTY;
 	}
 	
-	private List<Comment> getRequestComments(Long requestId, PrintStream logger) {
+	private List<Comment> getRequestComments(Long requestId, CommentWatermark watermark, PrintStream logger) {
 		try {
-			ClientResponse commentsResponse = webResource.path(SERVICE_REQUESTS_PATH).path(requestId.toString()).path(SERVICE_REQUEST_COMMENTS_PATH).accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
-			return ClientUtils.getComments(commentsResponse);
+			WebResource commentsResource = webResource.path(SERVICE_REQUESTS_PATH).path(requestId.toString()).path(SERVICE_REQUEST_COMMENTS_PATH);
+			return ClientUtils.getNewComments(commentsResource, watermark, singleFlight);
 		} catch (Exception e) {
 			ClientUtils.log(logger, "\tError while looking up workflow comments for request with ID: " + requestId + " Message: " + e.getMessage());
 			return Collections.emptyList();
 		}
 	}
 
+	/**
+	 * A service request, waiting to be completed
+	 */
+	private class ServiceRequestPollingTask extends PollingScheduler.PollingTask<List<DeployedComponentInfo>> {
+		private final Long requestId;
+		private final long timeoutInMinutes;
+		private final PollingPolicy pollingPolicy;
+		private final PrintStream logger;
+		private final PollingProgress progress;
+
+		ServiceRequestPollingTask(Long requestId, long timeoutInMinutes, long pollingInSeconds, PrintStream logger, PollingProgress progress) {
+			this.requestId = requestId;
+			this.timeoutInMinutes = timeoutInMinutes;
+			this.pollingPolicy = new PollingPolicy(pollingInSeconds);
+			this.logger = logger;
+			this.progress = progress;
+		}
+
+		@Override
+		protected long getDeadlineInMillis() {
+			return progress.getStartTimeInMillis() + timeoutInMinutes * DateUtils.MILLIS_PER_MINUTE;
+		}
+
+		@Override
+		protected String getCallbackKey() {
+			return PollingScheduler.serviceRequestKey(requestId);
+		}
+
+		@Override
+		protected long poll() throws VCommanderException, JSONException {
+			return checkServiceRequestIfCompleted(this);
+		}
+	}
+
 }
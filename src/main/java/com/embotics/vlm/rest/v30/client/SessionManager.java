@@ -0,0 +1,206 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang.time.DateUtils;
+
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.ClientResponse.Status;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+/**
+ * Keeps a REST v3 security token for a vCommander client
+ *
+ * The token is requested once, and it is shared by all the calls (and builds) using the client.
+ * It is renewed before it expires, or when vCommander rejects it.
+ * A single token request is in flight at a time; the other calls wait for it, without holding the lock of the manager.
+ * When no token can be retrieved, the calls fall back to basic-auth.
+ *
+ * @author btarczali
+ */
+public class SessionManager {
+	private static final String AUTHORIZATION_HEADER_KEY = "Authorization";
+	private static final String BEARER_AUTHORIZATION_PREFIX = "Bearer ";
+	private static final String TOKEN_PATH_SUFFIX = "/tokens";
+
+	// renew the token before vCommander expires the session
+	private static final long TOKEN_MAX_AGE = Long.getLong(SessionManager.class.getName() + ".tokenMaxAgeMinutes", 15) * DateUtils.MILLIS_PER_MINUTE;
+	// do not request a new token on every call when vCommander refuses to give one
+	private static final long TOKEN_RETRY_DELAY = DateUtils.MILLIS_PER_MINUTE;
+
+	private final String basicAuthorization;
+	private final LongSupplier clock;
+	private SessionsClient sessionsClient;
+
+	private String token;
+	private long tokenTime;
+	private long failureTime;
+	// the token request in flight, or null
+	private CompletableFuture<String> pendingToken;
+
+
+	/**
+	 * @param basicAuthorization	the basic-auth header value, used when there is no token
+	 */
+	SessionManager(String basicAuthorization) {
+		this(basicAuthorization, System::currentTimeMillis);
+	}
+
+	/**
+	 * Used for Unit Testing
+	 */
+	SessionManager(String basicAuthorization, LongSupplier clock) {
+		this.basicAuthorization = basicAuthorization;
+		this.clock = clock;
+	}
+
+	/**
+	 * The client used to request the tokens; set once the web resource is built
+	 */
+	void setSessionsClient(SessionsClient sessionsClient) {
+		this.sessionsClient = sessionsClient;
+	}
+
+	/**
+	 * @return the current token, or null if no token could be retrieved
+	 */
+	String getToken() {
+		CompletableFuture<String> pending;
+		long now;
+		synchronized (this) {
+			now = clock.getAsLong();
+			if (token != null && now - tokenTime < TOKEN_MAX_AGE) {
+				return token;
+			}
+			if (sessionsClient == null || now - failureTime < TOKEN_RETRY_DELAY) {
+				return null;
+			}
+			if (pendingToken != null) {
+				pending = pendingToken;
+			} else {
+				pendingToken = new CompletableFuture<>();
+				pending = null;
+			}
+		}
+
+		if (pending != null) {
+			// requested by another call
+			return awaitToken(pending);
+		}
+		return requestToken(now);
+	}
+
+	/**
+	 * Request a new token, and share it with the calls waiting for it
+	 *
+	 * @param requestTime	the time of the request; the token expires after its max age from then
+	 */
+	private String requestToken(long requestTime) {
+		String newToken = null;
+		try {
+			newToken = sessionsClient.getSecurityToken();
+		} catch (Exception e) {
+			// fall back to basic-auth
+		}
+
+		CompletableFuture<String> pending;
+		synchronized (this) {
+			token = newToken;
+			if (newToken != null) {
+				tokenTime = requestTime;
+			} else {
+				failureTime = requestTime;
+			}
+			pending = pendingToken;
+			pendingToken = null;
+		}
+		pending.complete(newToken);
+		return newToken;
+	}
+
+	/**
+	 * @return the token requested by another call, or null if none, or if the call runs out of time waiting
+	 */
+	private static String awaitToken(CompletableFuture<String> pending) {
+		try {
+			long remaining = Deadline.remainingInMillis();
+			return remaining == Long.MAX_VALUE ? pending.get() : pending.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException | TimeoutException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Drop the token, if it is still the current one
+	 *
+	 * @param rejectedToken		the token rejected by vCommander
+	 */
+	synchronized void invalidate(String rejectedToken) {
+		if (rejectedToken != null && rejectedToken.equals(token)) {
+			token = null;
+		}
+	}
+
+	/**
+	 * @return a filter adding the authorization header to every request
+	 */
+	ClientFilter createFilter() {
+		return new ClientFilter() {
+			@Override
+			public ClientResponse handle(ClientRequest cr) throws ClientHandlerException {
+				return SessionManager.this.handle(cr, getNext());
+			}
+		};
+	}
+
+	/**
+	 * Authorize the request, and send it with the next handler
+	 */
+	ClientResponse handle(ClientRequest cr, ClientHandler next) throws ClientHandlerException {
+		// the token request carries the credentials in its body
+		if (cr.getURI().getPath().endsWith(TOKEN_PATH_SUFFIX)) {
+			return next.handle(cr);
+		}
+
+		String usedToken = authorize(cr);
+		ClientResponse response = next.handle(cr);
+
+		// the session expired on the server; renew the token and try again
+		if (usedToken != null && response.getStatus() == Status.UNAUTHORIZED.getStatusCode()) {
+			response.close();
+			invalidate(usedToken);
+			authorize(cr);
+			response = next.handle(cr);
+		}
+		return response;
+	}
+
+	private String authorize(ClientRequest cr) {
+		String currentToken = getToken();
+		String authorization = currentToken != null ? BEARER_AUTHORIZATION_PREFIX + currentToken : basicAuthorization;
+		cr.getHeaders().putSingle(AUTHORIZATION_HEADER_KEY, authorization);
+		return currentToken;
+	}
+
+}
@@ -0,0 +1,102 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.codehaus.jettison.json.JSONException;
+
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+import com.sun.jersey.api.client.ClientHandlerException;
+
+/**
+ * Coalesces the concurrent lookups of the same entity
+ *
+ * When builds wait for the same service request, task or workflow, their polls may overlap.
+ * The first poll makes the call; the others wait for its result instead of making the same call.
+ * The result is shared, so it must not be modified. Nothing is kept once the call is done.
+ *
+ * @author btarczali
+ */
+final class SingleFlight {
+
+	/**
+	 * A lookup of an entity
+	 */
+	interface Call<V> {
+		V call() throws JSONException, VCommanderException;
+	}
+
+	private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+
+	/**
+	 * Make the call, or wait for the same call made by another thread
+	 *
+	 * @param key	the entity looked up, like its URI
+	 * @param call	the lookup
+	 *
+	 * @return the result of the call
+	 */
+	@SuppressWarnings("unchecked")
+	<V> V execute(String key, Call<V> call) throws JSONException, VCommanderException {
+		CompletableFuture<Object> future = new CompletableFuture<>();
+		CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+		if (existing != null) {
+			return (V) await(existing);
+		}
+
+		try {
+			V result = call.call();
+			future.complete(result);
+			return result;
+		} catch (JSONException | VCommanderException | RuntimeException | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	/**
+	 * Waits for the call made by another thread, no longer than the {@link Deadline} of this thread
+	 */
+	private static Object await(CompletableFuture<Object> future) throws JSONException, VCommanderException {
+		try {
+			long remaining = Deadline.remainingInMillis();
+			return remaining == Long.MAX_VALUE ? future.get() : future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new VCommanderException(e, "Interrupted while waiting for Commander.");
+		} catch (TimeoutException e) {
+			throw new ClientHandlerException(new SocketTimeoutException("Timeout reached while waiting for Commander"));
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof VCommanderException) {
+				throw (VCommanderException) cause;
+			} else if (cause instanceof JSONException) {
+				throw (JSONException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new VCommanderException(cause, "Error while waiting for Commander.");
+		}
+	}
+}
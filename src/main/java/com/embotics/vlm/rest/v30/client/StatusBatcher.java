@@ -0,0 +1,196 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.ws.rs.core.MediaType;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.ClientResponse.Status;
+import com.sun.jersey.api.client.WebResource;
+
+/**
+ * Looks up the state of all the in-flight entities of a RESTv3 collection in bulk
+ *
+ * Every waiting build registers the ID it waits for. When one of them needs a fresh state,
+ * the states of all the registered IDs are fetched through the collection endpoint,
+ * and the other builds polling shortly after reuse the same snapshot.
+ * This way N waiting builds cost a handful of requests per polling cycle instead of N.
+ *
+ * When an ID is missing from the snapshot, or vCommander rejects the bulk lookup,
+ * the caller falls back to looking up the entity on its own.
+ * The bulk lookups are made outside the lock, and the builds needing a fresh snapshot at the same time share one.
+ *
+ * @author btarczali
+ */
+class StatusBatcher {
+	// a snapshot is reused for this long; shorter than the quick initial polls
+	private static final long SNAPSHOT_MAX_AGE = PollingPolicy.INITIAL_INTERVAL / 2;
+	// after vCommander rejected a bulk lookup, do not try again for a while
+	private static final long DISABLED_PERIOD = 10 * DateUtils.MILLIS_PER_MINUTE;
+	// stay within the default page size of the collections
+	private static final int MAX_BATCH_SIZE = 50;
+
+	private static final String ID_FIELD = "id";
+	private static final String SNAPSHOT_KEY = "snapshot";
+
+	private final WebResource collection;
+	private final IdReader idReader;
+	// the polling workers waiting for a fresh snapshot share the same bulk lookup
+	private final SingleFlight singleFlight = new SingleFlight();
+
+	// guarded by the batcher; the bulk lookups are made outside the lock
+	private final Map<Long, Integer> registered = new HashMap<>();
+	private Snapshot snapshot = new Snapshot(Collections.<Long, JSONObject>emptyMap(), Collections.<Long>emptySet(), 0);
+	private long disabledTime;
+
+
+	/**
+	 * @param collection	the collection endpoint, like /rest/v3/service-requests
+	 * @param idReader		reads the ID from the items of the collection
+	 */
+	StatusBatcher(WebResource collection, IdReader idReader) {
+		this.collection = collection;
+		this.idReader = idReader;
+	}
+
+	/**
+	 * Start including the ID in the bulk lookups
+	 */
+	synchronized void register(Long id) {
+		Integer count = registered.get(id);
+		registered.put(id, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Stop including the ID in the bulk lookups
+	 */
+	synchronized void unregister(Long id) {
+		Integer count = registered.get(id);
+		if (count == null || count <= 1) {
+			registered.remove(id);
+		} else {
+			registered.put(id, count - 1);
+		}
+	}
+
+	/**
+	 * @return the entity from a recent bulk lookup, or null if it cannot be looked up in bulk
+	 */
+	JSONObject get(Long id) {
+		long now = System.currentTimeMillis();
+		Snapshot current;
+		synchronized (this) {
+			if (!registered.containsKey(id) || now - disabledTime < DISABLED_PERIOD) {
+				return null;
+			}
+			current = snapshot;
+		}
+
+		// reuse a recent snapshot, unless the ID was registered after it was taken
+		if (now - current.time >= SNAPSHOT_MAX_AGE || !current.ids.contains(id)) {
+			try {
+				current = singleFlight.execute(SNAPSHOT_KEY, this::refresh);
+			} catch (Exception e) {
+				// not reachable in time; the caller looks up on its own
+				return null;
+			}
+		}
+		return current.items.get(id);
+	}
+
+	private Snapshot refresh() {
+		long now = System.currentTimeMillis();
+		Set<Long> ids;
+		synchronized (this) {
+			ids = new HashSet<>(registered.keySet());
+		}
+		List<String> idValues = new ArrayList<>();
+		for (Long id : ids) {
+			idValues.add(id.toString());
+		}
+
+		Map<Long, JSONObject> items = new HashMap<>();
+		try {
+			for (int i = 0; i < idValues.size(); i += MAX_BATCH_SIZE) {
+				List<String> batch = idValues.subList(i, Math.min(idValues.size(), i + MAX_BATCH_SIZE));
+				for (String filter : ClientUtils.buildAnyOfFilters(ID_FIELD, batch, ClientUtils.MAX_FILTER_LENGTH)) {
+					fetch(filter, items);
+				}
+			}
+		} catch (VCommanderException e) {
+			if (ClientUtils.isFilterRejected(e)) {
+				// vCommander rejected the bulk lookup; callers look up on their own
+				synchronized (this) {
+					disabledTime = now;
+				}
+			}
+			// else a transient failure; callers look up on their own this time
+		} catch (Exception e) {
+			// not reachable or not parsable this time; callers look up on their own
+		}
+
+		Snapshot newSnapshot = new Snapshot(items, ids, now);
+		synchronized (this) {
+			snapshot = newSnapshot;
+		}
+		return newSnapshot;
+	}
+
+	private void fetch(String filter, Map<Long, JSONObject> found) throws JSONException, VCommanderException {
+		ClientResponse response = collection.queryParam(ClientUtils.REST_FILTER, filter).accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
+		ClientUtils.checkResponse(response, Status.OK.getStatusCode());
+
+		JSONObject responseJSON = new JSONObject(response.getEntity(String.class));
+		JSONArray items = responseJSON.getJSONArray(ClientUtils.COMMON_ITEMS);
+		for (int i = 0; i < items.length(); i++) {
+			JSONObject item = items.getJSONObject(i);
+			found.put(idReader.getId(item), item);
+		}
+	}
+
+	/**
+	 * The entities of one bulk lookup; shared by the callers, so not modified
+	 */
+	private static final class Snapshot {
+		private final Map<Long, JSONObject> items;
+		// the IDs looked up, found or not
+		private final Set<Long> ids;
+		private final long time;
+
+		Snapshot(Map<Long, JSONObject> items, Set<Long> ids, long time) {
+			this.items = items;
+			this.ids = ids;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * Reads the ID of an item in the collection
+	 */
+	interface IdReader {
+		Long getId(JSONObject item) throws JSONException;
+	}
+}
@@ -0,0 +1,36 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+/**
+ * vCommander answered a call with an unexpected status.
+ * The status tells the callers whether the call itself was rejected, or failed for another reason.
+ *
+ * @author btarczali
+ */
+final class StatusException extends VCommanderException {
+	private final int statusCode;
+
+	StatusException(int statusCode, String message) {
+		super(message);
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * @return the HTTP status of the response
+	 */
+	int getStatusCode() {
+		return statusCode;
+	}
+}
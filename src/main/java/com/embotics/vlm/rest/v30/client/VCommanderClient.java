@@ -14,47 +14,68 @@ package com.embotics.vlm.rest.v30.client;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateUtils;
 import org.codehaus.jettison.json.JSONException;
 
 import com.embotics.vlm.rest.v30.client.model.DeployedComponentInfo;
+import com.embotics.vlm.rest.v30.client.model.PollingProgress;
 import com.embotics.vlm.rest.v30.client.model.VCommanderException;
 import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.ClientHandlerException;
-import com.sun.jersey.api.client.ClientRequest;
-import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
-import com.sun.jersey.api.client.filter.ClientFilter;
 
 /**
  * vCommander REST API Java client - connecting to REST API V3
  * Only methods relevant for the plugin are implemented
- * Authentication is based on basic-auth
+ * Authentication is based on a shared security token, with basic-auth as fallback
+ * The *Async methods do not block the caller; the waits are polled by the {@link PollingScheduler},
+ * the other calls run on a small bounded pool, see {@link AsyncCalls}.
  * 
  * @author btarczali
  *
  */
 public class VCommanderClient {
 	private static final String BASIC_AUTH_ENCODING = "UTF-8";
-	private static final String BASIC_AUTH_HEATHER_KEY = "Authorization";
 	private static final String BASIC_AUTH_HEATHER_VALUE_PREFIX = "Basic ";
 
 	private static final String ROOT_SERVICE_PATH 				= "rest/v3";
 
+	public static final int DEFAULT_CONNECT_TIMEOUT = 10;	// seconds
+	public static final int DEFAULT_READ_TIMEOUT = 60;		// seconds
+
 	private String baseURL;
 	private WebResource webResource;
 	private Client client;
 	private String userName;
 	private String orgName;
 	
+	private SessionManager sessionManager;
 	private SessionsClient sessionsClient;
 	private ServiceRequestsClient serviceRequestsClient;
 	private WorkflowsClient workflowsClient;
 
+	// lifecycle of clients handed out by the VCommanderClientRegistry
+	private volatile boolean shared;
+	private volatile boolean retired;
+	private final AtomicInteger references = new AtomicInteger();
+	private final AtomicBoolean destroyed = new AtomicBoolean();
+
 	
 	public VCommanderClient(final String uri, final String userName, final String password, final String orgName) {
+		this(uri, userName, password, orgName, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+	}
+
+	/**
+	 * @param connectTimeout	connect timeout of every call, in seconds; 0 for none
+	 * @param readTimeout		read timeout of every call, in seconds; 0 for none
+	 */
+	public VCommanderClient(final String uri, final String userName, final String password, final String orgName, int connectTimeout, int readTimeout) {
 		this.baseURL = uri;
 		this.userName = userName;
 		this.orgName = orgName;
@@ -64,46 +85,56 @@ public class VCommanderClient {
 			baseURL = baseURL + "/";
 		}
 
-		// Java Runtime Environment has SSLv3 disabled by default so we need to enable
-		// it
-		System.setProperty("https.protocols", "TLSv1,TLSv1.1,TLSv1.2");
-
 		/*
 		 * Add security token to every request
 		 */
-		client = ClientHelper.createClient();
-		client.addFilter(new ClientFilter() {
-			@Override
-			public ClientResponse handle(ClientRequest cr) throws ClientHandlerException {
-
-				//build the basic-auth authentication string 
-				StringBuilder builder = new StringBuilder();
-				builder.append(userName);
-				if(StringUtils.isNotBlank(orgName)) {
-					builder.append(";");
-					builder.append(orgName);
-				}
-				builder.append(":");
-				builder.append(password);
-				
-				//encode the authentication string 
-				String authentication = builder.toString();
-				byte[] base64Encoded = Base64.encodeBase64(authentication.getBytes(Charset.forName(BASIC_AUTH_ENCODING)));
-				String base64String = new String(base64Encoded, Charset.forName(BASIC_AUTH_ENCODING));
-				
-				// add credentials as basic authentication to the header for each request
-				cr.getHeaders().add(BASIC_AUTH_HEATHER_KEY, BASIC_AUTH_HEATHER_VALUE_PREFIX + base64String);
-
-				return getNext().handle(cr);
-			}
-		});
+		sessionManager = new SessionManager(buildBasicAuthorization(userName, password, orgName));
+		client = ClientHelper.createClient(baseURL, connectTimeout * (int) DateUtils.MILLIS_PER_SECOND, readTimeout * (int) DateUtils.MILLIS_PER_SECOND);
+		client.addFilter(sessionManager.createFilter());
 
 		webResource = client.resource(baseURL).path(ROOT_SERVICE_PATH);
 		sessionsClient = new SessionsClient(webResource, userName, password, orgName);
+		sessionManager.setSessionsClient(sessionsClient);
 		serviceRequestsClient = new ServiceRequestsClient(webResource);
 		workflowsClient = new WorkflowsClient(webResource);
 	}
 
+	/**
+	 * Build the basic-auth header value, used when no security token is available
+	 */
+	private static String buildBasicAuthorization(String userName, String password, String orgName) {
+		//build the basic-auth authentication string 
+		StringBuilder builder = new StringBuilder();
+		builder.append(userName);
+		if(StringUtils.isNotBlank(orgName)) {
+			builder.append(";");
+			builder.append(orgName);
+		}
+		builder.append(":");
+		builder.append(password);
+		
+		//encode the authentication string 
+		String authentication = builder.toString();
+		byte[] base64Encoded = Base64.encodeBase64(authentication.getBytes(Charset.forName(BASIC_AUTH_ENCODING)));
+		String base64String = new String(base64Encoded, Charset.forName(BASIC_AUTH_ENCODING));
+		return BASIC_AUTH_HEATHER_VALUE_PREFIX + base64String;
+	}
+
+	/**
+	 * Run blocking calls, like the submission of a Pipeline step, on the bounded pool of the asynchronous API
+	 * The calls do not go beyond the deadline, and do not wait for a call slot beyond it either.
+	 *
+	 * @param deadlineInMillis	the time by which the calls must be done
+	 * @param task				makes the calls, and handles their failures
+	 *
+	 * @return the future of the task; cancelling it interrupts the calls in progress
+	 *
+	 * @throws VCommanderException	when too many calls are queued
+	 */
+	public static Future<?> submit(long deadlineInMillis, Runnable task) throws VCommanderException {
+		return AsyncCalls.execute(deadlineInMillis, task);
+	}
+
 	/**
 	 * Used for Unit Testing
 	 * 
@@ -113,9 +144,54 @@ public class VCommanderClient {
 
 	/**
 	 * Done with the rest client and clean-up
+	 * 
+	 * Shared clients (see {@link VCommanderClientRegistry}) are only released;
+	 * the underlying Jersey client is destroyed once the client is retired and no longer used
 	 */
 	public void close() {
-		client.destroy();
+		if (!shared) {
+			destroy();
+		} else if (references.decrementAndGet() <= 0 && retired) {
+			destroy();
+		}
+	}
+
+	/**
+	 * Marks this client as shared, so {@link #close()} releases a reference instead of destroying it
+	 */
+	void share() {
+		shared = true;
+	}
+
+	/**
+	 * Registers a new user of a shared client
+	 */
+	VCommanderClient retain() {
+		references.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * The client will not be handed out anymore; destroy it as soon as the last user releases it
+	 */
+	void retire() {
+		retired = true;
+		if (references.get() <= 0) {
+			destroy();
+		}
+	}
+
+	private void destroy() {
+		if (destroyed.compareAndSet(false, true) && client != null) {
+			client.destroy();
+		}
+	}
+
+	/**
+	 * Used for Unit Testing
+	 */
+	boolean isDestroyed() {
+		return destroyed.get();
 	}
 	
 	/**
@@ -126,6 +202,30 @@ public class VCommanderClient {
 		return String.format("Configured Commander is at: %s - with userName: %s%s", baseURL, userName, orgInfo);
 	}
 
+	/**
+	 * @return the usage counters of the catalog caches of this client
+	 */
+	public CatalogCacheStatistics getCatalogCacheStatistics() {
+		CatalogCacheStatistics statistics = new CatalogCacheStatistics();
+		if (serviceRequestsClient != null) {
+			statistics.add(serviceRequestsClient.getCatalogCacheStatistics());
+		}
+		if (workflowsClient != null) {
+			statistics.add(workflowsClient.getCatalogCacheStatistics());
+		}
+		return statistics;
+	}
+
+	/**
+	 * Checks if vCommander answers, by requesting a security token.
+	 * The check is made even when the {@link CircuitBreaker} of the endpoint is open, and closes it on success.
+	 * 
+	 * @throws Exception	If vCommander cannot be reached
+	 */
+	public void checkHealth() throws Exception {
+		CircuitBreaker.probe(sessionsClient::getSecurityToken);
+	}
+
 	/**
 	 * {@link com.embotics.vlm.rest.v30.client.SessionsClient#getSecurityToken()}
 	 */
@@ -140,6 +240,13 @@ public class VCommanderClient {
 		return serviceRequestsClient.getPublishedService(serviceName);
 	}
 
+	/**
+	 * Same as {@link #getPublishedService(String)}, without blocking the caller
+	 */
+	public CompletableFuture<Long> getPublishedServiceAsync(String serviceName) {
+		return AsyncCalls.submit(() -> getPublishedService(serviceName));
+	}
+
 	/**
 	 * {@link com.embotics.vlm.rest.v30.client.ServiceRequestsClient#getPublishedServiceNameByPayload(String)}
 	 */
@@ -147,6 +254,13 @@ public class VCommanderClient {
 		return serviceRequestsClient.getPublishedServiceNameByPayload(payload);
 	}
 
+	/**
+	 * Same as {@link #getPublishedServiceNameByPayload(String)}, without blocking the caller
+	 */
+	public CompletableFuture<String> getPublishedServiceNameByPayloadAsync(String payload) {
+		return AsyncCalls.submit(() -> getPublishedServiceNameByPayload(payload));
+	}
+
 	/**
 	 * {@link com.embotics.vlm.rest.v30.client.ServiceRequestsClient#getServiceRequestPayload(Long)}
 	 */
@@ -154,6 +268,13 @@ public class VCommanderClient {
 		return serviceRequestsClient.getServiceRequestPayload(serviceID);
 	}
 
+	/**
+	 * Same as {@link #getServiceRequestPayload(Long)}, without blocking the caller
+	 */
+	public CompletableFuture<String> getServiceRequestPayloadAsync(Long serviceID) {
+		return AsyncCalls.submit(() -> getServiceRequestPayload(serviceID));
+	}
+
 	/**
 	 * {@link com.embotics.vlm.rest.v30.client.ServiceRequestsClient#requestService(String)}
 	 */
@@ -161,12 +282,33 @@ public class VCommanderClient {
 		return serviceRequestsClient.requestService(payload);
 	}
 
+	/**
+	 * Same as {@link #requestService(String)}, without blocking the caller
+	 */
+	public CompletableFuture<Long> requestServiceAsync(String payload) {
+		return AsyncCalls.submit(() -> requestService(payload));
+	}
+
 	/**
 	 * {@link com.embotics.vlm.rest.v30.client.ServiceRequestsClient#waitForServiceRequestToBeCompleted(Long, long, long, PrintStream)}
 	 */
 	public List<DeployedComponentInfo> waitForServiceRequestToBeCompleted(Long requestId, long timeout, long polling, PrintStream logger) throws JSONException, InterruptedException, VCommanderException {
 		return serviceRequestsClient.waitForServiceRequestToBeCompleted(requestId, timeout, polling, logger);
 	}
+
+	/**
+	 * {@link com.embotics.vlm.rest.v30.client.ServiceRequestsClient#waitForServiceRequestToBeCompletedAsync(Long, long, long, PrintStream)}
+	 */
+	public CompletableFuture<List<DeployedComponentInfo>> waitForServiceRequestToBeCompletedAsync(Long requestId, long timeout, long polling, PrintStream logger) throws VCommanderException {
+		return waitForServiceRequestToBeCompletedAsync(requestId, timeout, polling, logger, new PollingProgress());
+	}
+
+	/**
+	 * {@link com.embotics.vlm.rest.v30.client.ServiceRequestsClient#waitForServiceRequestToBeCompletedAsync(Long, long, long, PrintStream, PollingProgress)}
+	 */
+	public CompletableFuture<List<DeployedComponentInfo>> waitForServiceRequestToBeCompletedAsync(Long requestId, long timeout, long polling, PrintStream logger, PollingProgress progress) throws VCommanderException {
+		return serviceRequestsClient.waitForServiceRequestToBeCompletedAsync(requestId, timeout, polling, logger, progress);
+	}
 	
 	/**
 	 * {@link com.embotics.vlm.rest.v30.client.WorkflowsClient#getWorkflowDefinition(String)}
@@ -174,6 +316,13 @@ public class VCommanderClient {
 	public Long getWorkflowDefinition(String workflowName) throws JSONException, VCommanderException {
 		return workflowsClient.getWorkflowDefinition(workflowName);
 	}
+
+	/**
+	 * Same as {@link #getWorkflowDefinition(String)}, without blocking the caller
+	 */
+	public CompletableFuture<Long> getWorkflowDefinitionAsync(String workflowName) {
+		return AsyncCalls.submit(() -> getWorkflowDefinition(workflowName));
+	}
 	
 	/**
 	 * {@link com.embotics.vlm.rest.v30.client.WorkflowsClient#getWorkflowDefinitionTargetType(Long)}
@@ -182,18 +331,60 @@ public class VCommanderClient {
 		return workflowsClient.getWorkflowDefinitionTargetType(workflowDefinitionId);
 	}
 
+	/**
+	 * Same as {@link #getWorkflowDefinitionTargetType(Long)}, without blocking the caller
+	 */
+	public CompletableFuture<String> getWorkflowDefinitionTargetTypeAsync(Long workflowDefinitionId) {
+		return AsyncCalls.submit(() -> getWorkflowDefinitionTargetType(workflowDefinitionId));
+	}
+
 	/**
 	 * {@link com.embotics.vlm.rest.v30.client.WorkflowsClient#runCommandWorkflow(Long, String, String)}
 	 */
 	public String runCommandWorkflow(Long workflowId, String targetType, String targetName) throws JSONException, VCommanderException {
 		return workflowsClient.runCommandWorkflow(workflowId, targetType, targetName);
 	}
+
+	/**
+	 * Same as {@link #runCommandWorkflow(Long, String, String)}, without blocking the caller
+	 */
+	public CompletableFuture<String> runCommandWorkflowAsync(Long workflowId, String targetType, String targetName) {
+		return AsyncCalls.submit(() -> runCommandWorkflow(workflowId, targetType, targetName));
+	}
 	
 	/**
 	 * {@link com.embotics.vlm.rest.v30.client.WorkflowsClient#waitForWorkflowToBeCompleted(String, long, long, PrintStream)}
 	 */
 	public Long waitForWorkflowToBeCompleted(String taskId, long timeout, long polling, PrintStream logger) throws JSONException, InterruptedException, VCommanderException {
-		return workflowsClient.waitForWorkflowToBeCompleted(taskId, timeout, polling, logger);
+		return waitForWorkflowToBeCompleted(taskId, timeout, polling, logger, false);
+	}
+
+	/**
+	 * {@link com.embotics.vlm.rest.v30.client.WorkflowsClient#waitForWorkflowToBeCompleted(String, long, long, PrintStream, boolean)}
+	 */
+	public Long waitForWorkflowToBeCompleted(String taskId, long timeout, long polling, PrintStream logger, boolean lowLatency) throws JSONException, InterruptedException, VCommanderException {
+		return workflowsClient.waitForWorkflowToBeCompleted(taskId, timeout, polling, logger, lowLatency);
+	}
+
+	/**
+	 * {@link com.embotics.vlm.rest.v30.client.WorkflowsClient#waitForWorkflowToBeCompletedAsync(String, long, long, PrintStream)}
+	 */
+	public CompletableFuture<Long> waitForWorkflowToBeCompletedAsync(String taskId, long timeout, long polling, PrintStream logger) throws VCommanderException {
+		return waitForWorkflowToBeCompletedAsync(taskId, timeout, polling, logger, new PollingProgress());
+	}
+
+	/**
+	 * {@link com.embotics.vlm.rest.v30.client.WorkflowsClient#waitForWorkflowToBeCompletedAsync(String, long, long, PrintStream, PollingProgress)}
+	 */
+	public CompletableFuture<Long> waitForWorkflowToBeCompletedAsync(String taskId, long timeout, long polling, PrintStream logger, PollingProgress progress) throws VCommanderException {
+		return waitForWorkflowToBeCompletedAsync(taskId, timeout, polling, logger, progress, false);
+	}
+
+	/**
+	 * {@link com.embotics.vlm.rest.v30.client.WorkflowsClient#waitForWorkflowToBeCompletedAsync(String, long, long, PrintStream, PollingProgress, boolean)}
+	 */
+	public CompletableFuture<Long> waitForWorkflowToBeCompletedAsync(String taskId, long timeout, long polling, PrintStream logger, PollingProgress progress, boolean lowLatency) throws VCommanderException {
+		return workflowsClient.waitForWorkflowToBeCompletedAsync(taskId, timeout, polling, logger, progress, lowLatency);
 	}
 
 }
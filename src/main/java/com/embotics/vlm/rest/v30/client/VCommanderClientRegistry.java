@@ -0,0 +1,136 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+/**
+ * Controller wide registry of vCommander REST clients
+ *
+ * Creating a client is expensive (Jersey bootstrap, SSL context, TCP and TLS setup),
+ * so one client is shared by all build steps using the same address, credential and organization.
+ * Sharing the client also lets the JDK keep-alive cache reuse the open connections between calls.
+ *
+ * Clients are reference counted: {@link VCommanderClient#close()} releases the client,
+ * and retired clients are destroyed when their last user releases them.
+ *
+ * @author btarczali
+ */
+public final class VCommanderClientRegistry {
+
+	private static final VCommanderClientRegistry INSTANCE = new VCommanderClientRegistry();
+
+	private final Map<ClientKey, VCommanderClient> clients = new HashMap<>();
+
+
+	private VCommanderClientRegistry() {
+	}
+
+	/**
+	 * @return the controller wide registry
+	 */
+	public static VCommanderClientRegistry get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the shared client for the given configuration, creating it when needed.
+	 * The caller must call {@link VCommanderClient#close()} when done with the client.
+	 *
+	 * @param address			vCommander address
+	 * @param credentialsId		the ID of the credential used to connect
+	 * @param orgName			the organization name, can be null
+	 * @param factory			used to create the client, when there is no shared one yet
+	 *
+	 * @return a shared client
+	 *
+	 * @throws VCommanderException 	If the client cannot be created
+	 */
+	public synchronized VCommanderClient acquire(String address, String credentialsId, String orgName, ClientFactory factory) throws VCommanderException {
+		ClientKey key = new ClientKey(address, credentialsId, orgName);
+		VCommanderClient client = clients.get(key);
+		if (client == null) {
+			client = factory.create();
+			client.share();
+			clients.put(key, client);
+		}
+		return client.retain();
+	}
+
+	/**
+	 * Retires all the shared clients, for example when the global configuration changed.
+	 * Clients in use are destroyed when released; new callers get a new client.
+	 */
+	public synchronized void invalidate() {
+		List<VCommanderClient> retiredClients = new ArrayList<>(clients.values());
+		clients.clear();
+		for (VCommanderClient client : retiredClients) {
+			client.retire();
+		}
+	}
+
+	/**
+	 * @return the usage counters of the catalog caches of the shared clients
+	 */
+	public synchronized CatalogCacheStatistics getCatalogCacheStatistics() {
+		CatalogCacheStatistics statistics = new CatalogCacheStatistics();
+		for (VCommanderClient client : clients.values()) {
+			statistics.add(client.getCatalogCacheStatistics());
+		}
+		return statistics;
+	}
+
+	/**
+	 * Creates a new client, when there is no shared one for the configuration
+	 */
+	public interface ClientFactory {
+		VCommanderClient create() throws VCommanderException;
+	}
+
+	/**
+	 * The configuration identifying a shared client
+	 */
+	private static final class ClientKey {
+		private final String address;
+		private final String credentialsId;
+		private final String orgName;
+
+		ClientKey(String address, String credentialsId, String orgName) {
+			this.address = address;
+			this.credentialsId = credentialsId;
+			this.orgName = orgName;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof ClientKey)) {
+				return false;
+			}
+			ClientKey other = (ClientKey) obj;
+			return Objects.equals(address, other.address) && Objects.equals(credentialsId, other.credentialsId) && Objects.equals(orgName, other.orgName);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(address, credentialsId, orgName);
+		}
+	}
+}
@@ -13,9 +13,8 @@ package com.embotics.vlm.rest.v30.client;
 
 import java.io.PrintStream;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.ws.rs.core.MediaType;
 
@@ -26,6 +25,8 @@ import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 
 import com.embotics.vlm.rest.v30.client.model.Comment;
+import com.embotics.vlm.rest.v30.client.model.CommentWatermark;
+import com.embotics.vlm.rest.v30.client.model.PollingProgress;
 import com.embotics.vlm.rest.v30.client.model.VCommanderException;
 import com.embotics.vlm.rest.v30.client.model.WorkflowTargetType;
 import com.sun.jersey.api.client.ClientResponse;
@@ -65,28 +66,36 @@ public class WorkflowsClient {
 	private static final String TASK_STATE_CANCELLED = "CANCELLED";
 	private static final String TASK_STATE_CANCEL_REQUESTED = "CANCEL_REQUESTED";
 	
+	private static final String WORKFLOW_ID = "id";
 	private static final String WORKFLOW_STATUS = "status";
 	
 	//not all the statuses are listed - only the final ones
 	private static final String WORKFLOW_STATUS_COMPLETED = "COMPLETED";
 	private static final String WORKFLOW_STATUS_REJECTED = "REJECTED";
 	private static final String WORKFLOW_STATUS_ERROR = "ERROR";
+	private static final String WORKFLOW_STATUS_WAITING_FOR_APPROVAL = "WAITING_FOR_APPROVAL";
 	
 	private static final String MANAGED_OBJECT_TYPE = "type";
 	private static final String MANAGED_OBJECT_TYPE_WORKFLOW = "WORKFLOW";
 	private static final String MANAGED_OBJECT_ID = "id";
 
 	private final WebResource webResource;
+	private final StatusBatcher statusBatcher;
+	private final SingleFlight singleFlight = new SingleFlight();
+	private final CatalogCache<String, Long> workflowDefinitions = new CatalogCache<>(this::lookupWorkflowDefinition);
+	private final CatalogCache<Long, String> workflowDefinitionTargetTypes = new CatalogCache<>(this::lookupWorkflowDefinitionTargetType);
 
 
 	public WorkflowsClient(WebResource webResource) {
 		this.webResource = webResource;
+		this.statusBatcher = new StatusBatcher(webResource.path(WORKFLOWS_PATH), item -> item.getLong(WORKFLOW_ID));
 	}
 
 	
 	/**
 	 * Retrieve the command workflow definition with the given name.
 	 * If the command workflow definition is not found exception will occur.
+	 * The result is cached, see {@link CatalogCache}.
 	 * 
 	 * @param workflowName			The name of the workflow definition
 	 * 
@@ -99,7 +108,10 @@ public class WorkflowsClient {
 		if (StringUtils.isBlank(workflowName)) {
 			throw new VCommanderException("No workflowName provided.");
 		}
+		return workflowDefinitions.get(workflowName);
+	}
 
+	private Long lookupWorkflowDefinition(String workflowName) throws JSONException, VCommanderException {
 		//build the REST filter to filter workflow definitions by name and type
 		String typeFilter = ClientUtils.buildFilter(WORKFLOW_DEFINITION_TYPE, ClientUtils.RestFilterOperator.eq, WORKFLOW_DEFINITION_TYPE_COMMAND);
 		String nameFilter = ClientUtils.buildFilter(WORKFLOW_DEFINITION_NAME, ClientUtils.RestFilterOperator.eq, ClientUtils.encapsulateInQuots(workflowName));
@@ -128,6 +140,7 @@ public class WorkflowsClient {
 	/**
 	 * Retrieve the command workflow target type for the specified workflow definition ID.
 	 * If the command workflow definition is not found exception will occur.
+	 * The result is cached, see {@link CatalogCache}.
 	 * 
 	 * @param workflowDefinitionId	The ID of the workflow definition
 	 * 
@@ -140,7 +153,10 @@ public class WorkflowsClient {
 		if (workflowDefinitionId == null) {
 			throw new VCommanderException("No workflowDefinitionId provided.");
 		}
+		return workflowDefinitionTargetTypes.get(workflowDefinitionId);
+	}
 
+	private String lookupWorkflowDefinitionTargetType(Long workflowDefinitionId) throws JSONException, VCommanderException {
 		ClientResponse workflowDefinitionResponse = webResource.path(WORKFLOW_DEFINITIONS_PATH)
 														.path(workflowDefinitionId.toString())
 														.accept(MediaType.APPLICATION_JSON)
@@ -154,6 +170,13 @@ public class WorkflowsClient {
 		return workflowDefinitionJSON.getString(WORKFLOW_DEFINITION_TARGET_TYPE);
 	}
 
+	/**
+	 * @return the usage counters of the catalog caches of this client
+	 */
+	CatalogCacheStatistics getCatalogCacheStatistics() {
+		return new CatalogCacheStatistics().add(workflowDefinitions.getStatistics()).add(workflowDefinitionTargetTypes.getStatistics());
+	}
+
 	/**
 	 * Run a Command Workflow in vCommander.
 	 * This call will create a task in vCommander, which will be scheduled based on the queue.
@@ -225,27 +248,98 @@ public class WorkflowsClient {
 	 * @throws VCommanderException 	If something goes wrong
 	 */
 	public Long waitForWorkflowToBeCompleted(String taskId, long timeout, long polling, PrintStream logger) throws JSONException, InterruptedException, VCommanderException {
+		return waitForWorkflowToBeCompleted(taskId, timeout, polling, logger, false);
+	}
+
+	/**
+	 * Same as {@link #waitForWorkflowToBeCompleted(String, long, long, PrintStream)}, optionally in low-latency mode.
+	 * In low-latency mode the first seconds are polled much quicker, 
+	 * so workflows finishing in a few seconds do not wait for a full polling interval.
+	 * 
+	 * @param taskId 				The response received when the workflow was submitted
+	 * @param timeout				Timeout in minutes
+	 * @param polling				Polling interval in seconds
+	 * @param logger				A PrintStream, used for logging
+	 * @param lowLatency			True for workflows expected to finish in a few seconds
+	 * 
+	 * @return The workflow ID
+	 * 
+	 * @throws JSONException		If there is a syntax error
+	 * @throws InterruptedException	If the wait is interrupted
+	 * @throws VCommanderException 	If something goes wrong
+	 */
+	public Long waitForWorkflowToBeCompleted(String taskId, long timeout, long polling, PrintStream logger, boolean lowLatency) throws JSONException, InterruptedException, VCommanderException {
+		return ClientUtils.await(waitForWorkflowToBeCompletedAsync(taskId, timeout, polling, logger, new PollingProgress(), lowLatency));
+	}
+
+	/**
+	 * Same as {@link #waitForWorkflowToBeCompleted(String, long, long, PrintStream)}, without blocking the caller.
+	 * The task and then the workflow are polled by the {@link PollingScheduler}.
+	 * 
+	 * @param taskId 				The response received when the workflow was submitted
+	 * @param timeout				Timeout in minutes
+	 * @param polling				Polling interval in seconds
+	 * @param logger				A PrintStream, used for logging
+	 * 
+	 * @return A future completed with the workflow ID. Cancelling the future stops the polling.
+	 * 
+	 * @throws VCommanderException 	If something goes wrong
+	 */
+	public CompletableFuture<Long> waitForWorkflowToBeCompletedAsync(String taskId, long timeout, long polling, PrintStream logger) throws VCommanderException {
+		return waitForWorkflowToBeCompletedAsync(taskId, timeout, polling, logger, new PollingProgress());
+	}
+
+	/**
+	 * Same as {@link #waitForWorkflowToBeCompletedAsync(String, long, long, PrintStream)}, continuing an earlier wait.
+	 * 
+	 * @param taskId 				The response received when the workflow was submitted
+	 * @param timeout				Timeout in minutes, counted from the start of the progress
+	 * @param polling				Polling interval in seconds
+	 * @param logger				A PrintStream, used for logging
+	 * @param progress				The progress of the earlier wait, updated while polling
+	 * 
+	 * @return A future completed with the workflow ID. Cancelling the future stops the polling.
+	 * 
+	 * @throws VCommanderException 	If something goes wrong
+	 */
+	public CompletableFuture<Long> waitForWorkflowToBeCompletedAsync(String taskId, long timeout, long polling, PrintStream logger, PollingProgress progress) throws VCommanderException {
+		return waitForWorkflowToBeCompletedAsync(taskId, timeout, polling, logger, progress, false);
+	}
+
+	/**
+	 * Same as {@link #waitForWorkflowToBeCompletedAsync(String, long, long, PrintStream, PollingProgress)}, optionally in low-latency mode.
+	 * See {@link #waitForWorkflowToBeCompleted(String, long, long, PrintStream, boolean)}
+	 * 
+	 * @param taskId 				The response received when the workflow was submitted
+	 * @param timeout				Timeout in minutes, counted from the start of the progress
+	 * @param polling				Polling interval in seconds
+	 * @param logger				A PrintStream, used for logging
+	 * @param progress				The progress of the earlier wait, updated while polling
+	 * @param lowLatency			True for workflows expected to finish in a few seconds
+	 * 
+	 * @return A future completed with the workflow ID. Cancelling the future stops the polling.
+	 * 
+	 * @throws VCommanderException 	If something goes wrong
+	 */
+	public CompletableFuture<Long> waitForWorkflowToBeCompletedAsync(String taskId, long timeout, long polling, PrintStream logger, PollingProgress progress, boolean lowLatency) throws VCommanderException {
 		if (StringUtils.isBlank(taskId)) {
 			throw new VCommanderException("No taskId provided.");
 		}
 
-		Long workflowId = null;
-		String workflowStatus = null;
-		long startTime = System.currentTimeMillis();
-		Set<String> loggedComments = new HashSet<>();
-
-		do {
-			if (workflowId == null) {
-				workflowId = checkWorkflowTaskIfStartedAndWait(taskId, startTime, timeout, polling, logger);
-			} else {
-				workflowStatus = checkWorkflowIfCompletedAndWait(workflowId, loggedComments, startTime, timeout, polling, logger);
-			}
-		} while (!WORKFLOW_STATUS_COMPLETED.equals(workflowStatus));
-
-		return workflowId;
+		WorkflowPollingTask pollingTask = new WorkflowPollingTask(taskId, timeout, polling, logger, progress, lowLatency);
+		CompletableFuture<Long> future = PollingScheduler.get().submit(pollingTask);
+		future.whenComplete((result, failure) -> pollingTask.setWorkflowId(null));
+		return future;
 	}
 
-	private Long checkWorkflowTaskIfStartedAndWait(String taskId, long startTimeInMillis, long timeoutInMinutes, long pollingInSeconds, PrintStream logger) throws VCommanderException, JSONException, InterruptedException {
+	/**
+	 * Checks once if the task has started the workflow
+	 * 
+	 * @return the time to wait until the next check, in milliseconds
+	 */
+	private long checkWorkflowTaskIfStarted(WorkflowPollingTask pollingTask) throws VCommanderException, JSONException {
+		String taskId = pollingTask.taskId;
+		PrintStream logger = pollingTask.logger;
 		ClientUtils.log(logger, "\tLooking up task with ID: " + taskId);
 
 		JSONObject task = getTask(taskId, logger);
@@ -268,73 +362,92 @@ public class WorkflowsClient {
 
 		if (workflowId != null) {
 			ClientUtils.log(logger, "Task was started and has the related workflow ID: " + workflowId);
+			pollingTask.setWorkflowId(workflowId);
 		} else {
 			if(TASK_STATE_COMPLETE.equals(taskState)) {
 				throw new VCommanderException("Task finished but doesn't have the workflow ID.");
 			}
 
 			long currentTimeInMillis = System.currentTimeMillis();
-			if (startTimeInMillis + timeoutInMinutes * DateUtils.MILLIS_PER_MINUTE <= currentTimeInMillis) {
-				throw new VCommanderException("Task doesn't have the workflow ID, and timeout reached: " + timeoutInMinutes + " minutes");
+			long deadlineInMillis = pollingTask.getDeadlineInMillis();
+			if (deadlineInMillis <= currentTimeInMillis) {
+				throw new VCommanderException("Task doesn't have the workflow ID, and timeout reached: " + pollingTask.timeoutInMinutes + " minutes");
 			} else {
-				long toWait = Math.min(pollingInSeconds * DateUtils.MILLIS_PER_SECOND, startTimeInMillis + timeoutInMinutes * DateUtils.MILLIS_PER_MINUTE - currentTimeInMillis);
+				long toWait = pollingTask.pollingPolicy.nextDelay(taskState, false, deadlineInMillis - currentTimeInMillis);
 				ClientUtils.log(logger, "Task doesn't have the related workflow ID. Wait " + toWait / DateUtils.MILLIS_PER_SECOND + " seconds ...");
-				Thread.sleep(toWait);
+				return toWait;
 			}
 		}
-		return workflowId;
+		// the workflow is checked right away
+		return 0;
 	}
 	
-	private String checkWorkflowIfCompletedAndWait(Long workflowId, Set<String> loggedComments, long startTimeInMillis, long timeoutInMinutes, long pollingInSeconds, PrintStream logger) throws VCommanderException, JSONException, InterruptedException {
+	/**
+	 * Checks the workflow status once
+	 * 
+	 * @return the time to wait until the next check, in milliseconds
+	 */
+	private long checkWorkflowIfCompleted(WorkflowPollingTask pollingTask) throws VCommanderException, JSONException {
+		Long workflowId = pollingTask.workflowId;
+		PrintStream logger = pollingTask.logger;
 		ClientUtils.log(logger, "Looking up workflow with ID: " + workflowId);
-		JSONObject workflowJSON = getWorkflow(workflowId, logger);
-		String workflowStatus = getWorkflowStatus(workflowJSON);
-		
-		if (logger != null) {
-			// fetch the workflow comments, and add it to the log if they were not added yet
-			List<Comment> comments = getWorkflowComments(workflowId, logger);
-			for (Comment comment : comments) {
-				String commentStr = comment.toString();
-				if (!loggedComments.contains(commentStr)) {
+
+		// fetch the new workflow comments while the status is looked up
+		AsyncCalls.Call<List<Comment>> fetchComments = () -> getWorkflowComments(workflowId, pollingTask.progress.getCommentWatermark(), logger);
+		CompletableFuture<List<Comment>> pendingComments = logger != null ? ClientUtils.fetchCommentsAsync(fetchComments) : null;
+		try {
+			JSONObject workflowJSON = lookupWorkflow(workflowId, logger);
+			String workflowStatus = getWorkflowStatus(workflowJSON);
+			
+			if (logger != null) {
+				// add the new workflow comments to the log; a final status is not held up by late comments
+				boolean finalStatus = WORKFLOW_STATUS_COMPLETED.equals(workflowStatus) || WORKFLOW_STATUS_ERROR.equals(workflowStatus) || WORKFLOW_STATUS_REJECTED.equals(workflowStatus);
+				List<Comment> comments = ClientUtils.awaitComments(pendingComments, fetchComments, finalStatus);
+				for (Comment comment : comments) {
 					logger.println();
 					logger.println("Comment: ");
-					logger.println(commentStr);
+					logger.println(comment.toString());
 					logger.println();
-
-					loggedComments.add(commentStr);
+				}
+				if (!comments.isEmpty()) {
+					pollingTask.progress.commentsLogged();
 				}
 			}
-		}
-		
-		switch (workflowStatus) {
-		case WORKFLOW_STATUS_COMPLETED:
-			break;
-
-		case WORKFLOW_STATUS_ERROR:
-			throw new VCommanderException("Workflow failed.");
 			
-		case WORKFLOW_STATUS_REJECTED:
-			throw new VCommanderException("Workflow rejected.");
-
-		default:
-			long currentTimeInMillis = System.currentTimeMillis();
-			if (startTimeInMillis + timeoutInMinutes * DateUtils.MILLIS_PER_MINUTE <= currentTimeInMillis) {
-				throw new VCommanderException("Workflow did not completed in the given timeout: " + timeoutInMinutes + " minutes");
-			} else {
-				long toWait = Math.min(pollingInSeconds * DateUtils.MILLIS_PER_SECOND, startTimeInMillis + timeoutInMinutes * DateUtils.MILLIS_PER_MINUTE - currentTimeInMillis);
+			switch (workflowStatus) {
+			case WORKFLOW_STATUS_COMPLETED:
+				pollingTask.complete(workflowId);
+				return 0;
+
+			case WORKFLOW_STATUS_ERROR:
+				throw new VCommanderException("Workflow failed.");
+				
+			case WORKFLOW_STATUS_REJECTED:
+				throw new VCommanderException("Workflow rejected.");
+
+			default:
+				long currentTimeInMillis = System.currentTimeMillis();
+				long deadlineInMillis = pollingTask.getDeadlineInMillis();
+				if (deadlineInMillis <= currentTimeInMillis) {
+					throw new VCommanderException("Workflow did not completed in the given timeout: " + pollingTask.timeoutInMinutes + " minutes");
+				}
+				boolean waitingForPeople = WORKFLOW_STATUS_WAITING_FOR_APPROVAL.equals(workflowStatus);
+				long toWait = pollingTask.pollingPolicy.nextDelay(workflowStatus, waitingForPeople, deadlineInMillis - currentTimeInMillis);
 				ClientUtils.log(logger, "Workflow status is: " + workflowStatus + ". Wait " + toWait / DateUtils.MILLIS_PER_SECOND + " seconds ...");
-				Thread.sleep(toWait);
+				return toWait;
+			}
+		} finally {
+			// not left running when the lookup failed
+			if (pendingComments != null) {
+				pendingComments.cancel(false);
 			}
-			break;
 		}
-		
-		return workflowStatus;
 	}
 	
-	private List<Comment> getWorkflowComments(Long workflowId, PrintStream logger) {
+	private List<Comment> getWorkflowComments(Long workflowId, CommentWatermark watermark, PrintStream logger) {
 		try {
-			ClientResponse commentsResponse = webResource.path(WORKFLOWS_PATH).path(workflowId.toString()).path(WORKFLOW_COMMENTS_PATH).accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
-			return ClientUtils.getComments(commentsResponse);
+			WebResource commentsResource = webResource.path(WORKFLOWS_PATH).path(workflowId.toString()).path(WORKFLOW_COMMENTS_PATH);
+			return ClientUtils.getNewComments(commentsResource, watermark, singleFlight);
 		} catch (Exception e) {
 			ClientUtils.log(logger, "\tError while looking up workflow comments for workflow with ID: " + workflowId + " Message: " + e.getMessage());
 			return Collections.emptyList();
@@ -343,11 +456,15 @@ public class WorkflowsClient {
 	
 	private JSONObject getTask(String taskId, PrintStream logger) {
 		try {
-			ClientResponse requestResponse = webResource.path(TASKS_PATH).path(taskId).accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
-			ClientUtils.checkResponse(requestResponse, Status.OK.getStatusCode());
-	
-			String requestStr = requestResponse.getEntity(String.class);
-			return new JSONObject(requestStr);
+			WebResource taskResource = webResource.path(TASKS_PATH).path(taskId);
+			// builds waiting for the same task share the lookup
+			return singleFlight.execute(taskResource.getURI().toString(), () -> {
+				ClientResponse requestResponse = taskResource.accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
+				ClientUtils.checkResponse(requestResponse, Status.OK.getStatusCode());
+		
+				String requestStr = requestResponse.getEntity(String.class);
+				return new JSONObject(requestStr);
+			});
 		} catch (Exception e) {
 			ClientUtils.log(logger, "\tError while looking up task with ID: " + taskId + " Message: " + e.getMessage());
 			return null;
@@ -381,17 +498,77 @@ public class WorkflowsClient {
 		return StringUtils.EMPTY;
 	}
 	
+	/**
+	 * Look up the workflow in bulk with the other in-flight workflows, or on its own
+	 */
+	private JSONObject lookupWorkflow(Long workflowId, PrintStream logger) {
+		JSONObject workflowJSON = statusBatcher.get(workflowId);
+		// the collection item may not be complete; read the whole workflow
+		return workflowJSON != null && workflowJSON.has(WORKFLOW_STATUS) ? workflowJSON : getWorkflow(workflowId, logger);
+	}
+	
 	private JSONObject getWorkflow(Long workflowId, PrintStream logger) {
 		try {
-			ClientResponse requestResponse = webResource.path(WORKFLOWS_PATH).path(workflowId.toString()).accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
-			ClientUtils.checkResponse(requestResponse, Status.OK.getStatusCode());
-	
-			String requestStr = requestResponse.getEntity(String.class);
-			return new JSONObject(requestStr);
+			WebResource workflowResource = webResource.path(WORKFLOWS_PATH).path(workflowId.toString());
+			// builds waiting for the same workflow share the lookup
+			return singleFlight.execute(workflowResource.getURI().toString(), () -> {
+				ClientResponse requestResponse = workflowResource.accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
+				ClientUtils.checkResponse(requestResponse, Status.OK.getStatusCode());
+		
+				String requestStr = requestResponse.getEntity(String.class);
+				return new JSONObject(requestStr);
+			});
 		} catch (Exception e) {
 			ClientUtils.log(logger, "\tError while looking up workflow with ID: " + workflowId + " Message: " + e.getMessage());
 			return null;
 		}
 	}
 
+	/**
+	 * A workflow task, waiting for its workflow to be completed
+	 * The task is polled until it has the workflow ID, then the workflow is polled
+	 */
+	private class WorkflowPollingTask extends PollingScheduler.PollingTask<Long> {
+		private final String taskId;
+		private final long timeoutInMinutes;
+		private final PollingPolicy pollingPolicy;
+		private final PrintStream logger;
+		private final PollingProgress progress;
+		private Long workflowId;
+
+		WorkflowPollingTask(String taskId, long timeoutInMinutes, long pollingInSeconds, PrintStream logger, PollingProgress progress, boolean lowLatency) {
+			this.taskId = taskId;
+			this.timeoutInMinutes = timeoutInMinutes;
+			this.pollingPolicy = new PollingPolicy(pollingInSeconds, lowLatency);
+			this.logger = logger;
+			this.progress = progress;
+		}
+
+		/**
+		 * Include the workflow in the bulk lookups while it is polled
+		 */
+		synchronized void setWorkflowId(Long workflowId) {
+			if (this.workflowId != null) {
+				statusBatcher.unregister(this.workflowId);
+			}
+			if (workflowId != null) {
+				statusBatcher.register(workflowId);
+			}
+			this.workflowId = workflowId;
+		}
+
+		@Override
+		protected long getDeadlineInMillis() {
+			return progress.getStartTimeInMillis() + timeoutInMinutes * DateUtils.MILLIS_PER_MINUTE;
+		}
+
+		@Override
+		protected long poll() throws VCommanderException, JSONException {
+			if (workflowId == null) {
+				return checkWorkflowTaskIfStarted(this);
+			}
+			return checkWorkflowIfCompleted(this);
+		}
+	}
+
 }
@@ -29,12 +29,21 @@ public class Comment {
 	private final String text;
 	private final String author;
 	private final String date;
+	private final String utcDate;
 
 	public Comment(JSONObject comment) throws JSONException {
 		this.event = getDefaultString(comment, REQUESTED_SERVICE_COMMENT_EVENT, null);
 		this.text = getDefaultString(comment, REQUESTED_SERVICE_COMMENT_TEXT, null);
 		this.author = getDefaultString(comment, REQUESTED_SERVICE_COMMENT_AUTHOR, REQUESTED_SERVICE_COMMENT_AUTHOR_DEFAULT);
-		this.date = formatDate(getDefaultString(comment, REQUESTED_SERVICE_COMMENT_DATE, null));
+		this.utcDate = getDefaultString(comment, REQUESTED_SERVICE_COMMENT_DATE, null);
+		this.date = formatDate(utcDate);
+	}
+	
+	/**
+	 * @return the date as sent by vCommander, example: 2017-12-06T18:55:09Z
+	 */
+	public String getUtcDate() {
+		return utcDate;
 	}
 	
 	private String getDefaultString(JSONObject obj, String key, String defaultValue) throws JSONException {
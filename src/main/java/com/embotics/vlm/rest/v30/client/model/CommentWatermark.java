@@ -0,0 +1,88 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client.model;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tracks the comments already logged for a service request or workflow
+ *
+ * Only the date of the newest logged comment is kept, with the comments logged for that exact date,
+ * so the tracking does not grow with the number of comments.
+ * The date is used to fetch only the comments not older than the newest logged comment.
+ *
+ * @author btarczali
+ */
+public class CommentWatermark implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private String utcDate;
+	private final Set<String> loggedAtDate = new HashSet<>();
+	private boolean incremental = true;
+
+
+	public CommentWatermark() {
+	}
+
+	/**
+	 * @param utcDate	the date of the newest logged comment, in the vCommander UTC format
+	 */
+	public CommentWatermark(String utcDate) {
+		this.utcDate = utcDate;
+	}
+
+	/**
+	 * @return the date of the newest logged comment, or null if none logged yet
+	 */
+	public synchronized String getUtcDate() {
+		return utcDate;
+	}
+
+	/**
+	 * Records the comment as logged
+	 * Comments must be added from the oldest to the newest.
+	 *
+	 * @param comment	the comment to be logged
+	 * @return true if the comment was not logged yet
+	 */
+	public synchronized boolean add(Comment comment) {
+		String commentDate = comment.getUtcDate();
+		if (commentDate == null) {
+			commentDate = "";
+		}
+
+		// vCommander UTC dates are ordered alphabetically
+		int order = utcDate == null ? 1 : commentDate.compareTo(utcDate);
+		if (order < 0) {
+			return false;
+		}
+		if (order > 0) {
+			utcDate = commentDate;
+			loggedAtDate.clear();
+		}
+		return loggedAtDate.add(comment.toString());
+	}
+
+	/**
+	 * @return false if vCommander rejected filtering the comments by date, and all comments must be fetched
+	 */
+	public synchronized boolean isIncremental() {
+		return incremental && utcDate != null && !utcDate.isEmpty();
+	}
+
+	public synchronized void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+}
@@ -1,11 +1,16 @@
 package com.embotics.vlm.rest.v30.client.model;
 
+import java.io.Serializable;
+
 /**
  * Data class used in response received from vCommander when a service request is deployed
+ * Sent back to the controller when the request is waited for on an agent.
  * 
  * @author btarczali
  */
-public class DeployedComponentInfo {
+public class DeployedComponentInfo implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	private final int serviceIndex;
 	private final int componentIndex;
 	private final String componentType;
@@ -0,0 +1,69 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client.model;
+
+import java.io.Serializable;
+
+/**
+ * The progress of waiting for a service request or workflow
+ *
+ * Handing a saved progress to a new wait continues the old one:
+ * the timeout is counted from the original start, and the logged comments are not logged again.
+ *
+ * @author btarczali
+ */
+public class PollingProgress implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final long startTimeInMillis;
+	private final CommentWatermark commentWatermark;
+	private transient volatile Runnable listener;
+
+
+	public PollingProgress() {
+		this(System.currentTimeMillis(), new CommentWatermark());
+	}
+
+	/**
+	 * @param startTimeInMillis		when the wait was started
+	 * @param commentWatermark		the comments already logged
+	 */
+	public PollingProgress(long startTimeInMillis, CommentWatermark commentWatermark) {
+		this.startTimeInMillis = startTimeInMillis;
+		this.commentWatermark = commentWatermark;
+	}
+
+	public long getStartTimeInMillis() {
+		return startTimeInMillis;
+	}
+
+	public CommentWatermark getCommentWatermark() {
+		return commentWatermark;
+	}
+
+	/**
+	 * @param listener	called when new comments were logged
+	 */
+	public void setListener(Runnable listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Notifies the listener that new comments were logged
+	 */
+	public void commentsLogged() {
+		Runnable currentListener = listener;
+		if (currentListener != null) {
+			currentListener.run();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+
+/**
+ * Unit tests for CredentialCache
+ * 
+ * @author btarczali
+ */
+public class CredentialCacheTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private StandardUsernamePasswordCredentials credential;
+
+    @Before
+    public void setup() {
+    	credential = new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "commander", "Commander", "user", "password");
+    	CredentialCache.get().invalidate();
+    }
+
+    @Test
+    public void get_Cached() {
+    	Assert.assertSame("Credential not matching.", credential, lookup("commander", "https://commander"));
+    	Assert.assertSame("Credential not matching.", credential, lookup("commander", "https://commander"));
+    	Assert.assertEquals("Cached credential should not be looked up again.", 1, lookups.get());
+
+    	// another address may match another domain
+    	lookup("commander", "https://other");
+    	Assert.assertEquals("Credential of another address should be looked up.", 2, lookups.get());
+    }
+
+    @Test
+    public void get_NotFound() {
+    	credential = null;
+    	Assert.assertNull("Credential should not be found.", lookup("missing", "https://commander"));
+    	Assert.assertNull("Credential should not be found.", lookup("missing", "https://commander"));
+    	Assert.assertEquals("Missing credential should be looked up again.", 2, lookups.get());
+    }
+
+    @Test
+    public void get_CredentialsSaved() throws Exception {
+    	lookup("commander", "https://commander");
+
+    	SystemCredentialsProvider.getInstance().save();
+    	lookup("commander", "https://commander");
+    	Assert.assertEquals("Credential should be looked up again once the credentials are saved.", 2, lookups.get());
+    }
+
+    private StandardUsernamePasswordCredentials lookup(String id, String address) {
+    	return CredentialCache.get().get(StandardUsernamePasswordCredentials.class, id, address, () -> {
+    		lookups.incrementAndGet();
+    		return credential;
+    	});
+    }
+
+}
@@ -0,0 +1,83 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin;
+
+import java.net.URL;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebRequest;
+
+/**
+ * Unit tests for VCommanderCallbackAction
+ *
+ * @author btarczali
+ */
+public class VCommanderCallbackActionTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void notify_UnknownSecret() throws Exception {
+    	String url = jenkins.getURL() + VCommanderCallbackAction.URL_NAME + "/notify?secret=unknown";
+    	Assert.assertEquals("Unknown secret should be rejected.", 403, post(url));
+    }
+
+    @Test
+    public void notify_BeforeSubmitted() throws Exception {
+    	VCommanderCallbackAction.Callback callback = new VCommanderCallbackAction.Callback(jenkins.getURL().toString());
+    	try {
+    		// called back while the request is still submitted
+    		Assert.assertEquals("Callback should be accepted.", 202, post(callback.getUrl() + "&id=1001&state=COMPLETED"));
+    		Assert.assertTrue("Callback should be recorded.", callback.isCalledBack());
+    	} finally {
+    		callback.close();
+    	}
+    	Assert.assertEquals("Closed callback should be rejected.", 403, post(callback.getUrl() + "&id=1001&state=COMPLETED"));
+    }
+
+    @Test
+    public void notify_Expected() throws Exception {
+    	VCommanderCallbackAction.Callback callback = new VCommanderCallbackAction.Callback(jenkins.getURL().toString());
+    	try {
+    		callback.expect(1002L);
+    		Assert.assertFalse("Callback should not be recorded yet.", callback.isCalledBack());
+
+    		// the request is polled right away
+    		Assert.assertEquals("Callback should be accepted.", 202, post(callback.getUrl() + "&id=1002&state=COMPLETED"));
+    		Assert.assertTrue("Callback should be recorded.", callback.isCalledBack());
+    	} finally {
+    		callback.close();
+    	}
+    }
+
+    @Test
+    public void isCallbackUrlPassed() {
+    	Assert.assertTrue("Braced variable should be found.", VCommanderCallbackAction.isCallbackUrlPassed("{ \"url\": \"${VCOMMANDER_CALLBACK_URL}\" }"));
+    	Assert.assertTrue("Variable should be found.", VCommanderCallbackAction.isCallbackUrlPassed("{ \"url\": \"$VCOMMANDER_CALLBACK_URL\" }"));
+    	Assert.assertFalse("Another variable should not be found.", VCommanderCallbackAction.isCallbackUrlPassed("{ \"url\": \"$VCOMMANDER_CALLBACK_URL_2\" }"));
+    	Assert.assertFalse("Payload without the variable.", VCommanderCallbackAction.isCallbackUrlPassed("{ \"service_id\": 876028 }"));
+    	Assert.assertFalse("No payload.", VCommanderCallbackAction.isCallbackUrlPassed(null));
+    }
+
+    private int post(String url) throws Exception {
+    	JenkinsRule.WebClient webClient = jenkins.createWebClient();
+    	webClient.getOptions().setThrowExceptionOnFailingStatusCode(false);
+    	return webClient.getPage(new WebRequest(new URL(url), HttpMethod.POST)).getWebResponse().getStatusCode();
+    }
+
+}
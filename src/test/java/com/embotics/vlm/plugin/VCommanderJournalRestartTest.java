@@ -0,0 +1,122 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+import com.embotics.vlm.plugin.mock.VCommanderClientMock;
+import com.embotics.vlm.rest.v30.client.model.Comment;
+import com.embotics.vlm.rest.v30.client.model.DeployedComponentInfo;
+import com.embotics.vlm.rest.v30.client.model.PollingProgress;
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+import jenkins.model.GlobalConfiguration;
+
+/**
+ * Unit tests for the Pipeline waits continued from the VCommanderJournal after a Jenkins restart
+ *
+ * @author btarczali
+ */
+public class VCommanderJournalRestartTest {
+
+    private static final String COMMENT_DATE = "2017-12-06T18:55:09Z";
+
+    @Rule
+    public RestartableJenkinsRule story = new RestartableJenkinsRule();
+
+    @Test
+    public void requestService_ContinuedAfterRestart() {
+    	story.then(j -> {
+    		// saved with the configuration, so the mock is used right away after the restart
+    		VCommanderConfig config = j.jenkins.getDescriptorList(GlobalConfiguration.class).get(VCommanderConfig.class);
+    		RestartClientMock client = new RestartClientMock();
+    		client.setRequestID(1001L);
+    		config.setvCommanderClient(client);
+    		config.save();
+
+    		WorkflowJob job = j.jenkins.createProject(WorkflowJob.class, "restart");
+    		job.setDefinition(new CpsFlowDefinition("vCommanderRequestService payload: '{ \"service_id\": 876028 }', timeout: 20, polling: 30", true));
+    		WorkflowRun build = job.scheduleBuild2(0).waitForStart();
+
+    		// wait until the step waits for the request, with a comment logged
+    		long end = System.currentTimeMillis() + 60000;
+    		while (getJournalWatermark() == null && System.currentTimeMillis() < end) {
+    			Thread.sleep(100);
+    		}
+    		Assert.assertEquals("Watermark not journaled.", COMMENT_DATE, getJournalWatermark());
+    		Assert.assertTrue("Build should still wait.", build.isBuilding());
+    		Assert.assertEquals("Request should be submitted once.", 1, RestartClientMock.requests.get());
+
+    		RestartClientMock.restarted = true;
+    	});
+
+    	story.then(j -> {
+    		WorkflowRun build = j.jenkins.getItemByFullName("restart", WorkflowJob.class).getBuildByNumber(1);
+    		j.assertBuildStatusSuccess(j.waitForCompletion(build));
+
+    		j.assertLogContains("Service request successfully completed", build);
+    		Assert.assertEquals("Request should not be submitted again.", 1, RestartClientMock.requests.get());
+    		Assert.assertEquals("Watermark not restored from the journal.", COMMENT_DATE, RestartClientMock.resumedWatermark);
+    		Assert.assertTrue("Finished wait should be closed.", VCommanderJournal.get().getEntries().isEmpty());
+    	});
+    }
+
+    private static String getJournalWatermark() {
+    	List<VCommanderJournal.Entry> entries = VCommanderJournal.get().getEntries();
+    	return entries.isEmpty() ? null : entries.get(0).toProgress().getCommentWatermark().getUtcDate();
+    }
+
+    /**
+     * Logs a comment and keeps waiting until Jenkins is restarted; completes the wait after the restart
+     */
+    public static class RestartClientMock extends VCommanderClientMock {
+    	static final AtomicInteger requests = new AtomicInteger();
+    	static volatile boolean restarted;
+    	static volatile String resumedWatermark;
+
+    	@Override
+    	public Long requestService(String payload) throws JSONException, VCommanderException {
+    		requests.incrementAndGet();
+    		return super.requestService(payload);
+    	}
+
+    	@Override
+    	public CompletableFuture<List<DeployedComponentInfo>> waitForServiceRequestToBeCompletedAsync(Long requestId, long timeout, long polling, PrintStream logger, PollingProgress progress) throws VCommanderException {
+    		if (restarted) {
+    			resumedWatermark = progress.getCommentWatermark().getUtcDate();
+    			return super.waitForServiceRequestToBeCompletedAsync(requestId, timeout, polling, logger, progress);
+    		}
+
+    		try {
+    			progress.getCommentWatermark().add(new Comment(new JSONObject().put("date", COMMENT_DATE).put("text", "Approved")));
+    		} catch (JSONException e) {
+    			throw new VCommanderException(e, "Invalid comment.");
+    		}
+    		progress.commentsLogged();
+    		return new CompletableFuture<>();
+    	}
+    }
+
+}
@@ -0,0 +1,93 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleBuild;
+
+/**
+ * Unit tests for VCommanderJournal
+ *
+ * @author btarczali
+ */
+public class VCommanderJournalTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private FreeStyleBuild build;
+
+    @Before
+    public void setup() throws Exception {
+    	file = new File(folder.getRoot(), "journal.log");
+    	build = jenkins.buildAndAssertSuccess(jenkins.createFreeStyleProject());
+    }
+
+    @Test
+    public void reload_OpenEntries() throws Exception {
+    	VCommanderJournal journal = new VCommanderJournal(file);
+    	journal.open("first", VCommanderJournal.Type.REQUEST, "100", build, 20, 30);
+    	journal.open("second", VCommanderJournal.Type.WORKFLOW, "200", build, 20, 30);
+    	journal.update("second", "2017-12-06T18:55:09Z");
+    	journal.close("first");
+
+    	// as after a restart
+    	VCommanderJournal reloaded = new VCommanderJournal(file);
+    	Assert.assertNull("Closed entry should not be reloaded.", reloaded.get("first"));
+
+    	VCommanderJournal.Entry entry = reloaded.get("second");
+    	Assert.assertNotNull("Open entry should be reloaded.", entry);
+    	Assert.assertEquals("Entry type not matching.", VCommanderJournal.Type.WORKFLOW, entry.getType());
+    	Assert.assertEquals("Entry ID not matching.", "200", entry.getId());
+    	Assert.assertEquals("Watermark not matching.", "2017-12-06T18:55:09Z", entry.toProgress().getCommentWatermark().getUtcDate());
+    }
+
+    @Test
+    public void reload_PartialLine() throws Exception {
+    	VCommanderJournal journal = new VCommanderJournal(file);
+    	journal.open("first", VCommanderJournal.Type.REQUEST, "100", build, 20, 30);
+    	Files.write(file.toPath(), "{\"op\":\"close\",\"ke".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    	VCommanderJournal reloaded = new VCommanderJournal(file);
+    	Assert.assertNotNull("Partial line should be skipped.", reloaded.get("first"));
+    }
+
+    @Test
+    public void close_Compacts() throws Exception {
+    	VCommanderJournal journal = new VCommanderJournal(file);
+    	journal.open("open", VCommanderJournal.Type.REQUEST, "1", build, 20, 30);
+    	for (int i = 0; i < 1000; i++) {
+    		journal.open("closed" + i, VCommanderJournal.Type.REQUEST, Integer.toString(i), build, 20, 30);
+    		journal.close("closed" + i);
+    	}
+
+    	long lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size();
+    	Assert.assertTrue("Journal should be compacted, but has " + lines + " lines.", lines < 1000);
+    	Assert.assertNotNull("Open entry should be kept.", new VCommanderJournal(file).get("open"));
+    }
+
+}
@@ -17,15 +17,24 @@ import java.util.List;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
 import com.embotics.vlm.plugin.AbstractVCommanderActionTest;
 import com.embotics.vlm.plugin.VCommanderActionRunEnvironmentVariables;
 import com.embotics.vlm.plugin.VCommanderBuilder;
+import com.embotics.vlm.plugin.VCommanderConfig;
 import com.embotics.vlm.plugin.VCommanderEnvironmentContributingAction;
+import com.embotics.vlm.plugin.mock.VCommanderServerMock;
 import com.embotics.vlm.rest.v30.client.model.DeployedComponentInfo;
 
+import hudson.model.Fingerprint;
 import hudson.model.FreeStyleBuild;
 import hudson.model.Result;
 import hudson.model.queue.QueueTaskFuture;
+import jenkins.model.GlobalConfiguration;
 
 /**
  * Unit tests for VCommanderBuilder
@@ -49,6 +58,28 @@ public class VCommanderRequestNewServiceActionTest extends AbstractVCommanderAct
     	Assert.assertEquals("Published service name should be blank.", "", action.getServiceName());
     }
 
+    @Test
+    public void buildStepConfig_LookupServiceWhenDisplayed() throws Exception {
+    	vCommanderClient.setPublishedServiceName("BeforeDisplay");
+    	VCommanderRequestNewServiceAction action = new VCommanderRequestNewServiceAction(payload, true, timeout, polling);
+
+    	// the constructor should not look up the service name
+    	vCommanderClient.setPublishedServiceName("TestService");
+    	Assert.assertEquals("Published service name not matching.", "TestService", action.getServiceName());
+
+    	// once resolved, the name is kept
+    	vCommanderClient.setPublishedServiceName("AfterDisplay");
+    	Assert.assertEquals("Published service name should be kept.", "TestService", action.getServiceName());
+
+    	// the displayed name is saved with the job
+    	project.getBuildersList().add(new VCommanderBuilder(action));
+    	project = jenkins.configRoundtrip(project);
+    	VCommanderRequestNewServiceAction saved = (VCommanderRequestNewServiceAction) project.getBuildersList().get(VCommanderBuilder.class).getAction();
+    	Assert.assertNotSame("Action should be created from the form.", action, saved);
+    	Assert.assertEquals("Published service name should be saved.", "TestService", saved.getServiceName());
+    	Assert.assertTrue("Published service name should be in the job configuration.", project.getConfigFile().asString().contains("<serviceName>TestService</serviceName>"));
+    }
+
     @Test
     public void build_Successful_Sync() throws Exception {
     	build_Successful(true);
@@ -130,6 +161,87 @@ public class VCommanderRequestNewServiceActionTest extends AbstractVCommanderAct
         
     }
     
+    @Test
+    public void build_OnAgent_BuiltOnController() throws Exception {
+    	VCommanderRequestNewServiceAction action = new VCommanderRequestNewServiceAction(payload, true, timeout, polling);
+    	action.setOnAgent(true);
+    	VCommanderBuilder vCommanderBuilder = new VCommanderBuilder(action);
+        project.getBuildersList().add(vCommanderBuilder);
+        
+        vCommanderClient.setRequestID(1L);
+        vCommanderClient.setNewServiceRequestResult(new ArrayList<DeployedComponentInfo>());
+        
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        
+        //built on the controller, so requested with the controller client
+        jenkins.assertLogContains("Creating new service request with payload: " + payload, build);
+        jenkins.assertLogNotContains("on the agent", build);
+        jenkins.assertLogContains("Service request successfully completed", build);
+    }
+    
+    @Test
+    public void build_OnAgent_BuiltOnAgent() throws Exception {
+    	// the agent connects to Commander itself; nothing listens on this address
+    	StandardUsernamePasswordCredentials credential = new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "commander", "Commander", "user", "password");
+    	SystemCredentialsProvider.getInstance().getCredentials().add(credential);
+    	SystemCredentialsProvider.getInstance().save();
+    	VCommanderConfig config = jenkins.jenkins.getDescriptorList(GlobalConfiguration.class).get(VCommanderConfig.class);
+    	config.setAddress("http://localhost:1");
+    	config.setCredentialsId("commander");
+    	config.setConnectTimeout(1);
+    	config.setReadTimeout(1);
+    	config.save();
+
+    	VCommanderRequestNewServiceAction action = new VCommanderRequestNewServiceAction(payload, false, timeout, polling);
+    	action.setOnAgent(true);
+    	project.getBuildersList().add(new VCommanderBuilder(action));
+    	project.setAssignedNode(jenkins.createOnlineSlave());
+
+    	QueueTaskFuture<FreeStyleBuild> build = project.scheduleBuild2(0);
+    	jenkins.assertBuildStatus(Result.FAILURE, build);
+
+    	// requested by the agent, not with the controller client
+    	jenkins.assertLogContains("Creating new service request on the agent with payload: " + payload, build.get());
+    	jenkins.assertLogNotContains("Creating new service request with payload", build.get());
+
+    	// the credential sent to the agent is recorded as used by the build
+    	Fingerprint fingerprint = CredentialsProvider.getFingerprintOf(credential);
+    	Assert.assertNotNull("Credential usage should be tracked.", fingerprint);
+    	Assert.assertTrue("Credential usage should be tracked for the job.", fingerprint.getJobs().contains(project.getFullName()));
+    }
+
+    @Test
+    public void build_OnAgent_Successful() throws Exception {
+    	// the agent runs in its own JVM, so it calls a mock Commander server instead of the mock client
+    	try (VCommanderServerMock server = new VCommanderServerMock(1001L, "componentType1", "componentName1")) {
+	    	SystemCredentialsProvider.getInstance().getCredentials().add(new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, "commander", "Commander", "user", "password"));
+	    	SystemCredentialsProvider.getInstance().save();
+	    	VCommanderConfig config = jenkins.jenkins.getDescriptorList(GlobalConfiguration.class).get(VCommanderConfig.class);
+	    	config.setAddress(server.getAddress());
+	    	config.setCredentialsId("commander");
+	    	config.save();
+
+	    	VCommanderRequestNewServiceAction action = new VCommanderRequestNewServiceAction(payload, true, timeout, polling);
+	    	action.setOnAgent(true);
+	    	project.getBuildersList().add(new VCommanderBuilder(action));
+	    	project.setAssignedNode(jenkins.createOnlineSlave());
+
+	    	FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+
+	    	// requested and completed by the agent
+	    	jenkins.assertLogContains("Creating new service request on the agent with payload: " + payload, build);
+	    	jenkins.assertLogContains("Service was succesfuly requested. RequestID: 1001", build);
+	    	jenkins.assertLogContains("Service request successfully completed", build);
+
+	    	// the request ID and the deployed components are sent back to the controller
+	    	VCommanderEnvironmentContributingAction envAction = build.getAction(VCommanderEnvironmentContributingAction.class);
+	    	Assert.assertNotNull("No environment variables created", envAction);
+	    	Assert.assertEquals("Request ID environment variable not matching", "1001", envAction.getEnvValue("VCOMMANDER_REQUESTED_SERVICE_ID"));
+	    	Assert.assertEquals("Component Name environment variable not matching", "componentName1", envAction.getEnvValue("VCOMMANDER_REQUESTED_SERVICE1_COMPONENT1_NAME"));
+	    	Assert.assertEquals("Component Type environment variable not matching", "componentType1", envAction.getEnvValue("VCOMMANDER_REQUESTED_SERVICE1_COMPONENT1_TYPE"));
+    	}
+    }
+    
     @Test
     public void build_NotConfigured() throws Exception {
         //pass in an empty payload - not configured step
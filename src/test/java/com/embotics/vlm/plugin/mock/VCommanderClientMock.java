@@ -14,12 +14,14 @@ package com.embotics.vlm.plugin.mock;
 import java.io.PrintStream;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang.StringUtils;
 import org.codehaus.jettison.json.JSONException;
 
 import com.embotics.vlm.rest.v30.client.VCommanderClient;
 import com.embotics.vlm.rest.v30.client.model.DeployedComponentInfo;
+import com.embotics.vlm.rest.v30.client.model.PollingProgress;
 import com.embotics.vlm.rest.v30.client.model.VCommanderException;
 
 /**
@@ -96,6 +98,17 @@ public class VCommanderClientMock extends VCommanderClient {
 		return newServiceRequestResult;
 	}
 
+	@Override
+	public CompletableFuture<List<DeployedComponentInfo>> waitForServiceRequestToBeCompletedAsync(Long requestId, long timeout, long polling, PrintStream logger, PollingProgress progress) throws VCommanderException {
+		CompletableFuture<List<DeployedComponentInfo>> future = new CompletableFuture<>();
+		if(throwException) {
+			future.completeExceptionally(new VCommanderException(exceptionText));
+		} else {
+			future.complete(newServiceRequestResult);
+		}
+		return future;
+	}
+
 	@Override
 	public Long getWorkflowDefinition(String workflowName) throws JSONException, VCommanderException {
 		return workflowDefinitionId;
@@ -110,12 +123,23 @@ public class VCommanderClientMock extends VCommanderClient {
 	}
 	
 	@Override
-	public Long waitForWorkflowToBeCompleted(String taskId, long timeout, long polling, PrintStream logger) throws JSONException, InterruptedException, VCommanderException {
+	public Long waitForWorkflowToBeCompleted(String taskId, long timeout, long polling, PrintStream logger, boolean lowLatency) throws JSONException, InterruptedException, VCommanderException {
 		if(throwException) {
 			throw new VCommanderException(exceptionText);
 		}
 		return workflowId;
 	}
+
+	@Override
+	public CompletableFuture<Long> waitForWorkflowToBeCompletedAsync(String taskId, long timeout, long polling, PrintStream logger, PollingProgress progress, boolean lowLatency) throws VCommanderException {
+		CompletableFuture<Long> future = new CompletableFuture<>();
+		if(throwException) {
+			future.completeExceptionally(new VCommanderException(exceptionText));
+		} else {
+			future.complete(workflowId);
+		}
+		return future;
+	}
 	
 	
 	/////////
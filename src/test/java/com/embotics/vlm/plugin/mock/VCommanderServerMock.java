@@ -0,0 +1,90 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin.mock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A mock Commander REST API v3 server, for the calls made outside of the controller JVM, like on an agent
+ * Every service request is accepted with the same ID, and is completed with one deployed component.
+ *
+ * @author btarczali
+ */
+public class VCommanderServerMock implements AutoCloseable {
+
+	private static final String ROOT_PATH = "/rest/v3/";
+
+	private final long requestID;
+	private final String componentType;
+	private final String componentName;
+	private final HttpServer server;
+
+
+	public VCommanderServerMock(long requestID, String componentType, String componentName) throws IOException {
+		this.requestID = requestID;
+		this.componentType = componentType;
+		this.componentName = componentName;
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext(ROOT_PATH, this::handle);
+		server.start();
+	}
+
+	/**
+	 * @return the address to configure for Commander
+	 */
+	public String getAddress() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath().substring(ROOT_PATH.length());
+		boolean post = "POST".equals(exchange.getRequestMethod());
+		if (post && path.equals("tokens")) {
+			respond(exchange, 201, "{\"token\": \"token\"}");
+		} else if (post && path.equals("service-requests")) {
+			respond(exchange, 201, "{\"summary\": {\"id\": " + requestID + "}}");
+		} else if (path.equals("service-requests")) {
+			respond(exchange, 200, "{\"items\": [" + getRequest() + "]}");
+		} else if (path.equals("service-requests/" + requestID)) {
+			respond(exchange, 200, getRequest());
+		} else if (path.equals("service-requests/" + requestID + "/comments")) {
+			respond(exchange, 200, "{\"items\": []}");
+		} else {
+			respond(exchange, 404, "{}");
+		}
+	}
+
+	private String getRequest() {
+		return "{\"summary\": {\"id\": " + requestID + ", \"state\": \"COMPLETED\"}, "
+				+ "\"services\": [{\"components\": [{\"summary\": {\"deployed_object\": {\"type\": \"" + componentType + "\", \"name\": \"" + componentName + "\"}}}]}]}";
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
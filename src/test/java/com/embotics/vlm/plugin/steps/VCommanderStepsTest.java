@@ -0,0 +1,115 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.plugin.steps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Test;
+
+import com.embotics.vlm.plugin.AbstractVCommanderActionTest;
+import com.embotics.vlm.rest.v30.client.model.DeployedComponentInfo;
+
+import hudson.model.Result;
+
+/**
+ * Unit tests for the vCommander Pipeline steps
+ *
+ * @author btarczali
+ */
+public class VCommanderStepsTest extends AbstractVCommanderActionTest {
+
+    @Test
+    public void requestService_Successful() throws Exception {
+        vCommanderClient.setRequestID(1L);
+        List<DeployedComponentInfo> results = new ArrayList<>();
+        results.add(new DeployedComponentInfo(1, 1, "componentType1", "componentName1"));
+        vCommanderClient.setNewServiceRequestResult(results);
+
+        WorkflowRun build = runPipeline(
+        		"def requestId = vCommanderRequestService payload: '{ \"service_id\": 876028 }', timeout: 20, polling: 30\n" +
+        		"echo \"Returned request: ${requestId}\"");
+        jenkins.assertBuildStatusSuccess(build);
+
+        jenkins.assertLogContains("Service was succesfuly requested. RequestID: 1", build);
+        jenkins.assertLogContains("Waiting 20 minutes for request completion. Checking every 30 seconds ...", build);
+        jenkins.assertLogContains("Service request successfully completed", build);
+        jenkins.assertLogContains("Adding new environment variable: VCOMMANDER_REQUESTED_SERVICE1_COMPONENT1_NAME=componentName1", build);
+        jenkins.assertLogContains("Returned request: 1", build);
+    }
+
+    @Test
+    public void requestService_Async() throws Exception {
+        vCommanderClient.setRequestID(1L);
+
+        WorkflowRun build = runPipeline("vCommanderRequestService payload: '{ \"service_id\": 876028 }', sync: false");
+        jenkins.assertBuildStatusSuccess(build);
+
+        jenkins.assertLogContains("Service was succesfuly requested. RequestID: 1", build);
+        jenkins.assertLogNotContains("Service request successfully completed", build);
+    }
+
+    @Test
+    public void requestService_Failed() throws Exception {
+        vCommanderClient.setThrowException(true, "Custom ERROR");
+
+        WorkflowRun build = runPipeline("vCommanderRequestService payload: '{ \"service_id\": 876028 }'");
+        jenkins.assertBuildStatus(Result.FAILURE, build);
+
+        jenkins.assertLogContains("Custom ERROR", build);
+    }
+
+    @Test
+    public void runWorkflow_Successful() throws Exception {
+        vCommanderClient.setWorkflowDefinitionId(20L);
+        vCommanderClient.setRunCommandWorkflowResult("30");
+        vCommanderClient.setWorkflowId(40L);
+
+        WorkflowRun build = runPipeline(
+        		"def taskId = vCommanderRunWorkflow workflowName: 'TestWorkflow', targetType: 'VIRTUAL_MACHINE', targetName: 'TestVM001'\n" +
+        		"echo \"Returned task: ${taskId}\"");
+        jenkins.assertBuildStatusSuccess(build);
+
+        jenkins.assertLogContains("Running command workflow: 'TestWorkflow' for target: 'TestVM001' with type: VIRTUAL_MACHINE", build);
+        jenkins.assertLogContains("Workflow successfully completed", build);
+        jenkins.assertLogContains("Returned task: 30", build);
+    }
+
+    @Test
+    public void wait_Successful() throws Exception {
+        WorkflowRun build = runPipeline(
+        		"vCommanderWait requestId: '1'\n" +
+        		"vCommanderWait taskId: '30'");
+        jenkins.assertBuildStatusSuccess(build);
+
+        jenkins.assertLogContains("Service request successfully completed", build);
+        jenkins.assertLogContains("Workflow successfully completed", build);
+    }
+
+    @Test
+    public void wait_NotConfigured() throws Exception {
+        WorkflowRun build = runPipeline("vCommanderWait()");
+        jenkins.assertBuildStatus(Result.FAILURE, build);
+
+        jenkins.assertLogContains("Specify either the request ID or the task ID.", build);
+    }
+
+    private WorkflowRun runPipeline(String script) throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class);
+        job.setDefinition(new CpsFlowDefinition(script, true));
+        return jenkins.waitForCompletion(job.scheduleBuild2(0).waitForStart());
+    }
+
+}
@@ -0,0 +1,146 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.embotics.vlm.rest.v30.client.CallLimiter.CallType;
+
+/**
+ * Unit tests for AdaptiveLimit
+ *
+ * @author btarczali
+ */
+public class AdaptiveLimitTest {
+
+    private static final int WINDOW_SIZE = 10;
+
+    @Test
+    public void release_DecreaseOnLatency() throws InterruptedException {
+    	AdaptiveLimit limit = new AdaptiveLimit(8, WINDOW_SIZE);
+    	window(limit, 1, 100, false);
+    	Assert.assertEquals("Stable latency should keep the limit.", 8, limit.getLimit());
+
+    	window(limit, 1, 500, false);
+    	Assert.assertEquals("Slower calls should halve the limit.", 4, limit.getLimit());
+    	Assert.assertFalse("Only the new limit should be available.", acquire(limit, 5));
+    }
+
+    @Test
+    public void release_DecreaseOnFailures() throws InterruptedException {
+    	AdaptiveLimit limit = new AdaptiveLimit(8, WINDOW_SIZE);
+    	window(limit, 1, 100, true);
+    	Assert.assertEquals("Failing calls should halve the limit.", 4, limit.getLimit());
+    	window(limit, 1, 100, true);
+    	window(limit, 1, 100, true);
+    	window(limit, 1, 100, true);
+    	Assert.assertEquals("Limit should not go below 1.", 1, limit.getLimit());
+    }
+
+    @Test
+    public void release_IncreaseWhenReached() throws InterruptedException {
+    	AdaptiveLimit limit = new AdaptiveLimit(8, WINDOW_SIZE);
+    	window(limit, 1, 100, true);
+    	Assert.assertEquals("Failing calls should halve the limit.", 4, limit.getLimit());
+
+    	window(limit, 1, 100, false);
+    	Assert.assertEquals("Limit not reached should not grow.", 4, limit.getLimit());
+
+    	window(limit, 4, 100, false);
+    	Assert.assertEquals("Limit reached with stable latency should grow.", 5, limit.getLimit());
+    	Assert.assertTrue("The new limit should be available.", acquire(limit, 5));
+    }
+
+    @Test
+    public void retire_ReleasesWaiters() throws Exception {
+    	AdaptiveLimit limit = new AdaptiveLimit(1, WINDOW_SIZE);
+    	Assert.assertTrue("Call should be allowed.", limit.tryAcquire(0, TimeUnit.MILLISECONDS));
+
+    	// waits in a single acquire, far beyond the test
+    	CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> {
+    		try {
+    			return limit.tryAcquire(1, TimeUnit.HOURS);
+    		} catch (InterruptedException e) {
+    			return false;
+    		}
+    	});
+    	Thread.sleep(100);
+    	Assert.assertFalse("Call over the limit should wait.", waiter.isDone());
+
+    	// reconfigured; the waiting call moves to the new limit
+    	limit.retire();
+    	Assert.assertTrue("Waiting call should be released.", waiter.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void release_MixedCallTypes() throws InterruptedException {
+    	AdaptiveLimit limit = new AdaptiveLimit(8, WINDOW_SIZE);
+    	window(limit, CallType.STATUS, 1, 100, false);
+
+    	// fast lookups mixed with a few slow submits
+    	for (int i = 0; i < 3 * WINDOW_SIZE; i++) {
+    		Assert.assertTrue("Call should be allowed.", limit.tryAcquire(0, TimeUnit.MILLISECONDS));
+    		if (i % 5 == 0) {
+    			limit.release(CallType.SUBMIT, 2000, false);
+    		} else {
+    			limit.release(CallType.STATUS, 100, false);
+    		}
+    	}
+    	Assert.assertEquals("Slow submits should not halve the limit.", 8, limit.getLimit());
+
+    	// only the lookups get slower
+    	window(limit, CallType.STATUS, 1, 500, false);
+    	Assert.assertEquals("Slower lookups should halve the limit.", 4, limit.getLimit());
+    }
+
+    /**
+     * Run a window of status calls, with the given calls in flight at the same time
+     */
+    private void window(AdaptiveLimit limit, int concurrency, long latency, boolean failed) throws InterruptedException {
+    	window(limit, CallType.STATUS, concurrency, latency, failed);
+    }
+
+    /**
+     * Run a window of calls of a type, with the given calls in flight at the same time
+     */
+    private void window(AdaptiveLimit limit, CallType type, int concurrency, long latency, boolean failed) throws InterruptedException {
+    	for (int i = 0; i < WINDOW_SIZE; i += concurrency) {
+    		for (int j = 0; j < concurrency; j++) {
+    			Assert.assertTrue("Call should be allowed.", limit.tryAcquire(0, TimeUnit.MILLISECONDS));
+    		}
+    		for (int j = 0; j < concurrency; j++) {
+    			limit.release(type, latency, failed);
+    		}
+    	}
+    	Assert.assertEquals("No call should be left in flight.", 0, limit.getInFlight());
+    }
+
+    private boolean acquire(AdaptiveLimit limit, int calls) throws InterruptedException {
+    	try {
+    		for (int i = 0; i < calls; i++) {
+    			if (!limit.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+    				return false;
+    			}
+    		}
+    		return true;
+    	} finally {
+    		while (limit.getInFlight() > 0) {
+    			limit.release();
+    		}
+    	}
+    }
+
+}
@@ -0,0 +1,99 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+/**
+ * Unit tests for AsyncCalls
+ *
+ * @author btarczali
+ */
+public class AsyncCallsTest {
+
+    @Test
+    public void submit_Concurrent() throws Exception {
+    	CountDownLatch bothStarted = new CountDownLatch(2);
+    	CompletableFuture<Long> first = AsyncCalls.submit(() -> await(bothStarted, 1L));
+    	CompletableFuture<Long> second = AsyncCalls.submit(() -> await(bothStarted, 2L));
+
+    	Assert.assertEquals("First result not matching.", Long.valueOf(1), first.get(10, TimeUnit.SECONDS));
+    	Assert.assertEquals("Second result not matching.", Long.valueOf(2), second.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void submit_Failure() throws InterruptedException {
+    	CompletableFuture<Long> future = AsyncCalls.submit(() -> {
+    		throw new VCommanderException("Service not found.");
+    	});
+    	try {
+    		future.get();
+    		Assert.fail("Call should fail.");
+    	} catch (ExecutionException e) {
+    		Assert.assertTrue("Failure not matching.", e.getCause() instanceof VCommanderException);
+    	}
+    }
+
+    @Test
+    public void execute_WithDeadline() throws Exception {
+    	long deadline = System.currentTimeMillis() + 60000;
+    	AtomicLong taskDeadline = new AtomicLong();
+    	Future<?> future = AsyncCalls.execute(deadline, () -> taskDeadline.set(Deadline.get()));
+
+    	future.get(10, TimeUnit.SECONDS);
+    	Assert.assertEquals("Deadline not set for the calls.", deadline, taskDeadline.get());
+    }
+
+    @Test
+    public void execute_CancelInterrupts() throws Exception {
+    	CountDownLatch started = new CountDownLatch(1);
+    	CountDownLatch interrupted = new CountDownLatch(1);
+    	Future<?> future = AsyncCalls.execute(Long.MAX_VALUE, () -> {
+    		started.countDown();
+    		try {
+    			Thread.sleep(10000);
+    		} catch (InterruptedException e) {
+    			interrupted.countDown();
+    		}
+    	});
+
+    	Assert.assertTrue("Task not started.", started.await(10, TimeUnit.SECONDS));
+    	future.cancel(true);
+    	Assert.assertTrue("Cancelled task should be interrupted.", interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Returns only when the other call runs at the same time
+     */
+    private static Long await(CountDownLatch bothStarted, Long result) throws VCommanderException {
+    	bothStarted.countDown();
+    	try {
+    		if (!bothStarted.await(10, TimeUnit.SECONDS)) {
+    			throw new VCommanderException("Calls did not run at the same time.");
+    		}
+    	} catch (InterruptedException e) {
+    		throw new VCommanderException(e, "Interrupted.");
+    	}
+    	return result;
+    }
+
+}
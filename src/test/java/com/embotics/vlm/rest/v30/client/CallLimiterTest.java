@@ -0,0 +1,66 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.embotics.vlm.rest.v30.client.CallLimiter.CallType;
+
+/**
+ * Unit tests for CallLimiter
+ *
+ * @author btarczali
+ */
+public class CallLimiterTest {
+
+    @Test
+    public void callType_Of() {
+    	Assert.assertEquals("Service request should be a submit.", CallType.SUBMIT, CallType.of("POST", "/rest/v3/service-requests"));
+    	Assert.assertEquals("Workflow run should be a submit.", CallType.SUBMIT, CallType.of("POST", "/rest/v3/workflow-definitions/5/run"));
+    	Assert.assertNull("Token request should not be limited.", CallType.of("POST", "/rest/v3/sessions/tokens"));
+
+    	Assert.assertEquals("Service request lookup should be a status.", CallType.STATUS, CallType.of("GET", "/rest/v3/service-requests/12"));
+    	Assert.assertEquals("Workflow lookup should be a status.", CallType.STATUS, CallType.of("GET", "/rest/v3/workflows"));
+    	Assert.assertEquals("Task lookup should be a status.", CallType.STATUS, CallType.of("GET", "/rest/v3/tasks/7"));
+
+    	Assert.assertEquals("Comments lookup should be comments.", CallType.COMMENTS, CallType.of("GET", "/rest/v3/service-requests/12/comments"));
+    	Assert.assertEquals("Comments lookup should be comments.", CallType.COMMENTS, CallType.of("GET", "/rest/v3/workflows/3/comments"));
+
+    	Assert.assertEquals("Service lookup should be catalog.", CallType.CATALOG, CallType.of("GET", "/rest/v3/services"));
+    	Assert.assertEquals("Service form lookup should be catalog.", CallType.CATALOG, CallType.of("GET", "/rest/v3/services/5/request-form"));
+    	Assert.assertEquals("Workflow definition lookup should be catalog.", CallType.CATALOG, CallType.of("GET", "/rest/v3/workflow-definitions/5"));
+    }
+
+    @Test
+    public void tokenBucket_Reserve() {
+    	AtomicLong now = new AtomicLong();
+    	CallLimiter.TokenBucket bucket = new CallLimiter.TokenBucket(2, now::get);
+
+    	Assert.assertEquals("Full bucket should not wait.", 0, bucket.reserve(Long.MAX_VALUE));
+    	Assert.assertEquals("Full bucket should not wait.", 0, bucket.reserve(Long.MAX_VALUE));
+    	Assert.assertEquals("Empty bucket should wait for the next token.", 500, bucket.reserve(Long.MAX_VALUE));
+    	Assert.assertEquals("Next caller should wait for the token after.", 1000, bucket.reserve(Long.MAX_VALUE));
+    	Assert.assertEquals("Too long wait should not be reserved.", -1, bucket.reserve(1000));
+
+    	now.set(1000);
+    	Assert.assertEquals("Reserved tokens should be taken.", 500, bucket.reserve(Long.MAX_VALUE));
+
+    	now.set(10000);
+    	Assert.assertEquals("Refilled bucket should not wait.", 0, bucket.reserve(Long.MAX_VALUE));
+    	Assert.assertEquals("Refilled bucket should not wait.", 0, bucket.reserve(Long.MAX_VALUE));
+    	Assert.assertEquals("Bucket should hold one second of calls.", 500, bucket.reserve(Long.MAX_VALUE));
+    }
+
+}
@@ -0,0 +1,105 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+/**
+ * Unit tests for CatalogCache
+ *
+ * @author btarczali
+ */
+public class CatalogCacheTest {
+
+    private static final long TIME_TO_LIVE = 1000;
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    private CatalogCache<String, String> newCache(int maxSize) {
+    	// refresh synchronously, on the calling thread
+    	return new CatalogCache<>(key -> key + lookups.incrementAndGet(), Runnable::run, now::get, TIME_TO_LIVE, maxSize);
+    }
+
+    @Test
+    public void get_Cached() throws Exception {
+    	CatalogCache<String, String> cache = newCache(10);
+
+    	Assert.assertEquals("Value not matching.", "a1", cache.get("a"));
+    	Assert.assertEquals("Value should be cached.", "a1", cache.get("a"));
+    	Assert.assertEquals("Hits not matching.", 1, cache.getStatistics().getHits());
+    	Assert.assertEquals("Misses not matching.", 1, cache.getStatistics().getMisses());
+    }
+
+    @Test
+    public void get_Expired() throws Exception {
+    	CatalogCache<String, String> cache = newCache(10);
+    	cache.get("a");
+
+    	now.set(TIME_TO_LIVE);
+    	Assert.assertEquals("Expired value should be looked up again.", "a2", cache.get("a"));
+    	Assert.assertEquals("Misses not matching.", 2, cache.getStatistics().getMisses());
+    }
+
+    @Test
+    public void get_RefreshAhead() throws Exception {
+    	CatalogCache<String, String> cache = newCache(10);
+    	cache.get("a");
+
+    	now.set(TIME_TO_LIVE - 100);
+    	Assert.assertEquals("Cached value should be returned while refreshing.", "a1", cache.get("a"));
+    	Assert.assertEquals("Refreshed value not matching.", "a2", cache.get("a"));
+    	Assert.assertEquals("Refreshes not matching.", 1, cache.getStatistics().getRefreshes());
+
+    	now.set(TIME_TO_LIVE + 100);
+    	Assert.assertEquals("Refreshed value should not be expired.", "a2", cache.get("a"));
+    	Assert.assertEquals("Misses not matching.", 1, cache.getStatistics().getMisses());
+    }
+
+    @Test
+    public void get_Evicted() throws Exception {
+    	CatalogCache<String, String> cache = newCache(2);
+    	cache.get("a");
+    	cache.get("b");
+    	cache.get("a");
+    	cache.get("c");
+
+    	Assert.assertEquals("Recently used value should be kept.", "a1", cache.get("a"));
+    	Assert.assertEquals("Least recently used value should be evicted.", "b4", cache.get("b"));
+    	Assert.assertEquals("Evictions not matching.", 2, cache.getStatistics().getEvictions());
+    }
+
+    @Test
+    public void get_FailureNotCached() throws Exception {
+    	CatalogCache<String, String> cache = new CatalogCache<>(key -> {
+    		if (lookups.incrementAndGet() == 1) {
+    			throw new VCommanderException("Service not found.");
+    		}
+    		return key;
+    	}, Runnable::run, now::get, TIME_TO_LIVE, 10);
+
+    	try {
+    		cache.get("a");
+    		Assert.fail("Lookup failure should be thrown.");
+    	} catch (VCommanderException e) {
+    		Assert.assertEquals("Error message not matching.", "Service not found.", e.getMessage());
+    	}
+    	Assert.assertEquals("Failure should not be cached.", "a", cache.get("a"));
+    }
+
+}
@@ -0,0 +1,163 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+
+/**
+ * Unit tests for CircuitBreaker
+ *
+ * @author btarczali
+ */
+public class CircuitBreakerTest {
+
+    private static final long OPEN_PERIOD = 1000;
+
+    private final AtomicLong now = new AtomicLong();
+    private final CircuitBreaker breaker = new CircuitBreaker(3, OPEN_PERIOD, now::get);
+
+    @Test
+    public void recordFailure_Opens() {
+    	breaker.recordFailure("Connection refused");
+    	breaker.recordFailure("Connection refused");
+    	Assert.assertEquals("Should stay closed below the threshold.", CircuitBreaker.State.CLOSED, breaker.getState());
+
+    	breaker.recordFailure("Connection refused");
+    	Assert.assertEquals("Should open at the threshold.", CircuitBreaker.State.OPEN, breaker.getState());
+    	Assert.assertFalse("Calls should fail right away.", breaker.allowRequest(false));
+    	Assert.assertTrue("Health probe should be let through.", breaker.allowRequest(true));
+    	Assert.assertEquals("Last failure not matching.", "Connection refused", breaker.getLastFailure());
+    }
+
+    @Test
+    public void recordSuccess_ResetsFailures() {
+    	breaker.recordFailure("Connection refused");
+    	breaker.recordFailure("Connection refused");
+    	breaker.recordSuccess();
+    	breaker.recordFailure("Connection refused");
+    	Assert.assertEquals("Only consecutive failures should count.", CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void allowRequest_HalfOpen() {
+    	open();
+    	now.set(OPEN_PERIOD);
+    	Assert.assertEquals("Should be half open after the open period.", CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    	Assert.assertTrue("One trial call should be let through.", breaker.allowRequest(false));
+    	Assert.assertFalse("Only one trial call should be let through.", breaker.allowRequest(false));
+
+    	breaker.recordFailure("HTTP 503");
+    	Assert.assertEquals("Failed trial should open again.", CircuitBreaker.State.OPEN, breaker.getState());
+
+    	now.set(2 * OPEN_PERIOD);
+    	Assert.assertTrue("One trial call should be let through.", breaker.allowRequest(false));
+    	breaker.recordSuccess();
+    	Assert.assertEquals("Successful trial should close.", CircuitBreaker.State.CLOSED, breaker.getState());
+    	Assert.assertNull("No failure when closed.", breaker.getLastFailure());
+    }
+
+    @Test
+    public void handle_TransportFailures() {
+    	ClientHandler refused = transport(cr -> {
+    		throw new ClientHandlerException(new ConnectException("Connection refused"));
+    	});
+    	for (int i = 0; i < 3; i++) {
+    		call(refused);
+    	}
+    	Assert.assertEquals("Connection failures should open.", CircuitBreaker.State.OPEN, breaker.getState());
+    	Assert.assertEquals("Last failure not matching.", "java.net.ConnectException: Connection refused", breaker.getLastFailure());
+    }
+
+    @Test
+    public void handle_FilterFailuresNotCounted() {
+    	// like waiting for a call slot, or an aborted build
+    	ClientHandler noSlot = cr -> {
+    		throw new ClientHandlerException(new SocketTimeoutException("Timeout reached while waiting to call Commander"));
+    	};
+    	ClientHandler interrupted = cr -> {
+    		throw new ClientHandlerException(new InterruptedIOException("Interrupted while waiting to call Commander"));
+    	};
+    	for (int i = 0; i < 5; i++) {
+    		call(noSlot);
+    		call(interrupted);
+    	}
+    	Assert.assertEquals("Failures before calling Commander should not open.", CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void handle_TrialWithoutResult() {
+    	open();
+    	now.set(OPEN_PERIOD);
+
+    	// the trial call never reached Commander
+    	call(cr -> {
+    		throw new IllegalStateException("Client destroyed");
+    	});
+    	Assert.assertEquals("Should stay half open.", CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    	Assert.assertTrue("Next call should be the trial.", breaker.allowRequest(false));
+    	breaker.recordSuccess();
+    	Assert.assertEquals("Successful trial should close.", CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void handle_Status() {
+    	for (int i = 0; i < 3; i++) {
+    		call(cr -> response(503));
+    	}
+    	Assert.assertEquals("Unavailable responses should open.", CircuitBreaker.State.OPEN, breaker.getState());
+
+    	now.set(OPEN_PERIOD);
+    	Assert.assertEquals("Response not matching.", 200, call(cr -> response(200)).getStatus());
+    	Assert.assertEquals("Successful trial should close.", CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private ClientResponse call(ClientHandler next) {
+    	ClientRequest request = ClientRequest.create().build(URI.create("https://commander/rest/v3/services"), "GET");
+    	try {
+    		return breaker.handle(request, next);
+    	} catch (RuntimeException e) {
+    		return null;
+    	}
+    }
+
+    /**
+     * @return the handler as the transport, below the transport filter
+     */
+    private static ClientHandler transport(ClientHandler transport) {
+    	return cr -> CircuitBreaker.handleTransport(cr, transport);
+    }
+
+    private static ClientResponse response(int status) {
+    	return new ClientResponse(status, new InBoundHeaders(), new ByteArrayInputStream(new byte[0]), null);
+    }
+
+    private void open() {
+    	for (int i = 0; i < 3; i++) {
+    		breaker.recordFailure("Connection refused");
+    	}
+    }
+
+}
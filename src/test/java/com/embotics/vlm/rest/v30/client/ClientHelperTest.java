@@ -0,0 +1,58 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.jersey.client.urlconnection.HTTPSProperties;
+
+/**
+ * Unit tests for ClientHelper
+ *
+ * @author btarczali
+ */
+public class ClientHelperTest {
+
+    @Test
+    public void getEndpoint() {
+    	Assert.assertEquals("Endpoint not matching.", "https://commander.example.com:-1", ClientHelper.getEndpoint("https://Commander.example.com/"));
+    	Assert.assertEquals("Path should not change the endpoint.", "https://commander.example.com:-1", ClientHelper.getEndpoint(" https://commander.example.com/rest/v3 "));
+    	Assert.assertEquals("Port should be kept.", "https://commander.example.com:8443", ClientHelper.getEndpoint("https://commander.example.com:8443/"));
+    	Assert.assertEquals("Scheme should be kept.", "http://commander.example.com:-1", ClientHelper.getEndpoint("http://commander.example.com/"));
+    	Assert.assertEquals("Invalid address should be kept.", "not an address", ClientHelper.getEndpoint("not an address"));
+    }
+
+    @Test
+    public void configureClient_SharedByEndpoint() {
+    	HTTPSProperties first = getHttpsProperties("https://shared.example.com/");
+    	HTTPSProperties second = getHttpsProperties("https://SHARED.example.com/rest/v3");
+    	Assert.assertNotNull("TLS configuration expected.", first);
+    	Assert.assertSame("Same endpoint should share the TLS configuration.", first, second);
+    	Assert.assertSame("Same endpoint should share the SSL context.", first.getSSLContext(), second.getSSLContext());
+    }
+
+    @Test
+    public void configureClient_SeparateEndpoints() {
+    	HTTPSProperties first = getHttpsProperties("https://first.example.com/");
+    	HTTPSProperties other = getHttpsProperties("https://other.example.com/");
+    	HTTPSProperties otherPort = getHttpsProperties("https://first.example.com:8443/");
+    	Assert.assertNotSame("Another endpoint should get its own TLS configuration.", first, other);
+    	Assert.assertNotSame("Another endpoint should get its own SSL context.", first.getSSLContext(), other.getSSLContext());
+    	Assert.assertNotSame("Another port should get its own SSL context.", first.getSSLContext(), otherPort.getSSLContext());
+    }
+
+    private static HTTPSProperties getHttpsProperties(String uri) {
+    	return (HTTPSProperties) ClientHelper.configureClient(uri).getProperties().get(HTTPSProperties.PROPERTY_HTTPS_PROPERTIES);
+    }
+
+}
@@ -0,0 +1,176 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.embotics.vlm.rest.v30.client.model.Comment;
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+/**
+ * Unit tests for ClientUtils
+ *
+ * @author btarczali
+ */
+public class ClientUtilsTest {
+
+    @Test
+    public void buildAnyOfFilters_SingleValue() {
+    	List<String> filters = ClientUtils.buildAnyOfFilters("id", Collections.singletonList("1"), ClientUtils.MAX_FILTER_LENGTH);
+    	Assert.assertEquals("Filter not matching.", Collections.singletonList("(id -eq 1)"), filters);
+    }
+
+    @Test
+    public void buildAnyOfFilters_MultipleValues() {
+    	List<String> filters = ClientUtils.buildAnyOfFilters("id", Arrays.asList("1", "2", "3"), ClientUtils.MAX_FILTER_LENGTH);
+    	Assert.assertEquals("Filter not matching.", Collections.singletonList("(((id -eq 1) -or (id -eq 2)) -or (id -eq 3))"), filters);
+    }
+
+    @Test
+    public void buildAnyOfFilters_Chunked() {
+    	List<String> values = new ArrayList<>();
+    	for (int i = 0; i < 500; i++) {
+    		values.add(Integer.toString(100000 + i));
+    	}
+
+    	List<String> filters = ClientUtils.buildAnyOfFilters("id", values, ClientUtils.MAX_FILTER_LENGTH);
+    	Assert.assertTrue("Filters should be chunked.", filters.size() > 1);
+
+    	int matched = 0;
+    	for (String filter : filters) {
+    		Assert.assertTrue("Filter too long: " + filter, filter.length() <= ClientUtils.MAX_FILTER_LENGTH);
+    		matched += filter.split("-eq").length - 1;
+    	}
+    	Assert.assertEquals("All values should be in the filters.", values.size(), matched);
+    }
+
+    @Test
+    public void buildAnyOfFilters_NoValues() {
+    	List<String> filters = ClientUtils.buildAnyOfFilters("id", Collections.<String>emptyList(), ClientUtils.MAX_FILTER_LENGTH);
+    	Assert.assertTrue("No filter expected.", filters.isEmpty());
+    }
+
+    @Test
+    public void isFilterRejected_BadRequest() {
+    	Assert.assertTrue("A rejected filter should fall back.", ClientUtils.isFilterRejected(new StatusException(400, "status_code=400")));
+    }
+
+    @Test
+    public void isFilterRejected_TransientFailures() {
+    	for (int status : new int[] {401, 403, 404, 408, 429, 500, 503}) {
+    		Assert.assertFalse("Status " + status + " should not fall back.", ClientUtils.isFilterRejected(new StatusException(status, "status_code=" + status)));
+    	}
+    	Assert.assertFalse("A failure without status should not fall back.", ClientUtils.isFilterRejected(new VCommanderException("Access is denied due to invalid credentials.")));
+    }
+
+    @Test
+    public void awaitComments_FinalState() {
+    	CompletableFuture<List<Comment>> pendingComments = new CompletableFuture<>();
+    	Deadline.set(System.currentTimeMillis() + 60000);
+    	try {
+    		long start = System.currentTimeMillis();
+    		List<Comment> comments = ClientUtils.awaitComments(pendingComments, null, true);
+    		long waited = System.currentTimeMillis() - start;
+
+    		// a final state is not held up by late comments
+    		Assert.assertTrue("Late comments should be dropped.", comments.isEmpty());
+    		Assert.assertTrue("Should wait for the comments, but waited " + waited + " ms.", waited >= ClientUtils.LATE_COMMENTS_WAIT - 50);
+    		Assert.assertTrue("Should not wait longer than the late comments wait, but waited " + waited + " ms.", waited < 5 * ClientUtils.LATE_COMMENTS_WAIT);
+    		Assert.assertTrue("Late fetch should be cancelled.", pendingComments.isCancelled());
+    	} finally {
+    		Deadline.clear();
+    	}
+    }
+
+    @Test
+    public void awaitComments_NotFinalState() throws Exception {
+    	List<Comment> expected = Collections.singletonList(new Comment(new JSONObject()));
+    	CountDownLatch release = new CountDownLatch(1);
+    	Deadline.set(System.currentTimeMillis() + 60000);
+    	try {
+    		// slower than the wait for the comments of a final state
+    		CompletableFuture<List<Comment>> pendingComments = AsyncCalls.submit(() -> {
+    			try {
+    				release.await(10, TimeUnit.SECONDS);
+    			} catch (InterruptedException e) {
+    				Thread.currentThread().interrupt();
+    			}
+    			return expected;
+    		});
+    		CompletableFuture.runAsync(() -> {
+    			try {
+    				Thread.sleep(ClientUtils.LATE_COMMENTS_WAIT + 500);
+    			} catch (InterruptedException e) {
+    				Thread.currentThread().interrupt();
+    			}
+    			release.countDown();
+    		});
+
+    		Assert.assertSame("Comments should be joined.", expected, ClientUtils.awaitComments(pendingComments, null, false));
+    	} finally {
+    		Deadline.clear();
+    	}
+    }
+
+    @Test
+    public void awaitComments_NotFinalState_Deadline() {
+    	CompletableFuture<List<Comment>> pendingComments = new CompletableFuture<>();
+    	Deadline.set(System.currentTimeMillis() + 200);
+    	try {
+    		long start = System.currentTimeMillis();
+    		List<Comment> comments = ClientUtils.awaitComments(pendingComments, null, false);
+    		long waited = System.currentTimeMillis() - start;
+
+    		Assert.assertTrue("No comments expected.", comments.isEmpty());
+    		Assert.assertTrue("Should not wait beyond the deadline, but waited " + waited + " ms.", waited < 5000);
+    		Assert.assertTrue("Fetch should be cancelled.", pendingComments.isCancelled());
+    	} finally {
+    		Deadline.clear();
+    	}
+    }
+
+    @Test
+    public void awaitComments_NotStarted() throws Exception {
+    	List<Comment> expected = Collections.singletonList(new Comment(new JSONObject()));
+
+    	// too many calls in progress; fetched by the caller
+    	Assert.assertSame("Comments should be fetched by the caller.", expected, ClientUtils.awaitComments(null, () -> expected, false));
+    }
+
+    @Test
+    public void fetchCommentsAsync_DeferredRetry() throws Exception {
+    	RetryFilter.deferRetries(1);
+    	try {
+    		CompletableFuture<List<Comment>> pendingComments = ClientUtils.fetchCommentsAsync(() -> {
+    			// as the retry filter does when the comments call fails
+    			Assert.assertTrue("Retries of the fetch should be deferred.", RetryFilter.defer(5000));
+    			return Collections.emptyList();
+    		});
+    		Assert.assertNotNull("Fetch should be started.", pendingComments);
+    		pendingComments.get(10, TimeUnit.SECONDS);
+    	} finally {
+    		// the wait of the fetch is added to the retry of the caller
+    		Assert.assertEquals("Retry delay not matching.", 5000, RetryFilter.takeDeferredRetry());
+    	}
+    }
+
+}
@@ -0,0 +1,51 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for Deadline
+ *
+ * @author btarczali
+ */
+public class DeadlineTest {
+
+    @After
+    public void cleanup() {
+    	Deadline.clear();
+    }
+
+    @Test
+    public void remainingInMillis_NoDeadline() {
+    	Assert.assertEquals("Should not limit without a deadline.", Long.MAX_VALUE, Deadline.remainingInMillis());
+
+    	Deadline.set(Long.MAX_VALUE);
+    	Assert.assertEquals("Should not limit without a deadline.", Long.MAX_VALUE, Deadline.remainingInMillis());
+    }
+
+    @Test
+    public void remainingInMillis_Deadline() {
+    	Deadline.set(System.currentTimeMillis() + 5000);
+    	long remaining = Deadline.remainingInMillis();
+    	Assert.assertTrue("Remaining time not matching: " + remaining, remaining > 4000 && remaining <= 5000);
+
+    	Deadline.set(System.currentTimeMillis() - 1000);
+    	Assert.assertTrue("Deadline should be passed.", Deadline.remainingInMillis() <= 0);
+
+    	Deadline.clear();
+    	Assert.assertEquals("Deadline should be cleared.", Long.MAX_VALUE, Deadline.remainingInMillis());
+    }
+
+}
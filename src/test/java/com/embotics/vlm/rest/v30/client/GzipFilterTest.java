@@ -0,0 +1,73 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for GzipFilter
+ *
+ * @author btarczali
+ */
+public class GzipFilterTest {
+
+    private static final String BODY = repeat("{ \"name\": \"Web Server\", \"type\": \"VIRTUAL_MACHINE\" }, ", 100);
+
+    @Test
+    public void compress() throws IOException {
+    	Assert.assertNull("Body below the threshold should not be compressed.", GzipFilter.compress("{}", 1024));
+
+    	long saved = GzipFilter.getRequestBytesSaved();
+    	byte[] compressed = GzipFilter.compress(BODY, 1024);
+    	Assert.assertNotNull("Large body should be compressed.", compressed);
+    	Assert.assertEquals("Bytes saved not matching.", BODY.length() - compressed.length, GzipFilter.getRequestBytesSaved() - saved);
+    }
+
+    @Test
+    public void decompress() throws IOException {
+    	byte[] compressed = GzipFilter.compress(BODY, 0);
+
+    	long saved = GzipFilter.getResponseBytesSaved();
+    	String body;
+    	try (InputStream in = GzipFilter.decompress(new ByteArrayInputStream(compressed))) {
+    		body = read(in);
+    	}
+    	Assert.assertEquals("Body not matching.", BODY, body);
+    	Assert.assertEquals("Bytes saved not matching.", BODY.length() - compressed.length, GzipFilter.getResponseBytesSaved() - saved);
+    }
+
+    private static String read(InputStream in) throws IOException {
+    	ByteArrayOutputStream out = new ByteArrayOutputStream();
+    	byte[] buffer = new byte[256];
+    	int n;
+    	while ((n = in.read(buffer)) > 0) {
+    		out.write(buffer, 0, n);
+    	}
+    	return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(String value, int times) {
+    	StringBuilder builder = new StringBuilder();
+    	for (int i = 0; i < times; i++) {
+    		builder.append(value);
+    	}
+    	return builder.toString();
+    }
+
+}
@@ -0,0 +1,84 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for PollingPolicy
+ *
+ * @author btarczali
+ */
+public class PollingPolicyTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @Test
+    public void nextDelay_BackOff() {
+    	PollingPolicy policy = new PollingPolicy(30);
+
+    	assertAround("First poll should be quick.", 2000, policy.nextDelay("RUNNING", false, HOUR));
+    	assertAround("Should back off.", 4000, policy.nextDelay("RUNNING", false, HOUR));
+    	assertAround("Should back off.", 8000, policy.nextDelay("RUNNING", false, HOUR));
+    	assertAround("Should back off.", 16000, policy.nextDelay("RUNNING", false, HOUR));
+    	assertAround("Should stop at the polling interval.", 30000, policy.nextDelay("RUNNING", false, HOUR));
+    	assertAround("Should stop at the polling interval.", 30000, policy.nextDelay("RUNNING", false, HOUR));
+    }
+
+    @Test
+    public void nextDelay_StateChanged() {
+    	PollingPolicy policy = new PollingPolicy(30);
+    	for (int i = 0; i < 5; i++) {
+    		policy.nextDelay("RUNNING", false, HOUR);
+    	}
+
+    	assertAround("Should poll quickly after a state change.", 2000, policy.nextDelay("DEPLOYING", false, HOUR));
+    }
+
+    @Test
+    public void nextDelay_WaitingForPeople() {
+    	PollingPolicy policy = new PollingPolicy(30);
+    	assertAround("Should slow down while waiting for approval.", 120000, policy.nextDelay("PENDING_APPROVAL", true, HOUR));
+
+    	policy = new PollingPolicy(600);
+    	assertAround("Should not poll faster than the polling interval.", 600000, policy.nextDelay("PENDING_APPROVAL", true, HOUR));
+    }
+
+    @Test
+    public void nextDelay_Timeout() {
+    	PollingPolicy policy = new PollingPolicy(30);
+    	Assert.assertEquals("Should not wait beyond the timeout.", 500, policy.nextDelay("PENDING_APPROVAL", true, 500));
+    	Assert.assertEquals("Should not wait when timed out.", 0, policy.nextDelay("PENDING_APPROVAL", true, -100));
+    }
+
+    @Test
+    public void nextDelay_ShortPolling() {
+    	PollingPolicy policy = new PollingPolicy(1);
+    	assertAround("Should not wait more than the polling interval.", 1000, policy.nextDelay("RUNNING", false, HOUR));
+    }
+
+    @Test
+    public void nextDelay_LowLatency() {
+    	PollingPolicy policy = new PollingPolicy(30, true);
+
+    	assertAround("First poll should be very quick.", 250, policy.nextDelay("RUNNING", false, HOUR));
+    	assertAround("Should back off.", 500, policy.nextDelay("RUNNING", false, HOUR));
+    	assertAround("Should poll very quickly after a state change.", 250, policy.nextDelay("COMPLETED", false, HOUR));
+    }
+
+    private void assertAround(String message, long expected, long actual) {
+    	Assert.assertTrue(message + " Expected about " + expected + " but was " + actual,
+    			actual >= expected * 0.9 - 1 && actual <= expected * 1.1 + 1);
+    }
+
+}
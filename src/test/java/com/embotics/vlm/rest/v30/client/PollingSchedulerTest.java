@@ -0,0 +1,231 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+/**
+ * Unit tests for PollingScheduler
+ *
+ * @author btarczali
+ */
+public class PollingSchedulerTest {
+
+    @Test
+    public void submit_Completed() throws Exception {
+    	CompletableFuture<Integer> future = PollingScheduler.get().submit(new QuickTask(3));
+
+    	Assert.assertEquals("Polls not matching.", Integer.valueOf(3), future.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void submit_Failed() throws Exception {
+    	QuickTask task = new QuickTask(2) {
+    		@Override
+    		protected long poll() throws Exception {
+    			if (polls.incrementAndGet() >= 2) {
+    				throw new VCommanderException("Request failed.");
+    			}
+    			return 10;
+    		}
+    	};
+    	CompletableFuture<Integer> future = PollingScheduler.get().submit(task);
+
+    	try {
+    		future.get(10, TimeUnit.SECONDS);
+    		Assert.fail("Failed poll should fail the future.");
+    	} catch (ExecutionException e) {
+    		Assert.assertTrue("Exception not matching.", e.getCause() instanceof VCommanderException);
+    		Assert.assertEquals("Message not matching.", "Request failed.", e.getCause().getMessage());
+    	}
+    	Assert.assertEquals("Failed task should not be polled again.", 2, task.polls.get());
+    }
+
+    @Test
+    public void cancel_StopsPolling() throws Exception {
+    	QuickTask task = new QuickTask(Integer.MAX_VALUE);
+    	CompletableFuture<Integer> future = PollingScheduler.get().submit(task);
+
+    	long end = System.currentTimeMillis() + 10000;
+    	while (task.polls.get() < 2 && System.currentTimeMillis() < end) {
+    		Thread.sleep(10);
+    	}
+    	Assert.assertTrue("Task not polled.", task.polls.get() >= 2);
+
+    	future.cancel(false);
+    	try {
+    		future.get();
+    		Assert.fail("Future should be cancelled.");
+    	} catch (CancellationException e) {
+    		// expected
+    	}
+    	// a running poll may still complete
+    	Thread.sleep(100);
+    	int polls = task.polls.get();
+    	Thread.sleep(200);
+    	Assert.assertEquals("Cancelled task should not be polled.", polls, task.polls.get());
+    }
+
+    @Test
+    public void submit_ThreadCountFlat() throws Exception {
+    	List<CompletableFuture<Integer>> futures = new ArrayList<>();
+    	for (int i = 0; i < 50; i++) {
+    		futures.add(PollingScheduler.get().submit(new QuickTask(5)));
+    	}
+    	int maxWorkers = 0;
+    	for (CompletableFuture<Integer> future : futures) {
+    		maxWorkers = Math.max(maxWorkers, countWorkers());
+    		Assert.assertEquals("Polls not matching.", Integer.valueOf(5), future.get(10, TimeUnit.SECONDS));
+    	}
+
+    	// the waits do not get a thread each
+    	Assert.assertTrue("Too many polling workers: " + maxWorkers, maxWorkers <= 4);
+    	Assert.assertTrue("Too many polling workers after the polls.", countWorkers() <= 4);
+    }
+
+    @Test
+    public void pollNow_ExpectedCallback() throws Exception {
+    	String key = PollingScheduler.serviceRequestKey(1001L);
+    	PollingScheduler.get().expectCallback(key);
+    	try {
+    		// completed on the second poll, which comes only on the callback
+    		CountingTask task = new CountingTask(key, 2);
+    		CompletableFuture<Integer> future = PollingScheduler.get().submit(task);
+
+    		long end = System.currentTimeMillis() + 10000;
+    		while (!future.isDone() && System.currentTimeMillis() < end) {
+    			Assert.assertTrue("Task not found.", PollingScheduler.get().pollNow(key));
+    			Thread.sleep(10);
+    		}
+    		Assert.assertEquals("Polls not matching.", Integer.valueOf(2), future.get(1, TimeUnit.SECONDS));
+    	} finally {
+    		PollingScheduler.get().cancelCallback(key);
+    	}
+    }
+
+    @Test
+    public void pollNow_Completed() throws Exception {
+    	String key = PollingScheduler.serviceRequestKey(1002L);
+    	CompletableFuture<Integer> future = PollingScheduler.get().submit(new CountingTask(key, 1));
+
+    	Assert.assertEquals("Polls not matching.", Integer.valueOf(1), future.get(10, TimeUnit.SECONDS));
+
+    	// unregistered right after the completion
+    	long end = System.currentTimeMillis() + 10000;
+    	while (PollingScheduler.get().pollNow(key) && System.currentTimeMillis() < end) {
+    		Thread.sleep(10);
+    	}
+    	Assert.assertFalse("Completed task should not be polled.", PollingScheduler.get().pollNow(key));
+    }
+
+    @Test
+    public void pollNow_WhileRunning() throws Exception {
+    	String key = PollingScheduler.serviceRequestKey(1003L);
+    	CountDownLatch started = new CountDownLatch(1);
+    	CountDownLatch release = new CountDownLatch(1);
+    	CountingTask task = new CountingTask(key, 2) {
+    		@Override
+    		protected long poll() {
+    			if (started.getCount() > 0) {
+    				started.countDown();
+    				try {
+    					release.await(10, TimeUnit.SECONDS);
+    				} catch (InterruptedException e) {
+    					Thread.currentThread().interrupt();
+    				}
+    			}
+    			return super.poll();
+    		}
+    	};
+    	CompletableFuture<Integer> future = PollingScheduler.get().submit(task);
+
+    	// called back while the first poll reads the previous state
+    	Assert.assertTrue("First poll not started.", started.await(10, TimeUnit.SECONDS));
+    	Assert.assertTrue("Task not found.", PollingScheduler.get().pollNow(key));
+    	release.countDown();
+
+    	// polled again right after, not an hour later
+    	Assert.assertEquals("Polls not matching.", Integer.valueOf(2), future.get(10, TimeUnit.SECONDS));
+    }
+
+    private static int countWorkers() {
+    	int count = 0;
+    	for (Thread thread : Thread.getAllStackTraces().keySet()) {
+    		if (thread.getName().startsWith("Commander polling worker")) {
+    			count++;
+    		}
+    	}
+    	return count;
+    }
+
+    /**
+     * Completes after a number of polls; the next poll is 10 milliseconds later
+     */
+    private static class QuickTask extends PollingScheduler.PollingTask<Integer> {
+    	private final int pollCount;
+    	protected final AtomicInteger polls = new AtomicInteger();
+
+    	QuickTask(int pollCount) {
+    		this.pollCount = pollCount;
+    	}
+
+    	@Override
+    	protected long poll() throws Exception {
+    		int count = polls.incrementAndGet();
+    		if (count >= pollCount) {
+    			complete(count);
+    		}
+    		return 10;
+    	}
+    }
+
+    /**
+     * Completes after a number of polls; the next poll is an hour later
+     */
+    private static class CountingTask extends PollingScheduler.PollingTask<Integer> {
+    	private final String key;
+    	private final int pollCount;
+    	private final AtomicInteger polls = new AtomicInteger();
+
+    	CountingTask(String key, int pollCount) {
+    		this.key = key;
+    		this.pollCount = pollCount;
+    	}
+
+    	@Override
+    	protected String getCallbackKey() {
+    		return key;
+    	}
+
+    	@Override
+    	protected long poll() {
+    		int count = polls.incrementAndGet();
+    		if (count >= pollCount) {
+    			complete(count);
+    		}
+    		return TimeUnit.HOURS.toMillis(1);
+    	}
+    }
+
+}
@@ -0,0 +1,103 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+
+/**
+ * Unit tests for RetryFilter
+ *
+ * @author btarczali
+ */
+public class RetryFilterTest {
+
+    @Test
+    public void isRetryable_Status() {
+    	Assert.assertTrue("503 should be retried for GET.", RetryFilter.isRetryable("GET", 503));
+    	Assert.assertTrue("429 should be retried for GET.", RetryFilter.isRetryable("GET", 429));
+    	// a proxy may answer after forwarding the submit
+    	Assert.assertFalse("503 should not be retried for POST.", RetryFilter.isRetryable("POST", 503));
+    	Assert.assertFalse("429 should not be retried for POST.", RetryFilter.isRetryable("POST", 429));
+    	Assert.assertTrue("502 should be retried for GET.", RetryFilter.isRetryable("GET", 502));
+    	Assert.assertFalse("502 should not be retried for POST.", RetryFilter.isRetryable("POST", 502));
+    	Assert.assertFalse("404 should not be retried.", RetryFilter.isRetryable("GET", 404));
+    	Assert.assertFalse("200 should not be retried.", RetryFilter.isRetryable("GET", 200));
+    }
+
+    @Test
+    public void isRetryable_Exception() {
+    	Assert.assertTrue("Refused connection should be retried.", RetryFilter.isRetryable(new ClientHandlerException(new ConnectException("Connection refused"))));
+    	Assert.assertFalse("Read timeout should not be retried.", RetryFilter.isRetryable(new ClientHandlerException(new SocketTimeoutException("Read timed out"))));
+    }
+
+    @Test
+    public void getBackoff() {
+    	long first = RetryFilter.getBackoff(1);
+    	Assert.assertTrue("First backoff not matching: " + first, first >= RetryFilter.INITIAL_BACKOFF / 2 && first <= RetryFilter.INITIAL_BACKOFF);
+
+    	long capped = RetryFilter.getBackoff(30);
+    	Assert.assertTrue("Backoff should be capped: " + capped, capped >= RetryFilter.MAX_BACKOFF / 2 && capped <= RetryFilter.MAX_BACKOFF);
+    }
+
+    @Test
+    public void deferRetries() {
+    	RetryFilter filter = new RetryFilter(4);
+    	RetryFilter.deferRetries(1);
+    	try {
+    		long delay = filter.getRetryDelay(1, -1);
+    		Assert.assertTrue("Delay not matching: " + delay, delay >= RetryFilter.INITIAL_BACKOFF / 2 && delay <= RetryFilter.INITIAL_BACKOFF);
+    		Assert.assertTrue("Retry should be deferred.", RetryFilter.defer(delay));
+    	} finally {
+    		Assert.assertTrue("Deferred retry not matching.", RetryFilter.takeDeferredRetry() >= RetryFilter.INITIAL_BACKOFF / 2);
+    	}
+
+    	// the current thread waits again
+    	Assert.assertFalse("Retry should not be deferred.", RetryFilter.defer(100));
+    	Assert.assertEquals("No deferred retry expected.", -1, RetryFilter.takeDeferredRetry());
+    }
+
+    @Test
+    public void deferRetries_Attempts() {
+    	RetryFilter filter = new RetryFilter(4);
+    	try {
+    		// the backoff grows with the polls retried in a row
+    		RetryFilter.deferRetries(3);
+    		long delay = filter.getRetryDelay(1, -1);
+    		Assert.assertTrue("Delay not matching: " + delay, delay >= RetryFilter.INITIAL_BACKOFF * 2 && delay <= RetryFilter.INITIAL_BACKOFF * 4);
+
+    		RetryFilter.deferRetries(4);
+    		Assert.assertEquals("Last attempt should not be retried.", -1, filter.getRetryDelay(1, -1));
+    	} finally {
+    		RetryFilter.takeDeferredRetry();
+    	}
+    }
+
+    @Test
+    public void getRetryAfter() {
+    	Assert.assertEquals("Seconds not matching.", 3000, RetryFilter.getRetryAfter("3"));
+    	Assert.assertEquals("Missing header not matching.", -1, RetryFilter.getRetryAfter(null));
+    	Assert.assertEquals("Invalid header not matching.", -1, RetryFilter.getRetryAfter("soon"));
+
+    	String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now().plusSeconds(30));
+    	long retryAfter = RetryFilter.getRetryAfter(date);
+    	Assert.assertTrue("Date not matching: " + retryAfter, retryAfter > 20000 && retryAfter <= 30000);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.embotics.vlm.rest.v30.client.ServiceRequestParser.ParsedRequest;
+import com.embotics.vlm.rest.v30.client.model.DeployedComponentInfo;
+
+/**
+ * Unit tests for ServiceRequestParser
+ *
+ * @author btarczali
+ */
+public class ServiceRequestParserTest {
+
+    private static final String COMPLETED = "COMPLETED";
+
+    private static final String SERVICES = "\"services\": [ "
+    		+ "{ \"name\": \"Web\", \"components\": [ "
+    		+ "{ \"summary\": { \"name\": \"vm1\", \"deployed_object\": { \"id\": 1, \"name\": \"web-01\", \"type\": \"VIRTUAL_MACHINE\", \"tags\": [ \"a\" ] } } }, "
+    		+ "{ \"summary\": { \"name\": \"custom\", \"deployed_object\": null } }, "
+    		+ "{ \"summary\": { \"deployed_object\": { \"name\": \"web-02\", \"type\": \"VIRTUAL_MACHINE\" } } } ] }, "
+    		+ "{ \"name\": \"Db\", \"components\": [ "
+    		+ "{ \"summary\": { \"deployed_object\": { \"name\": \"db-01\", \"type\": \"DATABASE\" } } } ] } ]";
+
+    @Test
+    public void parse_InProgress() throws IOException {
+    	ParsedRequest request = parse("{ \"summary\": { \"id\": 12, \"state\": \"IN_PROGRESS\", \"comments\": { \"x\": [1, 2] } }, " + SERVICES + " }");
+    	Assert.assertEquals("State not matching.", "IN_PROGRESS", request.getState());
+    	Assert.assertNull("Components should not be read before completion.", request.getDeployedComponents());
+    }
+
+    @Test
+    public void parse_Completed() throws IOException {
+    	ParsedRequest request = parse("{ \"summary\": { \"state\": \"COMPLETED\" }, \"form\": { \"fields\": [ {}, [] ] }, " + SERVICES + " }");
+    	Assert.assertEquals("State not matching.", COMPLETED, request.getState());
+
+    	List<DeployedComponentInfo> components = request.getDeployedComponents();
+    	Assert.assertEquals("Components not matching.", 3, components.size());
+    	assertComponent(components.get(0), 1, 1, "VIRTUAL_MACHINE", "web-01");
+    	assertComponent(components.get(1), 1, 3, "VIRTUAL_MACHINE", "web-02");
+    	assertComponent(components.get(2), 2, 1, "DATABASE", "db-01");
+    }
+
+    @Test
+    public void parse_CompletedServicesFirst() throws IOException {
+    	ParsedRequest request = parse("{ " + SERVICES + ", \"summary\": { \"state\": \"COMPLETED\" } }");
+    	Assert.assertEquals("State not matching.", COMPLETED, request.getState());
+    	Assert.assertEquals("Components not matching.", 3, request.getDeployedComponents().size());
+    }
+
+    @Test
+    public void parse_CompletedWithoutServices() throws IOException {
+    	ParsedRequest request = parse("{ \"summary\": { \"state\": \"COMPLETED\" } }");
+    	Assert.assertEquals("State not matching.", COMPLETED, request.getState());
+    	Assert.assertNull("Components should not be listed.", request.getDeployedComponents());
+    }
+
+    private ParsedRequest parse(String json) throws IOException {
+    	return ServiceRequestParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), COMPLETED);
+    }
+
+    private void assertComponent(DeployedComponentInfo component, int serviceIndex, int componentIndex, String type, String name) {
+    	Assert.assertEquals("Service index not matching.", serviceIndex, component.getServiceIndex());
+    	Assert.assertEquals("Component index not matching.", componentIndex, component.getComponentIndex());
+    	Assert.assertEquals("Component type not matching.", type, component.getComponentType());
+    	Assert.assertEquals("Component name not matching.", name, component.getComponentName());
+    }
+
+}
@@ -0,0 +1,128 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.embotics.vlm.rest.v30.client.model.VCommanderException;
+
+/**
+ * Unit tests for SingleFlight
+ *
+ * @author btarczali
+ */
+public class SingleFlightTest {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    public void execute_SharesConcurrentCall() throws Exception {
+    	CountDownLatch started = new CountDownLatch(1);
+    	CountDownLatch release = new CountDownLatch(1);
+
+    	CompletableFuture<Object> first = CompletableFuture.supplyAsync(() -> execute("service-requests/1", () -> {
+    		started.countDown();
+    		release.await();
+    		return new Object();
+    	}));
+    	started.await();
+    	CompletableFuture<Object> second = new CompletableFuture<>();
+    	awaitWaiting(start(second, "service-requests/1"));
+    	Assert.assertNotNull("Other entity should not wait.", execute("service-requests/2", Object::new));
+    	release.countDown();
+    	Assert.assertSame("Concurrent calls should share the result.", first.get(), second.get());
+    	Assert.assertEquals("Same entity should be called once.", 2, calls.get());
+
+    	Assert.assertNotSame("Later call should not reuse the result.", first.get(), execute("service-requests/1", Object::new));
+    }
+
+    @Test
+    public void execute_SharesFailure() throws Exception {
+    	CountDownLatch started = new CountDownLatch(1);
+    	CountDownLatch release = new CountDownLatch(1);
+
+    	CompletableFuture<Object> first = CompletableFuture.supplyAsync(() -> execute("tasks/1", () -> {
+    		started.countDown();
+    		release.await();
+    		throw new VCommanderException("status_code=500");
+    	}));
+    	started.await();
+    	CompletableFuture<Object> second = new CompletableFuture<>();
+    	awaitWaiting(start(second, "tasks/1"));
+    	release.countDown();
+
+    	assertFailure(first);
+    	assertFailure(second);
+    }
+
+    /**
+     * Start a call of the entity on a new thread
+     */
+    private Thread start(CompletableFuture<Object> result, String key) {
+    	Thread thread = new Thread(() -> {
+    		try {
+    			result.complete(execute(key, Object::new));
+    		} catch (RuntimeException e) {
+    			result.completeExceptionally(e);
+    		}
+    	});
+    	thread.start();
+    	return thread;
+    }
+
+    /**
+     * Wait until the thread waits for the call made by another thread
+     */
+    private void awaitWaiting(Thread thread) throws InterruptedException {
+    	while (thread.getState() != Thread.State.WAITING) {
+    		Thread.sleep(10);
+    	}
+    }
+
+    private void assertFailure(CompletableFuture<Object> future) throws InterruptedException {
+    	try {
+    		future.get();
+    		Assert.fail("Call should fail.");
+    	} catch (ExecutionException e) {
+    		Assert.assertTrue("Failure should be the original one.", e.getCause().getCause() instanceof VCommanderException);
+    	}
+    }
+
+    private interface BlockingCall {
+    	Object call() throws Exception;
+    }
+
+    private Object execute(String key, BlockingCall call) {
+    	try {
+    		return singleFlight.execute(key, () -> {
+    			calls.incrementAndGet();
+    			try {
+    				return call.call();
+    			} catch (VCommanderException e) {
+    				throw e;
+    			} catch (Exception e) {
+    				throw new IllegalStateException(e);
+    			}
+    		});
+    	} catch (Exception e) {
+    		throw new IllegalStateException(e);
+    	}
+    }
+
+}
@@ -0,0 +1,95 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for VCommanderClientRegistry
+ *
+ * @author btarczali
+ */
+public class VCommanderClientRegistryTest {
+
+    private static final String ADDRESS = "https://commander";
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final VCommanderClientRegistry.ClientFactory factory = () -> {
+    	created.incrementAndGet();
+    	return new VCommanderClient() {
+    	};
+    };
+
+    @Before
+    public void setup() {
+    	VCommanderClientRegistry.get().invalidate();
+    }
+
+    @Test
+    public void acquire_Shared() throws Exception {
+    	VCommanderClient first = VCommanderClientRegistry.get().acquire(ADDRESS, "commander", null, factory);
+    	VCommanderClient second = VCommanderClientRegistry.get().acquire(ADDRESS, "commander", null, factory);
+    	Assert.assertSame("Client should be shared.", first, second);
+    	Assert.assertEquals("Client should be created once.", 1, created.get());
+
+    	VCommanderClient other = VCommanderClientRegistry.get().acquire(ADDRESS, "commander", "Org", factory);
+    	Assert.assertNotSame("Another organization should get its own client.", first, other);
+
+    	first.close();
+    	second.close();
+    	other.close();
+    }
+
+    @Test
+    public void close_NotDestroyedWhileShared() throws Exception {
+    	VCommanderClient client = VCommanderClientRegistry.get().acquire(ADDRESS, "commander", null, factory);
+    	client.close();
+    	Assert.assertFalse("Shared client should be kept for the next users.", client.isDestroyed());
+
+    	Assert.assertSame("Released client should be handed out again.", client, VCommanderClientRegistry.get().acquire(ADDRESS, "commander", null, factory));
+    	client.close();
+    }
+
+    @Test
+    public void invalidate_DestroyedAfterLastClose() throws Exception {
+    	VCommanderClient first = VCommanderClientRegistry.get().acquire(ADDRESS, "commander", null, factory);
+    	VCommanderClient second = VCommanderClientRegistry.get().acquire(ADDRESS, "commander", null, factory);
+
+    	VCommanderClientRegistry.get().invalidate();
+    	Assert.assertFalse("Client in use should not be destroyed.", first.isDestroyed());
+
+    	// new users get a new client
+    	VCommanderClient renewed = VCommanderClientRegistry.get().acquire(ADDRESS, "commander", null, factory);
+    	Assert.assertNotSame("Retired client should not be handed out.", first, renewed);
+
+    	first.close();
+    	Assert.assertFalse("Client in use should not be destroyed.", second.isDestroyed());
+    	second.close();
+    	Assert.assertTrue("Retired client should be destroyed by its last user.", second.isDestroyed());
+    	Assert.assertFalse("New client should not be destroyed.", renewed.isDestroyed());
+    	renewed.close();
+    }
+
+    @Test
+    public void invalidate_NotInUse() throws Exception {
+    	VCommanderClient client = VCommanderClientRegistry.get().acquire(ADDRESS, "commander", null, factory);
+    	client.close();
+
+    	VCommanderClientRegistry.get().invalidate();
+    	Assert.assertTrue("Unused client should be destroyed right away.", client.isDestroyed());
+    }
+
+}
@@ -0,0 +1,65 @@
+/*************************************************************************
+ *
+ *	Copyright (c) 2017 Embotics Corporation. All Rights Reserved.
+ *
+ *	No part of this software may be reproduced, used in any
+ *	information storage and retrieval system, or transmitted in
+ *	any form or by any means, electronic, mechanical or otherwise,
+ *	without the written permission of Embotics Corporation.
+ *
+ ***************************************************************************/
+
+package com.embotics.vlm.rest.v30.client.model;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for CommentWatermark
+ *
+ * @author btarczali
+ */
+public class CommentWatermarkTest {
+
+    @Test
+    public void add_NewComments() throws Exception {
+    	CommentWatermark watermark = new CommentWatermark();
+    	Assert.assertFalse("Nothing logged yet, should not filter.", watermark.isIncremental());
+
+    	Assert.assertTrue("First comment should be new.", watermark.add(comment("2017-12-06T18:55:09Z", "first")));
+    	Assert.assertTrue("Newer comment should be new.", watermark.add(comment("2017-12-06T18:56:00Z", "second")));
+    	Assert.assertEquals("Watermark should move to the newest comment.", "2017-12-06T18:56:00Z", watermark.getUtcDate());
+    	Assert.assertTrue("Should filter after a comment was logged.", watermark.isIncremental());
+    }
+
+    @Test
+    public void add_AlreadyLoggedComments() throws Exception {
+    	CommentWatermark watermark = new CommentWatermark();
+    	watermark.add(comment("2017-12-06T18:55:09Z", "first"));
+    	watermark.add(comment("2017-12-06T18:56:00Z", "second"));
+
+    	// the date filter is inclusive, so the newest comment is returned again
+    	Assert.assertFalse("Comment at the watermark was already logged.", watermark.add(comment("2017-12-06T18:56:00Z", "second")));
+    	Assert.assertFalse("Older comment was already logged.", watermark.add(comment("2017-12-06T18:55:09Z", "first")));
+    	Assert.assertTrue("Other comment at the watermark should be new.", watermark.add(comment("2017-12-06T18:56:00Z", "third")));
+    }
+
+    @Test
+    public void setIncremental_NotSupported() throws Exception {
+    	CommentWatermark watermark = new CommentWatermark("2017-12-06T18:55:09Z");
+    	Assert.assertTrue("Should filter by date.", watermark.isIncremental());
+
+    	watermark.setIncremental(false);
+    	Assert.assertFalse("Should not filter by date.", watermark.isIncremental());
+    }
+
+    private Comment comment(String date, String text) throws JSONException {
+    	JSONObject comment = new JSONObject();
+    	comment.put("date", date);
+    	comment.put("text", text);
+    	return new Comment(comment);
+    }
+
+}